@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.RequestLine;
+
+/**
+ * Builds access log lines in a per-thread reusable buffer, appending the
+ * fields as they are instead of going through intermediate strings and
+ * String.format(); the only allocation for a line is the resulting String.
+ *
+ * Use it as:
+ *
+ * <pre>
+ * String line = AccessLogEncoder.get().append(...).append(...).toString();
+ * </pre>
+ *
+ * or, for a JSON object:
+ *
+ * <pre>
+ * String line = AccessLogEncoder.get().beginObject().field(...).field(...).endObject().toString();
+ * </pre>
+ *
+ * An encoder must not be passed to other threads.
+ */
+public class AccessLogEncoder {
+
+    private static final ThreadLocal<AccessLogEncoder> ENCODERS = new ThreadLocal<AccessLogEncoder>() {
+        @Override
+        protected AccessLogEncoder initialValue() {
+            return new AccessLogEncoder();
+        }
+    };
+
+    private static final int MAX_KEPT = 16*1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The formats of the access log lines
+     */
+    public static enum Format {
+        /**
+         * see HttpSessionService.LOG_PATTERN
+         */
+        COMMON,
+        /**
+         * a JSON object per line
+         */
+        JSON
+    };
+
+    private char[] buf = new char[256];
+    private int len = 0;
+    private boolean first = true;
+
+    /**
+     * @return the encoder of the calling thread, empty
+     */
+    public static AccessLogEncoder get() {
+        AccessLogEncoder e = ENCODERS.get();
+        if (e.buf.length > MAX_KEPT) {
+            //
+            // do not keep huge buffers because of a single huge uri
+            //
+            e.buf = new char[256];
+        }
+        e.len = 0;
+        e.first = true;
+
+        return e;
+    }
+
+    /**
+     * Equivalent to <code>String.format(HttpSessionService.LOG_PATTERN, ...)</code>
+     * with the remote address in textual form.
+     *
+     * @param remote the client address - NOT NULL
+     * @param sessionId the session id; "-" if null - MAY BE NULL
+     * @param line the request line - NOT NULL
+     * @param status the response status code
+     *
+     * @return the access log line
+     */
+    public static String encode(
+        final InetAddress remote,
+        final String sessionId,
+        final RequestLine line,
+        final int status
+    ) {
+        return get().append(remote).append(" - ")
+                    .append((sessionId == null) ? "-" : sessionId)
+                    .append(" \"").append(line).append("\" ")
+                    .append(status)
+                    .toString();
+    }
+
+    public AccessLogEncoder append(final char c) {
+        ensure(1);
+        buf[len++] = c;
+
+        return this;
+    }
+
+    /**
+     * @param s the string to append; "null" if null - MAY BE NULL
+     */
+    public AccessLogEncoder append(final String s) {
+        if (s == null) {
+            return append("null");
+        }
+        final int n = s.length();
+        ensure(n);
+        s.getChars(0, n, buf, len);
+        len += n;
+
+        return this;
+    }
+
+    public AccessLogEncoder append(long value) {
+        if (value == Long.MIN_VALUE) {
+            return append(String.valueOf(value));
+        }
+        if (value < 0) {
+            append('-'); value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            ++digits;
+        }
+        ensure(digits);
+        for (int i = len + digits - 1; i >= len; --i) {
+            buf[i] = (char)('0' + (value % 10));
+            value /= 10;
+        }
+        len += digits;
+
+        return this;
+    }
+
+    /**
+     * Appends the address in textual form (e.g. 127.0.0.1), without the host
+     * name
+     *
+     * @param address the address - NOT NULL
+     */
+    public AccessLogEncoder append(final InetAddress address) {
+        if (address instanceof Inet4Address) {
+            final byte[] a = address.getAddress();
+            for (int i=0; i<a.length; ++i) {
+                if (i > 0) {
+                    append('.');
+                }
+                append(a[i] & 0xff);
+            }
+            return this;
+        }
+
+        return append(address.getHostAddress());
+    }
+
+    /**
+     * Appends the request line as <code>METHOD URI PROTOCOL/MAJOR.MINOR</code>
+     *
+     * @param line the request line - NOT NULL
+     */
+    public AccessLogEncoder append(final RequestLine line) {
+        final ProtocolVersion v = line.getProtocolVersion();
+
+        return append(line.getMethod()).append(' ').append(line.getUri()).append(' ')
+              .append(v.getProtocol()).append('/')
+              .append(v.getMajor()).append('.').append(v.getMinor());
+    }
+
+    /**
+     * Appends the given string as a JSON string, quoted and escaped
+     *
+     * @param s the string; null is appended as null - MAY BE NULL
+     */
+    public AccessLogEncoder appendQuoted(final String s) {
+        if (s == null) {
+            return append("null");
+        }
+        append('"');
+        final int n = s.length();
+        for (int i=0; i<n; ++i) {
+            final char c = s.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                append('\\').append(c);
+            } else if (c < 0x20) {
+                append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0x0f]);
+            } else {
+                append(c);
+            }
+        }
+
+        return append('"');
+    }
+
+    public AccessLogEncoder beginObject() {
+        first = true;
+        return append('{');
+    }
+
+    public AccessLogEncoder endObject() {
+        return append('}');
+    }
+
+    /**
+     * Appends a string member of the current JSON object
+     *
+     * @param name the name - NOT NULL
+     * @param value the value - MAY BE NULL
+     */
+    public AccessLogEncoder field(final String name, final String value) {
+        return name(name).appendQuoted(value);
+    }
+
+    /**
+     * Appends a number member of the current JSON object
+     *
+     * @param name the name - NOT NULL
+     * @param value the value
+     */
+    public AccessLogEncoder field(final String name, final long value) {
+        return name(name).append(value);
+    }
+
+    /**
+     * Appends a boolean member of the current JSON object
+     *
+     * @param name the name - NOT NULL
+     * @param value the value
+     */
+    public AccessLogEncoder field(final String name, final boolean value) {
+        return name(name).append(value ? "true" : "false");
+    }
+
+    /**
+     * Appends an address member of the current JSON object, as a string in
+     * textual form (see append(InetAddress))
+     *
+     * @param name the name - NOT NULL
+     * @param value the value - NOT NULL
+     */
+    public AccessLogEncoder field(final String name, final InetAddress value) {
+        return name(name).append('"').append(value).append('"');
+    }
+
+    /**
+     * Appends a protocol version member of the current JSON object, as a
+     * string like HTTP/1.1
+     *
+     * @param name the name - NOT NULL
+     * @param value the value - NOT NULL
+     */
+    public AccessLogEncoder field(final String name, final ProtocolVersion value) {
+        return name(name).append('"').append(value.getProtocol()).append('/')
+              .append(value.getMajor()).append('.').append(value.getMinor())
+              .append('"');
+    }
+
+    /**
+     * @return the number of characters appended so far
+     */
+    public int length() {
+        return len;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, len);
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private AccessLogEncoder name(final String name) {
+        if (!first) {
+            append(',');
+        }
+        first = false;
+
+        return appendQuoted(name).append(':');
+    }
+
+    private void ensure(final int n) {
+        if (len + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+        }
+    }
+}
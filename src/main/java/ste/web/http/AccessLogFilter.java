@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which requests get an access log line, so that at peak the access
+ * log does not eat a significant share of CPU and disk bandwidth:
+ *
+ * <ul>
+ *   <li>sampling: only one request every sample is logged, unless its status
+ *       is one of the always logged ones (e.g. 5xx); requests are counted in
+ *       a few counters picked by thread, so that threads do not contend for a
+ *       single counter, yet a thread serving a single connection (e.g. a
+ *       virtual thread) does not start counting from 0</li>
+ *   <li>rate limit: at most rate lines per second are logged, with bursts of
+ *       up to rate lines; the limit applies to all lines</li>
+ * </ul>
+ *
+ * The requests not logged are counted (see getSampledOut() and
+ * getRateLimited()).
+ */
+public class AccessLogFilter {
+
+    private Clock clock = Clock.systemDefaultZone();
+
+    private final int sample;
+    private final boolean[] always;
+    private final long rate;
+    private final AtomicLong tat;
+    private final LongAdder sampledOut, rateLimited;
+
+    private final AtomicLongArray counters;
+    private final int mask;
+
+    /**
+     * @param sample log one request every sample - &gt; 0
+     * @param always the statuses always logged regardless of sampling, as
+     *               status codes (e.g. 404) or classes (e.g. 5xx) - NOT NULL
+     * @param rate the maximum number of lines per second; 0 means no limit - &gt;= 0
+     *
+     * @throws IllegalArgumentException if any of the values is invalid
+     */
+    public AccessLogFilter(final int sample, final String[] always, final int rate) {
+        if (sample <= 0) {
+            throw new IllegalArgumentException("sample must be greater than 0");
+        }
+        if (rate < 0) {
+            throw new IllegalArgumentException("rate must be greater or equal to 0");
+        }
+        this.sample = sample;
+        this.always = parseStatuses(always);
+        this.rate = rate;
+        //
+        // a power of 2 counters, about as many as the cores
+        //
+        final int n = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+        this.counters = new AtomicLongArray(n);
+        this.mask = n - 1;
+        this.tat = new AtomicLong(Long.MIN_VALUE);
+        this.sampledOut = new LongAdder();
+        this.rateLimited = new LongAdder();
+    }
+
+    /**
+     * @param status the response status code
+     *
+     * @return true if the request shall be logged
+     */
+    public boolean accept(final int status) {
+        if ((sample > 1) && !isAlways(status)) {
+            final int i = (int)Thread.currentThread().getId() & mask;
+            if (counters.incrementAndGet(i) % sample != 0) {
+                sampledOut.increment();
+                return false;
+            }
+        }
+
+        if ((rate > 0) && !take()) {
+            rateLimited.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of requests not logged because of sampling
+     */
+    public long getSampledOut() {
+        return sampledOut.sum();
+    }
+
+    /**
+     * @return the number of requests not logged because of the rate limit
+     */
+    public long getRateLimited() {
+        return rateLimited.sum();
+    }
+
+    /**
+     * @return the number of requests not logged
+     */
+    public long getSuppressed() {
+        return getSampledOut() + getRateLimited();
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private boolean isAlways(final int status) {
+        return (status >= 0) && (status < always.length) && always[status];
+    }
+
+    /**
+     * Takes a token from the bucket, implemented as a generic cell rate
+     * algorithm: tat is the time the bucket will be full again, measured in
+     * units of 1/rate milliseconds, so that a line costs exactly 1000 units
+     * and the bucket holds rate lines.
+     *
+     * @return true if a token was available
+     */
+    private boolean take() {
+        final long now = clock.millis() * rate;
+        while (true) {
+            final long t = tat.get();
+            final long next = Math.max(t, now) + 1000;
+            if (next - now > 1000 * rate) {
+                return false;
+            }
+            if (tat.compareAndSet(t, next)) {
+                return true;
+            }
+        }
+    }
+
+    private static boolean[] parseStatuses(final String[] statuses) {
+        final boolean[] set = new boolean[600];
+        for (String s: statuses) {
+            s = s.trim().toLowerCase();
+            if (s.isEmpty()) {
+                continue;
+            }
+            if (s.matches("[1-5]xx")) {
+                final int from = (s.charAt(0) - '0') * 100;
+                for (int i=from; i<from+100; ++i) {
+                    set[i] = true;
+                }
+            } else if (s.matches("[1-5][0-9][0-9]")) {
+                set[Integer.parseInt(s)] = true;
+            } else {
+                throw new IllegalArgumentException("invalid status " + s);
+            }
+        }
+
+        return set;
+    }
+}
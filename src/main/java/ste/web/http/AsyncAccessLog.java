@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Publishes access log records to a logger from a dedicated writer thread, so
+ * that request threads never wait for the log handlers (and their disk I/O).
+ *
+ * Request threads put records in a bounded lock-free ring buffer; the writer
+ * takes them out in batches of up to BATCH records and publishes them in
+ * order. When the buffer is full, records are dropped (and counted, see
+ * getDropped()) or the request thread waits for free space, depending on the
+ * policy.
+ *
+ * Records logged while the writer is not running (before start() or after
+ * close()) are published synchronously. Only one thread at a time drains the
+ * buffer: the writer, until it has exited, or else the thread publishing
+ * synchronously.
+ */
+public class AsyncAccessLog {
+
+    public static final int BATCH = 256;
+
+    /**
+     * What to do with a record when the buffer is full
+     */
+    public static enum Policy {
+        DROP, BLOCK
+    };
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FULL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final Logger LOG = Logger.getLogger(HttpServer.LOG_SERVER);
+
+    private final Logger log;
+    private final Policy policy;
+    private final AtomicReferenceArray<LogRecord> slots;
+    private final int mask;
+    private final AtomicLong head, tail;
+    private final LongAdder dropped;
+
+    private volatile Thread writer;
+    private final AtomicReference<Thread> drainer;
+    private volatile boolean idle;
+
+    /**
+     * @param log the logger records are published to - NOT NULL
+     * @param policy what to do when the buffer is full - NOT NULL
+     * @param size the number of records the buffer can hold; it is rounded up
+     *             to a power of two - &gt; 0
+     */
+    public AsyncAccessLog(final Logger log, final Policy policy, final int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be greater than 0");
+        }
+        this.log = log;
+        this.policy = policy;
+        final int capacity = (size == 1) ? 1 : Integer.highestOneBit(size - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.head = new AtomicLong(0);
+        this.tail = new AtomicLong(0);
+        this.dropped = new LongAdder();
+        this.drainer = new AtomicReference<>();
+    }
+
+    /**
+     * Queues a record to be published by the writer thread
+     *
+     * @param record the record - NOT NULL
+     */
+    public void log(final LogRecord record) {
+        if (writer == null) {
+            log.log(record);
+            return;
+        }
+
+        while (!offer(record)) {
+            if (policy == Policy.DROP) {
+                dropped.increment();
+                return;
+            }
+            Thread w = writer;
+            if (w == null) {
+                log.log(record);
+                return;
+            }
+            LockSupport.unpark(w);
+            LockSupport.parkNanos(this, FULL_NANOS);
+        }
+
+        if (writer == null) {
+            //
+            // close() ran in the meantime and the writer may have already
+            // published what was in the buffer
+            //
+            publishIfStopped();
+        } else if (idle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Starts the writer thread, if not already running
+     */
+    public synchronized void start() {
+        if (writer != null) {
+            return;
+        }
+
+        final Thread previous = drainer.get();
+        final Thread w = new Thread("https-access-log") {
+            @Override
+            public void run() {
+                try {
+                    loop();
+                } finally {
+                    drainer.compareAndSet(this, null);
+                    publishAll();
+                }
+            }
+
+            private void loop() {
+                //
+                // the writer stopped by a previous close() may still be
+                // publishing the last records
+                //
+                if (previous != null) {
+                    try {
+                        previous.join();
+                    } catch (InterruptedException x) {
+                        return;
+                    }
+                }
+                final LogRecord[] batch = new LogRecord[BATCH];
+                long reported = 0;
+                while (writer == this) {
+                    int n = drain(batch);
+                    publish(batch, n);
+
+                    long d = dropped.sum();
+                    if ((d > reported) && LOG.isLoggable(Level.WARNING)) {
+                        LOG.warning(String.format(
+                            "%d access log records dropped because the buffer is full", d - reported
+                        ));
+                    }
+                    reported = d;
+
+                    if (n == 0) {
+                        idle = true;
+                        if (head.get() == tail.get()) {
+                            LockSupport.parkNanos(this, IDLE_NANOS);
+                        }
+                        idle = false;
+                    }
+                }
+            }
+        };
+        w.setDaemon(true);
+        drainer.set(w);
+        writer = w;
+        w.start();
+    }
+
+    /**
+     * Waits until the records logged so far have been published
+     */
+    public void flush() {
+        final long t = tail.get();
+        while (head.get() < t) {
+            Thread w = writer;
+            if ((w == null) && (drainer.get() == null)) {
+                publishAll();
+                return;
+            }
+            LockSupport.unpark(w);
+            LockSupport.parkNanos(this, FULL_NANOS);
+        }
+    }
+
+    /**
+     * Stops the writer thread, which publishes the records still in the buffer
+     * before exiting; afterwards records are published synchronously until
+     * start() is called again. It waits up to one second for the writer to
+     * exit.
+     */
+    public void close() {
+        Thread w = null;
+        synchronized (this) {
+            w = writer; writer = null;
+        }
+        if (w != null) {
+            LockSupport.unpark(w);
+            try {
+                w.join(1000);
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        publishIfStopped();
+    }
+
+    /**
+     * @return the number of records dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of records waiting to be published
+     */
+    public int getPending() {
+        return (int)(tail.get() - head.get());
+    }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * Claims the next slot, unless the buffer is full, and stores the record
+     * in it; the consumer sees the slot as empty until the record is stored.
+     */
+    private boolean offer(final LogRecord record) {
+        while (true) {
+            long t = tail.get();
+            if (t - head.get() > mask) {
+                return false;
+            }
+            if (tail.compareAndSet(t, t+1)) {
+                slots.lazySet((int)t & mask, record);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves up to batch.length records from the buffer to batch; it stops at
+     * the first claimed slot whose record is not stored yet, so that records
+     * are published in order. Only one thread at a time shall drain.
+     *
+     * @return the number of records moved
+     */
+    private int drain(final LogRecord[] batch) {
+        long h = head.get();
+        int n = 0;
+        while (n < batch.length) {
+            int i = (int)h & mask;
+            LogRecord r = slots.get(i);
+            if (r == null) {
+                break;
+            }
+            slots.lazySet(i, null);
+            batch[n++] = r; ++h;
+        }
+        head.lazySet(h);
+
+        return n;
+    }
+
+    private void publish(final LogRecord[] batch, final int n) {
+        for (int i=0; i<n; ++i) {
+            try {
+                log.log(batch[i]);
+            } catch (RuntimeException x) {
+                //
+                // a faulty handler must not kill the writer
+                //
+            }
+            batch[i] = null;
+        }
+    }
+
+    /**
+     * Publishes the records in the buffer unless the writer is still running,
+     * in which case it publishes them itself before exiting
+     */
+    private void publishIfStopped() {
+        if (drainer.get() == null) {
+            publishAll();
+        }
+    }
+
+    private synchronized void publishAll() {
+        final LogRecord[] batch = new LogRecord[BATCH];
+        int n;
+        while ((n = drain(batch)) > 0) {
+            publish(batch, n);
+        }
+    }
+}
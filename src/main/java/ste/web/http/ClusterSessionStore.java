@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A store that keeps the sessions in a backend shared by all nodes of a
+ * cluster (e.g. a distributed cache), so that any node can serve any request.
+ *
+ * Sessions read from the backend are kept in a local near-cache for neartime
+ * milliseconds: hot sessions are read from local memory and changes made by
+ * other nodes become visible at most neartime milliseconds later. Changes made
+ * by this node are written to the backend when saved.
+ *
+ * The backend expires sessions not read or written for lifetime milliseconds;
+ * the sessions expired or evicted by a node's SessionCache are only forgotten
+ * by that node, because other nodes may still be using them (see isShared()).
+ * ids() and size() refer to the sessions in the near-cache.
+ */
+public class ClusterSessionStore implements SessionStore {
+
+    private Clock clock = Clock.systemDefaultZone();
+
+    private final Backend backend;
+    private final String prefix;
+    private final String sessionIdName;
+    private final long lifetime, neartime;
+    private final ConcurrentHashMap<String, Near> near;
+    private final AtomicLong lastSweep;
+
+    /**
+     * @param backend the shared backend - NOT NULL
+     * @param name the name of the store; sessions of stores with the same name
+     *             are shared by all nodes - NOT NULL
+     * @param sessionIdName the name of the session id cookie - NOT NULL
+     * @param lifetime how long (in milliseconds) the backend keeps sessions
+     *                 not used by any node; 0 means forever
+     * @param neartime how long (in milliseconds) sessions are kept in the
+     *                 near-cache; 0 disables the near-cache
+     */
+    public ClusterSessionStore(
+        final Backend backend,
+        final String name,
+        final String sessionIdName,
+        final long lifetime,
+        final long neartime
+    ) {
+        this.backend = backend;
+        this.prefix = name + ':';
+        this.sessionIdName = sessionIdName;
+        this.lifetime = lifetime;
+        this.neartime = neartime;
+        this.near = new ConcurrentHashMap<>();
+        this.lastSweep = new AtomicLong(0);
+    }
+
+    @Override
+    public HttpSession load(final String id) {
+        final long now = clock.millis();
+
+        Near n = near.get(id);
+        if ((n != null) && (now - n.loaded < neartime)) {
+            return n.session;
+        }
+
+        byte[] data = backend.get(prefix + id, lifetime);
+        if (data == null) {
+            near.remove(id);
+            return null;
+        }
+
+        StoredHttpSession session = StoredHttpSession.fromBytes(sessionIdName, id, data);
+        if (neartime > 0) {
+            near.put(id, new Near(session, now));
+        }
+
+        return session;
+    }
+
+    /**
+     * @throws IllegalArgumentException if session is not a StoredHttpSession
+     * @throws IllegalStateException if an attribute is not serializable
+     */
+    @Override
+    public void save(final HttpSession session) {
+        if (!(session instanceof StoredHttpSession)) {
+            throw new IllegalArgumentException(
+                "session " + session.getId() + " can not be shared"
+            );
+        }
+        StoredHttpSession s = (StoredHttpSession)session;
+
+        backend.put(prefix + s.getId(), s.toBytes(), lifetime);
+        s.clean();
+
+        final long now = clock.millis();
+        if (neartime > 0) {
+            near.put(s.getId(), new Near(s, now));
+        }
+        sweep(now);
+    }
+
+    /**
+     * Removes the session from the backend, therefore from all nodes
+     */
+    @Override
+    public HttpSession delete(final String id) {
+        near.remove(id);
+        backend.remove(prefix + id);
+
+        return null;
+    }
+
+    /**
+     * Access times are tracked by the backend, which expires sessions not
+     * used by any node
+     */
+    @Override
+    public void touch(final String id, final long timestamp) {
+    }
+
+    @Override
+    public long lastAccess(final String id) {
+        return 0;
+    }
+
+    @Override
+    public int size() {
+        return near.size();
+    }
+
+    @Override
+    public Set<String> ids() {
+        return near.keySet();
+    }
+
+    @Override
+    public boolean isShared() {
+        return true;
+    }
+
+    /**
+     * Forgets the sessions in the near-cache; sessions in the backend are
+     * left untouched.
+     */
+    @Override
+    public void close() {
+        near.clear();
+    }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * Drops stale near-cache entries at most once every neartime milliseconds,
+     * so that sessions not used by this node do not stay in memory.
+     */
+    private void sweep(final long now) {
+        long last = lastSweep.get();
+        if ((now - last < neartime) || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        for (Map.Entry<String, Near> e: near.entrySet()) {
+            if (now - e.getValue().loaded >= neartime) {
+                near.remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------- Near
+
+    private static class Near {
+        final StoredHttpSession session;
+        final long loaded;
+
+        Near(final StoredHttpSession session, final long loaded) {
+            this.session = session;
+            this.loaded = loaded;
+        }
+    }
+
+    // ----------------------------------------------------------------- Backend
+
+    /**
+     * The storage shared by the nodes (e.g. a client of a distributed cache).
+     * Implementations must be thread safe and have a public constructor with
+     * no arguments.
+     */
+    public static interface Backend {
+        /**
+         * Returns the data stored with the given key and keeps it for ttl
+         * more milliseconds
+         *
+         * @param key the key - NOT NULL
+         * @param ttl milliseconds; 0 means forever
+         *
+         * @return the data or null if not found or expired
+         */
+        public byte[] get(String key, long ttl);
+
+        /**
+         * @param key the key - NOT NULL
+         * @param data the data - NOT NULL
+         * @param ttl how long to keep the data (milliseconds); 0 means forever
+         */
+        public void put(String key, byte[] data, long ttl);
+
+        /**
+         * @param key the key - NOT NULL
+         */
+        public void remove(String key);
+    }
+
+    // -------------------------------------------------------- InProcessBackend
+
+    /**
+     * A backend shared by all stores in the same JVM; it stands in for a real
+     * distributed cache in tests and in single host setups running more
+     * servers.
+     */
+    public static class InProcessBackend implements Backend {
+        private static final ConcurrentHashMap<String, Item> ITEMS = new ConcurrentHashMap<>();
+        private static final AtomicLong LAST_SWEEP = new AtomicLong(0);
+
+        private Clock clock = Clock.systemDefaultZone();
+
+        @Override
+        public byte[] get(final String key, final long ttl) {
+            Item i = ITEMS.get(key);
+            if (i == null) {
+                return null;
+            }
+            final long now = clock.millis();
+            if (i.expires < now) {
+                ITEMS.remove(key, i);
+                return null;
+            }
+            i.expires = expires(now, ttl);
+
+            return i.data;
+        }
+
+        @Override
+        public void put(final String key, final byte[] data, final long ttl) {
+            final long now = clock.millis();
+            ITEMS.put(key, new Item(data, expires(now, ttl)));
+
+            //
+            // abandoned items are removed at most once a second
+            //
+            long last = LAST_SWEEP.get();
+            if ((now - last >= 1000) && LAST_SWEEP.compareAndSet(last, now)) {
+                for (Map.Entry<String, Item> e: ITEMS.entrySet()) {
+                    if (e.getValue().expires < now) {
+                        ITEMS.remove(e.getKey(), e.getValue());
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void remove(final String key) {
+            ITEMS.remove(key);
+        }
+
+        /**
+         * @return the number of items (expired or not) in the backend
+         */
+        public int size() {
+            return ITEMS.size();
+        }
+
+        /**
+         * Removes all items
+         */
+        public void clear() {
+            ITEMS.clear();
+        }
+
+        private static long expires(final long now, final long ttl) {
+            return (ttl > 0) ? now + ttl : Long.MAX_VALUE;
+        }
+
+        private static class Item {
+            final byte[] data;
+            volatile long expires;
+
+            Item(final byte[] data, final long expires) {
+                this.data = data;
+                this.expires = expires;
+            }
+        }
+    }
+}
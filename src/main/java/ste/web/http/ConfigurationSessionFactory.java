@@ -15,22 +15,49 @@
  */
 package ste.web.http;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.NoSuchElementException;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.ConversionException;
+import static ste.web.http.Constants.CONFIG_HTTPS_ROOT;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_CLUSTER_BACKEND;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_CLUSTER_NEARTIME;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_FLUSHTIME;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_GRANULARITY;
 import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_ID_NAME;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_LAZY;
 import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_LIFETIME;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_MAX;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_PERSIST;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_SHARED;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_STORE;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_PURGETIME;
 
 /**
  *
  */
 public class ConfigurationSessionFactory {
     
+    public static enum Store {
+        MEMORY, OFFHEAP, CLUSTER
+    };
+    
     public static final long DEFAULT_LIFETIME = 15*60*1000;
+    public static final long DEFAULT_PURGETIME = 5*1000;
+    public static final long DEFAULT_GRANULARITY = 1000;
+    public static final int DEFAULT_MAX_SESSIONS = 0; // no limit
+    public static final long DEFAULT_FLUSHTIME = 1000;
+    public static final long DEFAULT_NEARTIME = 1000;
     public static final String REGEX_VALID_NAME = "[_a-zA-Z][_a-zA-Z0-9]*";
     
-    private final long lifetime;
+    private final long lifetime, purgetime, granularity, flushtime, neartime;
+    private final int maxSessions;
+    private final boolean lazy, persist, sharedCache;
+    private final Store store;
+    private final File root;
+    private final ClusterSessionStore.Backend backend;
     private final String sessionIdName;
     
     public ConfigurationSessionFactory(Configuration configuration) 
@@ -49,6 +76,116 @@ public class ConfigurationSessionFactory {
             //
         }
         
+        long sessionPurgetime = DEFAULT_PURGETIME;
+        try {
+            sessionPurgetime = configuration.getLong(CONFIG_HTTPS_SESSION_PURGETIME, DEFAULT_PURGETIME);
+        } catch (ConversionException x) {
+            sessionPurgetime = 0;
+        }
+        if (sessionPurgetime <= 0) {
+            throw new ConfigurationException(CONFIG_HTTPS_SESSION_PURGETIME + " must be a positive number (milliseconds)");
+        }
+        
+        long sessionGranularity = DEFAULT_GRANULARITY;
+        try {
+            sessionGranularity = configuration.getLong(CONFIG_HTTPS_SESSION_GRANULARITY, DEFAULT_GRANULARITY);
+        } catch (ConversionException x) {
+            sessionGranularity = -1;
+        }
+        if (sessionGranularity < 0) {
+            throw new ConfigurationException(CONFIG_HTTPS_SESSION_GRANULARITY + " must be a number greater or equal to zero (milliseconds)");
+        }
+        
+        int maxSessions = DEFAULT_MAX_SESSIONS;
+        try {
+            maxSessions = configuration.getInt(CONFIG_HTTPS_SESSION_MAX, DEFAULT_MAX_SESSIONS);
+        } catch (ConversionException x) {
+            maxSessions = -1;
+        }
+        if (maxSessions < 0) {
+            throw new ConfigurationException(CONFIG_HTTPS_SESSION_MAX + " must be a number greater or equal to zero");
+        }
+        
+        boolean lazy = false;
+        try {
+            lazy = configuration.getBoolean(CONFIG_HTTPS_SESSION_LAZY, false);
+        } catch (ConversionException x) {
+            throw new ConfigurationException(CONFIG_HTTPS_SESSION_LAZY + " must be true or false");
+        }
+        
+        boolean sharedCache = false;
+        try {
+            sharedCache = configuration.getBoolean(CONFIG_HTTPS_SESSION_SHARED, false);
+        } catch (ConversionException x) {
+            throw new ConfigurationException(CONFIG_HTTPS_SESSION_SHARED + " must be true or false");
+        }
+        
+        boolean persist = false;
+        try {
+            persist = configuration.getBoolean(CONFIG_HTTPS_SESSION_PERSIST, false);
+        } catch (ConversionException x) {
+            throw new ConfigurationException(CONFIG_HTTPS_SESSION_PERSIST + " must be true or false");
+        }
+        String root = configuration.getString(CONFIG_HTTPS_ROOT);
+        if (persist && (root == null)) {
+            throw new ConfigurationException(
+                CONFIG_HTTPS_ROOT + " must be set when " + CONFIG_HTTPS_SESSION_PERSIST + " is true"
+            );
+        }
+        
+        long sessionFlushtime = DEFAULT_FLUSHTIME;
+        try {
+            sessionFlushtime = configuration.getLong(CONFIG_HTTPS_SESSION_FLUSHTIME, DEFAULT_FLUSHTIME);
+        } catch (ConversionException x) {
+            sessionFlushtime = 0;
+        }
+        if (sessionFlushtime <= 0) {
+            throw new ConfigurationException(CONFIG_HTTPS_SESSION_FLUSHTIME + " must be a positive number (milliseconds)");
+        }
+        
+        String s = configuration.getString(CONFIG_HTTPS_SESSION_STORE, "memory");
+        try {
+            this.store = Store.valueOf(s.trim().toUpperCase());
+        } catch (IllegalArgumentException x) {
+            throw new ConfigurationException(
+                "the session store <" + s + "> is invalid; please specify 'memory', 'offheap' or 'cluster' for the property " +
+                CONFIG_HTTPS_SESSION_STORE
+            );
+        }
+        
+        if (persist && (store == Store.CLUSTER)) {
+            throw new ConfigurationException(
+                CONFIG_HTTPS_SESSION_PERSIST + " can not be used with the cluster session store"
+            );
+        }
+        
+        long sessionNeartime = DEFAULT_NEARTIME;
+        try {
+            sessionNeartime = configuration.getLong(CONFIG_HTTPS_SESSION_CLUSTER_NEARTIME, DEFAULT_NEARTIME);
+        } catch (ConversionException x) {
+            sessionNeartime = -1;
+        }
+        if (sessionNeartime < 0) {
+            throw new ConfigurationException(CONFIG_HTTPS_SESSION_CLUSTER_NEARTIME + " must be a number greater or equal to zero (milliseconds)");
+        }
+        
+        ClusterSessionStore.Backend backend = null;
+        if (store == Store.CLUSTER) {
+            String b = configuration.getString(
+                CONFIG_HTTPS_SESSION_CLUSTER_BACKEND, 
+                ClusterSessionStore.InProcessBackend.class.getName()
+            );
+            try {
+                backend = (ClusterSessionStore.Backend)Class.forName(b.trim()).getDeclaredConstructor().newInstance();
+            } catch (ClassCastException | ReflectiveOperationException x) {
+                throw new ConfigurationException(
+                    "the session backend <" + b + "> is invalid; please specify a class implementing " +
+                    ClusterSessionStore.Backend.class.getName() + " for the property " +
+                    CONFIG_HTTPS_SESSION_CLUSTER_BACKEND + " (" + x + ")"
+                );
+            }
+        }
+        
         String sessionIdName = configuration.getString(CONFIG_HTTPS_SESSION_ID_NAME);
         if ((sessionIdName != null) && !sessionIdName.matches(REGEX_VALID_NAME)) {
             throw new ConfigurationException(CONFIG_HTTPS_SESSION_ID_NAME + " '" + sessionIdName + "' must be a valid identifier (" + REGEX_VALID_NAME + ")");
@@ -60,17 +197,136 @@ public class ConfigurationSessionFactory {
                            : sessionIdName
                            ;
         this.lifetime = (sessionLifetime > 0) ? sessionLifetime : 0;
+        this.purgetime = sessionPurgetime;
+        this.granularity = sessionGranularity;
+        this.maxSessions = maxSessions;
+        this.lazy = lazy;
+        this.persist = persist;
+        this.sharedCache = sharedCache;
+        this.flushtime = sessionFlushtime;
+        this.root = (root == null) ? null : new File(root);
+        this.neartime = sessionNeartime;
+        this.backend = backend;
     }
     
     public long getLifetime() {
         return lifetime;
     }
     
+    /**
+     * @return how often (in milliseconds) expired sessions are purged
+     */
+    public long getPurgetime() {
+        return purgetime;
+    }
+    
+    /**
+     * @return how often (at most, in milliseconds) the last access time of a
+     *         session is updated; 0 means at each access
+     */
+    public long getGranularity() {
+        return granularity;
+    }
+    
+    /**
+     * @return the maximum number of sessions kept in the cache; 0 means no limit
+     */
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+    
+    /**
+     * @return true if sessions shall be created only when a handler asks for
+     *         them, false if each request shall get a session
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+    
+    /**
+     * @return true if the ssl and web services shall share the same session
+     *         cache, so that a client gets the same session on both ports
+     */
+    public boolean isSharedCache() {
+        return sharedCache;
+    }
+    
+    /**
+     * @return true if sessions shall survive a restart
+     */
+    public boolean isPersist() {
+        return persist;
+    }
+    
+    /**
+     * @return how often (in milliseconds) changed sessions are written to disk
+     *         when persist is true
+     */
+    public long getFlushtime() {
+        return flushtime;
+    }
+    
+    /**
+     * @return how long (in milliseconds) sessions of the cluster store are
+     *         kept in the local near-cache
+     */
+    public long getNeartime() {
+        return neartime;
+    }
+    
     public String getSessionIdName() {
         return sessionIdName;
     }
     
+    public Store getStore() {
+        return store;
+    }
+    
     public HttpSession create() {
-        return new HttpSession(sessionIdName);
+        return ((store == Store.MEMORY) && !persist)
+             ? new HttpSession(sessionIdName)
+             : new StoredHttpSession(sessionIdName)
+             ;
+    }
+    
+    /**
+     * Equivalent to <code>createStore("sessions")</code>.
+     */
+    public SessionStore createStore() {
+        return createStore("sessions");
+    }
+    
+    /**
+     * @param name the name of the store, used for the log file of persistent
+     *             stores and to share sessions among the nodes of a cluster
+     *             (e.g. the listener name) - NOT NULL
+     * 
+     * @return a new store of the configured kind; if persist is true, the 
+     *         sessions saved under the same name before a restart are reloaded
+     * 
+     * @throws IllegalStateException if the sessions log can not be read or 
+     *         written
+     */
+    public SessionStore createStore(final String name) {
+        if (store == Store.CLUSTER) {
+            return new ClusterSessionStore(backend, name, sessionIdName, lifetime, neartime);
+        }
+        
+        SessionStore s = (store == Store.MEMORY) 
+                       ? new MemorySessionStore()
+                       : new OffHeapSessionStore(sessionIdName)
+                       ;
+        if (!persist) {
+            return s;
+        }
+        
+        File log = new File(new File(root, "sessions"), name + ".log");
+        try {
+            return new PersistentSessionStore(s, log, sessionIdName, flushtime);
+        } catch (IOException x) {
+            throw new IllegalStateException(
+                "unable to load the sessions from " + log.getAbsolutePath() + " (" + x.getMessage() + ")", x
+            );
+        }
     }
 }
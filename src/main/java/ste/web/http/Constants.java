@@ -23,17 +23,120 @@ public class Constants {
     public static final String CONFIG_SSL_PASSWORD   = "ste.https.ssl.password";
     public static final String CONFIG_HTTPS_ROOT     = "ste.https.root";
     public static final String CONFIG_HTTPS_SSL_PORT = "ste.https.ssl.port";
+    public static final String CONFIG_HTTPS_SSL_SESSION_CACHE
+                                                     = "ste.https.ssl.session.cache";
+    public static final String CONFIG_HTTPS_SSL_SESSION_TIMEOUT
+                                                     = "ste.https.ssl.session.timeout";
+    public static final String CONFIG_HTTPS_SSL_SESSION_TICKETS
+                                                     = "ste.https.ssl.session.tickets";
+    public static final String CONFIG_HTTPS_SSL_HANDSHAKE_TIMEOUT
+                                                     = "ste.https.ssl.handshake.timeout";
+    public static final String CONFIG_HTTPS_SSL_KEYSTORE_RELOAD
+                                                     = "ste.https.ssl.keystore.reload";
+    public static final String CONFIG_HTTPS_SSL_PROTOCOLS
+                                                     = "ste.https.ssl.protocols";
+    public static final String CONFIG_HTTPS_SSL_CIPHERS
+                                                     = "ste.https.ssl.ciphers";
+    public static final String CONFIG_HTTPS_THREADS  = "ste.https.threads";
+    public static final String CONFIG_HTTPS_THREADS_CORE
+                                                     = "ste.https.threads.core";
+    public static final String CONFIG_HTTPS_THREADS_MAX
+                                                     = "ste.https.threads.max";
+    public static final String CONFIG_HTTPS_THREADS_QUEUE
+                                                     = "ste.https.threads.queue";
     public static final String CONFIG_HTTPS_WEB_PORT 
                                                      = "ste.https.web.port";
     public static final String CONFIG_HTTPS_AUTH     = "ste.https.auth";
+    public static final String CONFIG_HTTPS_LISTENER = "ste.https.listener";
+    public static final String CONFIG_HTTPS_ACCEPTORS 
+                                                     = "ste.https.acceptors";
+    public static final String CONFIG_HTTPS_BACKLOG  = "ste.https.backlog";
     public static final String CONFIG_HTTPS_SESSION_ID_NAME
                                                      = "ste.https.session.name";
     public static final String CONFIG_HTTPS_SESSION_LIFETIME 
                                                      = "ste.https.session.lifetime";
+    public static final String CONFIG_HTTPS_SESSION_PURGETIME 
+                                                     = "ste.https.session.purgetime";
+    public static final String CONFIG_HTTPS_SESSION_GRANULARITY
+                                                     = "ste.https.session.granularity";
+    public static final String CONFIG_HTTPS_SESSION_MAX
+                                                     = "ste.https.session.max";
+    public static final String CONFIG_HTTPS_SESSION_LAZY
+                                                     = "ste.https.session.lazy";
+    public static final String CONFIG_HTTPS_SESSION_STORE
+                                                     = "ste.https.session.store";
+    public static final String CONFIG_HTTPS_SESSION_PERSIST
+                                                     = "ste.https.session.persist";
+    public static final String CONFIG_HTTPS_SESSION_FLUSHTIME
+                                                     = "ste.https.session.flushtime";
+    public static final String CONFIG_HTTPS_SESSION_CLUSTER_BACKEND
+                                                     = "ste.https.session.cluster.backend";
+    public static final String CONFIG_HTTPS_SESSION_CLUSTER_NEARTIME
+                                                     = "ste.https.session.cluster.neartime";
+    public static final String CONFIG_HTTPS_SESSION_SHARED
+                                                     = "ste.https.session.shared";
+    public static final String CONFIG_HTTPS_SESSION_STATS
+                                                     = "ste.https.session.stats";
     public static final String CONFIG_HTTPS_WEBROOT 
                                                      = "ste.https.webroot";
+    public static final String CONFIG_HTTPS_KEEPALIVE_MAX
+                                                     = "ste.https.keepalive.max";
+    public static final String CONFIG_HTTPS_KEEPALIVE_TIMEOUT
+                                                     = "ste.https.keepalive.timeout";
+    public static final String CONFIG_HTTPS_ACCESSLOG
+                                                     = "ste.https.accesslog";
+    public static final String CONFIG_HTTPS_ACCESSLOG_BUFFER
+                                                     = "ste.https.accesslog.buffer";
+    public static final String CONFIG_HTTPS_ACCESSLOG_SAMPLE
+                                                     = "ste.https.accesslog.sample";
+    public static final String CONFIG_HTTPS_ACCESSLOG_ALWAYS
+                                                     = "ste.https.accesslog.always";
+    public static final String CONFIG_HTTPS_ACCESSLOG_RATE
+                                                     = "ste.https.accesslog.rate";
+    public static final String CONFIG_HTTPS_SSL_ACCESSLOG_FORMAT
+                                                     = "ste.https.ssl.accesslog.format";
+    public static final String CONFIG_HTTPS_WEB_ACCESSLOG_FORMAT
+                                                     = "ste.https.web.accesslog.format";
     
     public static final int DEFAULT_SSL_PORT = 8484;
     public static final int DEFAULT_WEB_PORT = 8400;
+    public static final int DEFAULT_SSL_SESSION_CACHE = 20480;
+    public static final int DEFAULT_SSL_SESSION_TIMEOUT = 86400; // 24 hours (seconds)
+    public static final int DEFAULT_SSL_KEYSTORE_RELOAD = 60; // seconds
+    public static final int DEFAULT_SSL_HANDSHAKE_TIMEOUT = 10000; // 10 seconds
+    public static final int DEFAULT_ACCEPTORS = 1;
+    public static final int DEFAULT_BACKLOG = 50;
+    public static final int DEFAULT_THREADS_CORE = 10;
+    public static final int DEFAULT_THREADS_MAX = 200;
+    public static final int DEFAULT_THREADS_QUEUE = 100;
+    public static final int DEFAULT_KEEPALIVE_MAX = 100;
+    public static final int DEFAULT_KEEPALIVE_TIMEOUT = 15000; // 15 seconds
+    public static final int DEFAULT_ACCESSLOG_BUFFER = 8192;
+    
+    /**
+     * The TLS protocols enabled by default, in order of preference; the ones
+     * not supported by the jvm are ignored
+     */
+    public static final String[] DEFAULT_SSL_PROTOCOLS = {
+        "TLSv1.3", "TLSv1.2"
+    };
+    
+    /**
+     * The cipher suites enabled by default, in order of preference: AEAD
+     * ciphers with ephemeral (EC)DH keys only, AES-GCM first because of the
+     * hardware acceleration on most servers; the ones not supported by the
+     * jvm are ignored
+     */
+    public static final String[] DEFAULT_SSL_CIPHERS = {
+        "TLS_AES_128_GCM_SHA256",
+        "TLS_AES_256_GCM_SHA384",
+        "TLS_CHACHA20_POLY1305_SHA256",
+        "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+        "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+        "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+        "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+        "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256",
+        "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256"
+    };
     
 }
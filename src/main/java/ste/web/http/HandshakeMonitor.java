@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * Counts the TLS handshakes of the ssl listener, telling full handshakes
+ * (a new session is negotiated with the expensive asymmetric crypto) from
+ * resumed ones (a cached session is reused), and keeps a histogram of how
+ * long handshakes take, failed ones included, so that slow or stalling
+ * clients can be spotted.
+ *
+ * A handshake is resumed if its session was created before the handshake
+ * started: the JDK keeps the creation time of the original session when it
+ * resumes it, also when it gives the connection a copy of it, as it does with
+ * TLS 1.3 pre-shared keys and with session tickets. Listeners call
+ * handshakeCompleted() once the session is established, with the time the
+ * handshake (or the connection) started.
+ * Handshake durations are reported by blocking listeners only, which do the
+ * handshake on the worker thread serving the connection.
+ */
+public class HandshakeMonitor implements HandshakeMonitorMBean {
+
+    /**
+     * The upper bounds (inclusive, in milliseconds) of the buckets of the
+     * handshake durations histogram; an additional last bucket counts the
+     * longer handshakes
+     */
+    public static final long[] DURATION_BOUNDS = {
+        1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000
+    };
+
+    private final SSLSessionContext sessions;
+    private final LongAdder full, resumed, failed;
+    private final LongAdder[] durations;
+
+    /**
+     * @param sessions the server session context of the ssl listener - NOT NULL
+     */
+    public HandshakeMonitor(final SSLSessionContext sessions) {
+        this.sessions = sessions;
+        this.full = new LongAdder();
+        this.resumed = new LongAdder();
+        this.failed = new LongAdder();
+        this.durations = new LongAdder[DURATION_BOUNDS.length + 1];
+        for (int i=0; i<durations.length; ++i) {
+            durations[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Adds a handshake to the durations histogram
+     *
+     * @param nanos how long the handshake took
+     * @param success false if the handshake failed or timed out
+     */
+    public void handshakeDone(final long nanos, final boolean success) {
+        int i = 0;
+        while ((i < DURATION_BOUNDS.length) && (nanos > DURATION_BOUNDS[i] * 1000000L)) {
+            ++i;
+        }
+        durations[i].increment();
+        if (!success) {
+            failed.increment();
+        }
+    }
+
+    /**
+     * Counts a completed handshake
+     *
+     * @param session the negotiated session - NOT NULL
+     * @param started when (in milliseconds) the handshake started
+     */
+    public void handshakeCompleted(final SSLSession session, final long started) {
+        if (session.getCreationTime() < started) {
+            resumed.increment();
+        } else {
+            full.increment();
+        }
+    }
+
+    @Override
+    public long getFullHandshakes() {
+        return full.sum();
+    }
+
+    @Override
+    public long getResumedHandshakes() {
+        return resumed.sum();
+    }
+
+    @Override
+    public long getFailedHandshakes() {
+        return failed.sum();
+    }
+
+    @Override
+    public long[] getHandshakeDurationBounds() {
+        return DURATION_BOUNDS.clone();
+    }
+
+    @Override
+    public long[] getHandshakeDurations() {
+        final long[] counts = new long[durations.length];
+        for (int i=0; i<counts.length; ++i) {
+            counts[i] = durations[i].sum();
+        }
+
+        return counts;
+    }
+
+    @Override
+    public int getSessionCacheSize() {
+        return sessions.getSessionCacheSize();
+    }
+
+    @Override
+    public int getSessionTimeout() {
+        return sessions.getSessionTimeout();
+    }
+}
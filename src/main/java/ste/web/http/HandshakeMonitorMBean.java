@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+/**
+ * The TLS handshake statistics of the ssl listener exposed via JMX; counters
+ * are totals since the server was created.
+ */
+public interface HandshakeMonitorMBean {
+    /**
+     * @return how many handshakes created a new TLS session
+     */
+    public long getFullHandshakes();
+
+    /**
+     * @return how many handshakes resumed a cached TLS session
+     */
+    public long getResumedHandshakes();
+
+    /**
+     * @return how many handshakes failed or did not complete in time
+     */
+    public long getFailedHandshakes();
+
+    /**
+     * @return the upper bounds (inclusive, in milliseconds) of the buckets of
+     *         getHandshakeDurations()
+     */
+    public long[] getHandshakeDurationBounds();
+
+    /**
+     * @return how many handshakes took up to the corresponding bound in
+     *         getHandshakeDurationBounds() (and more than the previous one);
+     *         the last element counts the handshakes longer than the last
+     *         bound
+     */
+    public long[] getHandshakeDurations();
+
+    /**
+     * @return the maximum number of TLS sessions cached by the server; 0
+     *         means no limit
+     */
+    public int getSessionCacheSize();
+
+    /**
+     * @return how long (in seconds) TLS sessions are cached; 0 means forever
+     */
+    public int getSessionTimeout();
+}
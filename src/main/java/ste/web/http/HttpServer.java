@@ -18,8 +18,13 @@ package ste.web.http;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketOption;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -30,15 +35,69 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
 
 import org.apache.http.ConnectionClosedException;
 import org.apache.http.HttpException;
+import org.apache.http.HttpInetConnection;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpServerConnection;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.impl.nio.DefaultHttpServerIODispatch;
+import org.apache.http.impl.nio.reactor.DefaultListeningIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.protocol.BasicAsyncRequestConsumer;
+import org.apache.http.nio.protocol.HttpAsyncExchange;
+import org.apache.http.nio.protocol.HttpAsyncRequestConsumer;
+import org.apache.http.nio.protocol.HttpAsyncRequestHandler;
+import org.apache.http.nio.protocol.HttpAsyncRequestHandlerMapper;
+import org.apache.http.nio.protocol.HttpAsyncService;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.nio.reactor.ListenerEndpoint;
+import org.apache.http.nio.reactor.ListeningIOReactor;
+import org.apache.http.nio.reactor.ssl.SSLSetupHandler;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
 import org.apache.http.protocol.HttpProcessor;
 import org.apache.http.protocol.HttpProcessorBuilder;
 import org.apache.http.protocol.ResponseConnControl;
@@ -50,6 +109,7 @@ import org.apache.http.protocol.UriHttpRequestHandlerMapper;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLServerSocket;
 import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.X509ExtendedKeyManager;
 import javax.net.ssl.X509KeyManager;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
@@ -70,20 +130,59 @@ public class HttpServer {
     public static final String LOG_ACCESS = "ste.https.access";
     public static final String LOG_SERVER = "ste.https.server";
     public static final String CERT_ALIAS = "ste.https";
+    /**
+     * Optional EC server certificate, used instead of the one in CERT_ALIAS 
+     * with the clients supporting ECDSA
+     */
+    public static final String CERT_ALIAS_EC = CERT_ALIAS + ".ec";
+    
+    private static final String JDK_SESSION_TICKETS = "jdk.tls.server.enableSessionTicketExtension";
     
     final Logger LOG = Logger.getLogger(LOG_SERVER);
 
     public static enum ClientAuthentication {
         BASIC, NONE, CERTIFICATE
     };
+    
+    public static enum Threads {
+        PLATFORM, VIRTUAL
+    };
+    
+    public static enum Listener {
+        BLOCKING, NIO
+    };
 
+    private SSLContext sslContext;
     private SSLServerSocketFactory sf;
+    private int sslSessionCache, sslSessionTimeout;
+    private HandshakeMonitor handshakes;
+    private String[] sslProtocols, sslCiphers;
+    private HttpKeyManager keyManager;
+    private File keystore;
+    private long keystoreModified, keystoreLength;
+    private int keystoreReload;
+    private int handshakeTimeout;
     private int sslPort, webPort;
+    private int keepAliveMax, keepAliveTimeout;
+    private Threads threads;
+    private int threadsCore, threadsMax, threadsQueue;
+    private ExecutorService workers;
+    private ScheduledExecutorService sweeper;
+    private ScheduledExecutorService handshakeTimer;
+    private List<ObjectName> mbeans;
+    private AsyncAccessLog accessLog;
+    private AccessLogFilter accessLogFilter;
+    private AccessLogEncoder.Format sslAccessLogFormat, webAccessLogFormat;
     private HttpSessionService ssl, web;
+    private HttpProcessor processor;
     private boolean running;
-    private RequestListenerThread listenerThread, webListenerThread;
+    private Listener listener;
+    private List<Thread> listenerThreads, webListenerThreads;
+    private int acceptors, backlog;
     private ClientAuthentication authentication;
     private Configuration configuration;
+    private final Set<HttpServerConnection> connections = 
+        Collections.newSetFromMap(new ConcurrentHashMap<HttpServerConnection, Boolean>());
     
     UriHttpRequestHandlerMapper sslMapper;
     UriHttpRequestHandlerMapper webMapper;
@@ -132,18 +231,19 @@ public class HttpServer {
     }
     
     public void start() {
-        SSLServerSocket sslSocket = null;
-        ServerSocket webSocket = null;
-        
         running = true;
         
+        workers = createWorkers();
+        sweeper = createSweeper();
+        handshakeTimer = createHandshakeTimer();
+        if (accessLog != null) {
+            accessLog.start();
+        }
+        mbeans = registerMBeans();
+        
         if (sslPort > 0) {
             try {
-                sslSocket = (SSLServerSocket) sf.createServerSocket(sslPort);
-                sslSocket.setNeedClientAuth(authentication == ClientAuthentication.CERTIFICATE);
-                listenerThread = new RequestListenerThread(this, sslSocket);
-                listenerThread.setDaemon(true);
-                listenerThread.start();
+                listenerThreads = startListeners(sslPort, true);
             } catch (IOException x) {
                 if (LOG.isLoggable(Level.INFO)) {
                     LOG.info(String.format("unable to start the server because it was not possible to bind port %d (%s)",
@@ -158,10 +258,7 @@ public class HttpServer {
         
         if (webPort > 0) {
             try {
-                webSocket = new ServerSocket(webPort);         
-                webListenerThread = new RequestListenerThread(this, webSocket);
-                webListenerThread.setDaemon(true);
-                webListenerThread.start(); 
+                webListenerThreads = startListeners(webPort, false);
             } catch (IOException x) {
                 if (LOG.isLoggable(Level.INFO)) {
                     LOG.info(
@@ -177,22 +274,50 @@ public class HttpServer {
     }
 
     public void stop() {
-        if (listenerThread != null) {
-            listenerThread.interrupt();
-            try {
-                listenerThread.join(1000);
-            } catch (InterruptedException x) {
-                throw new RuntimeException(x);
+        for (List<Thread> threads: Arrays.asList(listenerThreads, webListenerThreads)) {
+            if (threads == null) {
+                continue;
+            }
+            for (Thread t: threads) {
+                t.interrupt();
+            }
+            for (Thread t: threads) {
+                try {
+                    t.join(1000);
+                } catch (InterruptedException x) {
+                    throw new RuntimeException(x);
+                }
             }
         }
-        if (webListenerThread != null) {
-            webListenerThread.interrupt();
+        //
+        // keep-alive connections would otherwise be served by this instance
+        // until they time out
+        //
+        for (HttpServerConnection c: connections) {
             try {
-                webListenerThread.join(1000);
-            } catch (InterruptedException x) {
-                throw new RuntimeException(x);
+                c.shutdown();
+            } catch (IOException x) {
+                //
+                // nothing we can do...
+                //
             }
         }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+        if (handshakeTimer != null) {
+            handshakeTimer.shutdownNow();
+        }
+        unregisterMBeans();
+        if (accessLog != null) {
+            accessLog.close();
+        }
+        for (HttpSessionService service: getSessionServices().values()) {
+            service.getSessionCache().close();
+        }
         running = false;
     }
 
@@ -207,6 +332,28 @@ public class HttpServer {
     public HttpSessionService getWebService() {
         return web;
     }
+    
+    /**
+     * @return the services with their own session cache by name (ssl and/or 
+     *         web); if the services share the session cache, only one of them
+     *         is returned with name shared
+     */
+    Map<String, HttpSessionService> getSessionServices() {
+        Map<String, HttpSessionService> services = new LinkedHashMap<>();
+        
+        if ((ssl != null) && (web != null) && (ssl.getSessionCache() == web.getSessionCache())) {
+            services.put("shared", ssl);
+        } else {
+            if (ssl != null) {
+                services.put("ssl", ssl);
+            }
+            if (web != null) {
+                services.put("web", web);
+            }
+        }
+        
+        return services;
+    }
 
     public int getSSLPort() {
         return sslPort;
@@ -216,9 +363,132 @@ public class HttpServer {
         return webPort;
     }
     
+    /**
+     * @return the maximum number of requests served on a single connection;
+     *         0 means no limit
+     */
+    public int getKeepAliveMax() {
+        return keepAliveMax;
+    }
+    
+    /**
+     * @return how long (in milliseconds) an idle connection is kept open
+     *         waiting for the next request; 0 means no timeout
+     */
+    public int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+    
+    /**
+     * @return the kind of threads connections are served by
+     */
+    public Threads getThreads() {
+        return threads;
+    }
+    
+    /**
+     * @return the number of worker threads kept alive even if idle
+     */
+    public int getThreadsCore() {
+        return threadsCore;
+    }
+    
+    /**
+     * @return the maximum number of worker threads
+     */
+    public int getThreadsMax() {
+        return threadsMax;
+    }
+    
+    /**
+     * @return how many accepted connections can wait for a worker thread 
+     *         before being rejected with a 503 - Service Unavailable
+     */
+    public int getThreadsQueue() {
+        return threadsQueue;
+    }
+    
     public ClientAuthentication getAuthentication() {
         return authentication;
     }
+    
+    /**
+     * @return the number of threads accepting connections on each port
+     */
+    public int getAcceptors() {
+        return acceptors;
+    }
+    
+    /**
+     * @return the maximum number of pending connections on each port; 0 
+     *         means the system default
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+    
+    /**
+     * @return the TLS protocols enabled on the ssl listener, in order of
+     *         preference
+     */
+    public String[] getSSLProtocols() {
+        return sslProtocols.clone();
+    }
+    
+    /**
+     * @return the cipher suites enabled on the ssl listener, in order of
+     *         preference
+     */
+    public String[] getSSLCipherSuites() {
+        return sslCiphers.clone();
+    }
+    
+    /**
+     * @return the maximum time (in milliseconds) a client can take to 
+     *         complete the TLS handshake; 0 means no limit
+     */
+    public int getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+    
+    /**
+     * @return the TLS handshake statistics of the ssl listener
+     */
+    public HandshakeMonitor getHandshakeMonitor() {
+        return handshakes;
+    }
+    
+    /**
+     * @return the log access records are queued to or null if they are 
+     *         logged synchronously
+     */
+    public AsyncAccessLog getAccessLog() {
+        return accessLog;
+    }
+    
+    /**
+     * @return the filter deciding which requests are logged or null if all
+     *         requests are logged
+     */
+    public AccessLogFilter getAccessLogFilter() {
+        return accessLogFilter;
+    }
+    
+    /**
+     * @param whichPort ssl or web
+     * 
+     * @return the format of the access log lines of the given listener
+     */
+    public AccessLogEncoder.Format getAccessLogFormat(final String whichPort) {
+        return "web".equals(whichPort) ? webAccessLogFormat : sslAccessLogFormat;
+    }
+    
+    /**
+     * @return the kind of listeners accepting the connections
+     */
+    public Listener getListener() {
+        return listener;
+    }
 
     /**
      * If processor is null a default implementation is provided as follows:
@@ -254,6 +524,25 @@ public class HttpServer {
         if (processor == null) {
             processor = buildDefaultHttpProcessor();
         }
+        this.processor = processor;
+        
+        //
+        // the caches of the services being replaced must be closed before
+        // creating the new ones, so that a persistent store writes its 
+        // pending changes and stops its writer before the log is reloaded
+        //
+        for (HttpSessionService service: getSessionServices().values()) {
+            service.getSessionCache().close();
+        }
+        
+        //
+        // with a single listener there is nothing to share
+        //
+        final SessionCache sharedCache = 
+            (sessionFactory.isSharedCache() && (sslPort > 0) && (webPort > 0))
+            ? new SessionCache(sessionFactory, "shared")
+            : null
+            ;
         
         // Set up request handlers end HTTP service
         if (handlers != null) {
@@ -268,25 +557,15 @@ public class HttpServer {
                     webMapper.register(pattern, handler); 
                 }
             }
+            registerStatsHandler(sslMapper);
             
-            ssl = (sslPort > 0) 
-                ? new HttpSessionService(processor, sslMapper, sessionFactory)
-                : null
-                ;
-            web = (webPort > 0)
-                ? new HttpSessionService(processor, webMapper, sessionFactory)
-                : null
-                ;
+            ssl = createService(sslMapper, sessionFactory, "ssl", sharedCache);
+            web = createService(webMapper, sessionFactory, "web", sharedCache);
         } else {
             UriHttpRequestHandlerMapper registry = new UriHttpRequestHandlerMapper();
-            ssl = (sslPort > 0) 
-                ? new HttpSessionService(processor, registry, sessionFactory)
-                : null
-                ;
-            web = (webPort > 0) 
-                ? new HttpSessionService(processor, registry, sessionFactory)
-                : null
-                ;
+            registerStatsHandler(registry);
+            ssl = createService(registry, sessionFactory, "ssl", sharedCache);
+            web = createService(new UriHttpRequestHandlerMapper(), sessionFactory, "web", sharedCache);
         }
     }
     
@@ -332,13 +611,157 @@ public class HttpServer {
         sslPort = configPort("ssl");
         webPort = configPort("web");
         
+        keepAliveMax = Math.max(
+            0, configInt(CONFIG_HTTPS_KEEPALIVE_MAX, DEFAULT_KEEPALIVE_MAX)
+        );
+        keepAliveTimeout = Math.max(
+            0, configInt(CONFIG_HTTPS_KEEPALIVE_TIMEOUT, DEFAULT_KEEPALIVE_TIMEOUT)
+        );
+        
+        String l = configuration.getString(CONFIG_HTTPS_LISTENER, "blocking");
+        try {
+            listener = Listener.valueOf(l.trim().toUpperCase());
+        } catch (IllegalArgumentException x) {
+            throw new ConfigurationException(
+                "the listener <" + l + "> is invalid; please specify 'blocking' or 'nio' for the property " +
+                CONFIG_HTTPS_LISTENER
+            );
+        }
+        
+        acceptors = configInt(CONFIG_HTTPS_ACCEPTORS, DEFAULT_ACCEPTORS);
+        if (acceptors < 1) {
+            throw new ConfigurationException(
+                "the acceptors <" + acceptors + "> are invalid; please specify a value greater than 0 for the property " +
+                CONFIG_HTTPS_ACCEPTORS
+            );
+        }
+        backlog = Math.max(0, configInt(CONFIG_HTTPS_BACKLOG, DEFAULT_BACKLOG));
+        
+        String a = configuration.getString(CONFIG_HTTPS_ACCESSLOG, "sync");
+        AsyncAccessLog.Policy policy = null;
+        try {
+            if (!"sync".equalsIgnoreCase(a.trim())) {
+                policy = AsyncAccessLog.Policy.valueOf(a.trim().toUpperCase());
+            }
+        } catch (IllegalArgumentException x) {
+            throw new ConfigurationException(
+                "the access log <" + a + "> is invalid; please specify 'sync', 'drop' or 'block' for the property " +
+                CONFIG_HTTPS_ACCESSLOG
+            );
+        }
+        final int accessLogBuffer = configInt(CONFIG_HTTPS_ACCESSLOG_BUFFER, DEFAULT_ACCESSLOG_BUFFER);
+        if (accessLogBuffer < 1) {
+            throw new ConfigurationException(
+                "the access log buffer <" + accessLogBuffer + "> is invalid; please specify a value greater than 0 for the property " +
+                CONFIG_HTTPS_ACCESSLOG_BUFFER
+            );
+        }
+        accessLog = (policy == null)
+                  ? null
+                  : new AsyncAccessLog(Logger.getLogger(LOG_ACCESS), policy, accessLogBuffer)
+                  ;
+        final int sample = configInt(CONFIG_HTTPS_ACCESSLOG_SAMPLE, 1);
+        if (sample < 1) {
+            throw new ConfigurationException(
+                "the access log sample <" + sample + "> is invalid; please specify a value greater than 0 for the property " +
+                CONFIG_HTTPS_ACCESSLOG_SAMPLE
+            );
+        }
+        final int rate = configInt(CONFIG_HTTPS_ACCESSLOG_RATE, 0);
+        if (rate < 0) {
+            throw new ConfigurationException(
+                "the access log rate <" + rate + "> is invalid; please specify a value greater or equal to 0 for the property " +
+                CONFIG_HTTPS_ACCESSLOG_RATE
+            );
+        }
+        accessLogFilter = null;
+        if ((sample > 1) || (rate > 0)) {
+            final String[] always = configuration.containsKey(CONFIG_HTTPS_ACCESSLOG_ALWAYS)
+                                  ? configuration.getStringArray(CONFIG_HTTPS_ACCESSLOG_ALWAYS)
+                                  : new String[] { "5xx" }
+                                  ;
+            try {
+                accessLogFilter = new AccessLogFilter(sample, always, rate);
+            } catch (IllegalArgumentException x) {
+                throw new ConfigurationException(
+                    "the access log statuses <" + StringUtils.join(always, ',') + "> are invalid (" + x.getMessage() + 
+                    "); please specify status codes (e.g. 404) or classes (e.g. 5xx) for the property " + 
+                    CONFIG_HTTPS_ACCESSLOG_ALWAYS
+                );
+            }
+        }
+        
+        sslAccessLogFormat = configAccessLogFormat("ssl");
+        webAccessLogFormat = configAccessLogFormat("web");
+        
+        String t = configuration.getString(CONFIG_HTTPS_THREADS, "platform");
+        try {
+            threads = Threads.valueOf(t.trim().toUpperCase());
+        } catch (IllegalArgumentException x) {
+            throw new ConfigurationException(
+                "the threads <" + t + "> are invalid; please specify 'platform' or 'virtual' for the property " +
+                CONFIG_HTTPS_THREADS
+            );
+        }
+        threadsCore = configInt(CONFIG_HTTPS_THREADS_CORE, DEFAULT_THREADS_CORE);
+        threadsMax = configInt(CONFIG_HTTPS_THREADS_MAX, DEFAULT_THREADS_MAX);
+        threadsQueue = configInt(CONFIG_HTTPS_THREADS_QUEUE, DEFAULT_THREADS_QUEUE);
+        if ((threadsCore < 0) || (threadsMax <= 0) || (threadsMax < threadsCore) || (threadsQueue < 0)) {
+            throw new ConfigurationException(String.format(
+                "invalid worker threads configuration (core: %d, max: %d, queue: %d); please make sure that 0 <= %s <= %s, %s > 0 and %s >= 0",
+                threadsCore, threadsMax, threadsQueue,
+                CONFIG_HTTPS_THREADS_CORE, CONFIG_HTTPS_THREADS_MAX, 
+                CONFIG_HTTPS_THREADS_MAX, CONFIG_HTTPS_THREADS_QUEUE
+            ));
+        }
+        
+        sslSessionCache = configInt(CONFIG_HTTPS_SSL_SESSION_CACHE, DEFAULT_SSL_SESSION_CACHE);
+        sslSessionTimeout = configInt(CONFIG_HTTPS_SSL_SESSION_TIMEOUT, DEFAULT_SSL_SESSION_TIMEOUT);
+        if ((sslSessionCache < 0) || (sslSessionTimeout < 0)) {
+            throw new ConfigurationException(String.format(
+                "invalid ssl session cache configuration (size: %d, timeout: %d); please make sure that %s >= 0 and %s >= 0",
+                sslSessionCache, sslSessionTimeout,
+                CONFIG_HTTPS_SSL_SESSION_CACHE, CONFIG_HTTPS_SSL_SESSION_TIMEOUT
+            ));
+        }
+        if (configuration.containsKey(CONFIG_HTTPS_SSL_SESSION_TICKETS)) {
+            configureSessionTickets();
+        }
+
+        handshakeTimeout = configInt(CONFIG_HTTPS_SSL_HANDSHAKE_TIMEOUT, DEFAULT_SSL_HANDSHAKE_TIMEOUT);
+        if (handshakeTimeout < 0) {
+            throw new ConfigurationException(
+                "the ssl handshake timeout " + handshakeTimeout + " is invalid; please specify a value >= 0 for the property " + CONFIG_HTTPS_SSL_HANDSHAKE_TIMEOUT
+            );
+        }
+        
+        keystoreReload = configInt(CONFIG_HTTPS_SSL_KEYSTORE_RELOAD, DEFAULT_SSL_KEYSTORE_RELOAD);
+        if (keystoreReload < 0) {
+            throw new ConfigurationException(
+                "the keystore reload interval " + keystoreReload + " is invalid; please specify a value >= 0 for the property " + CONFIG_HTTPS_SSL_KEYSTORE_RELOAD
+            );
+        }
+        
         try {
             String password = configuration.getString(CONFIG_SSL_PASSWORD);
-            sf = getSSLContext(home, password).getServerSocketFactory();
+            sslContext = getSSLContext(home, password);
+            sf = sslContext.getServerSocketFactory();
+            handshakes = new HandshakeMonitor(sslContext.getServerSessionContext());
         } catch (Exception x) {
             throw new ConfigurationException(x.getMessage(), x);
         }
         
+        SSLParameters supported = sslContext.getSupportedSSLParameters();
+        SSLParameters defaults = sslContext.getDefaultSSLParameters();
+        sslProtocols = configSSL(
+            CONFIG_HTTPS_SSL_PROTOCOLS, "protocol",
+            DEFAULT_SSL_PROTOCOLS, supported.getProtocols(), defaults.getProtocols()
+        );
+        sslCiphers = configSSL(
+            CONFIG_HTTPS_SSL_CIPHERS, "cipher suite",
+            DEFAULT_SSL_CIPHERS, supported.getCipherSuites(), defaults.getCipherSuites()
+        );
+        
         String auth = configuration.getString(CONFIG_HTTPS_AUTH);
         authentication = ClientAuthentication.BASIC;
         
@@ -355,14 +778,197 @@ public class HttpServer {
         new ConfigurationSessionFactory(configuration);
         
         this.running = false;
-        this.listenerThread = null;
-        this.webListenerThread = null;
+        this.listenerThreads = null;
+        this.webListenerThreads = null;
+        this.workers = null;
+        this.sweeper = null;
+        this.handshakeTimer = null;
         
         setHandlers(null);
     }
    
+    /**
+     * Reads the TLS protocols or cipher suites to enable from the given
+     * property; if not set, the preferred ones supported by the jvm are 
+     * enabled (or the jvm defaults, if it supports none of them).
+     * 
+     * @param key the property
+     * @param what what the values are, for error messages
+     * @param preferred the values enabled by default, in order of preference
+     * @param supported the values supported by the jvm
+     * @param defaults the values enabled by default by the jvm
+     * 
+     * @return the values to enable, in order of preference
+     * 
+     * @throws ConfigurationException if a configured value is not supported
+     */
+    private String[] configSSL(
+        final String key, final String what, 
+        final String[] preferred, final String[] supported, final String[] defaults
+    ) throws ConfigurationException {
+        final List<String> available = Arrays.asList(supported);
+        
+        if (!configuration.containsKey(key)) {
+            final List<String> values = new ArrayList<>();
+            for (String value: preferred) {
+                if (available.contains(value)) {
+                    values.add(value);
+                }
+            }
+            return values.isEmpty() ? defaults : values.toArray(new String[values.size()]);
+        }
+        
+        final List<String> values = new ArrayList<>();
+        for (String value: configuration.getStringArray(key)) {
+            value = value.trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            if (!available.contains(value)) {
+                throw new ConfigurationException(String.format(
+                    "the ssl %s %s is not supported; please specify one or more of %s for the property %s",
+                    what, value, available, key
+                ));
+            }
+            values.add(value);
+        }
+        if (values.isEmpty()) {
+            throw new ConfigurationException(String.format(
+                "no ssl %s given; please specify one or more of %s for the property %s",
+                what, available, key
+            ));
+        }
+        
+        return values.toArray(new String[values.size()]);
+    }
+   
     private SSLContext getSSLContext(final String home, final String password)
             throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException, KeyManagementException {
+        keystore = new File(home, "conf/keystore");
+        keystoreModified = keystore.lastModified();
+        keystoreLength = keystore.length();
+        keyManager = new HttpKeyManager(loadKeyManager(password));
+        
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(
+                new KeyManager[] {keyManager}, 
+                null, null
+        );
+        
+        //
+        // returning clients can resume their session instead of doing a full
+        // handshake
+        //
+        SSLSessionContext sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(sslSessionCache);
+        sessions.setSessionTimeout(sslSessionTimeout);
+
+        return context;
+    }
+    
+    /**
+     * Reloads the server certificates if the keystore changed (in last 
+     * modification time or size) since it was last loaded, so that 
+     * certificates can be rotated without restarting the server: the new
+     * certificates are used by new handshakes only, while established 
+     * connections (and the sessions they resume) keep the certificate they 
+     * were negotiated with. If the keystore can not be loaded (e.g. it is 
+     * still being written), the current certificates are kept and the
+     * keystore is reloaded at its next change.
+     * 
+     * @return true if the certificates have been reloaded, false otherwise
+     */
+    boolean reloadKeystore() {
+        final long modified = keystore.lastModified(), length = keystore.length();
+        if ((modified == keystoreModified) && (length == keystoreLength)) {
+            return false;
+        }
+        keystoreModified = modified; keystoreLength = length;
+        
+        try {
+            keyManager.setKeyManager(loadKeyManager(configuration.getString(CONFIG_SSL_PASSWORD)));
+        } catch (Exception x) {
+            if (LOG.isLoggable(Level.WARNING)) {
+                LOG.warning(String.format(
+                    "unable to reload keystore %s (%s); keeping the current certificates",
+                    keystore.getAbsolutePath(), x.getMessage()
+                ));
+            }
+            return false;
+        }
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.info(String.format("keystore %s reloaded", keystore.getAbsolutePath()));
+        }
+        
+        return true;
+    }
+
+    /**
+     * Does the TLS handshake of a connection accepted by the blocking ssl 
+     * listener; it is called by the worker serving the connection, so that
+     * slow clients do not stall the acceptor. The handshake must complete
+     * within the handshake timeout, otherwise the socket is closed: this
+     * applies to the handshake as a whole, so that a client can not keep it
+     * going by sending a byte at a time. The duration of the handshake is 
+     * added to the histogram of the HandshakeMonitor.
+     * 
+     * @param socket the accepted socket - NOT NULL
+     * 
+     * @throws IOException if the handshake fails or does not complete in time
+     */
+    void handshake(final SSLSocket socket) throws IOException {
+        ScheduledFuture<?> deadline = null;
+        if (handshakeTimeout > 0) {
+            socket.setSoTimeout(handshakeTimeout);
+            final ScheduledExecutorService s = handshakeTimer;
+            if (s != null) {
+                try {
+                    deadline = s.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                socket.close();
+                            } catch (IOException x) {
+                                //
+                                // nothing we can do...
+                                //
+                            }
+                        }
+                    }, handshakeTimeout, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException x) {
+                    //
+                    // the server is stopping
+                    //
+                }
+            }
+        } else {
+            socket.setSoTimeout(keepAliveTimeout);
+        }
+        
+        final long started = System.currentTimeMillis();
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            socket.startHandshake();
+            handshakes.handshakeCompleted(socket.getSession(), started);
+            success = true;
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            handshakes.handshakeDone(System.nanoTime() - start, success);
+        }
+    }
+    
+    /**
+     * Loads the server certificates from the keystore
+     * 
+     * @param password the keystore and keys password
+     * 
+     * @return the key manager of the keystore certificates
+     */
+    private X509KeyManager loadKeyManager(final String password)
+            throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException {
         if (StringUtils.isBlank(password)) {
             throw new UnrecoverableKeyException("ssl password not provided; set the system propoerty " + CONFIG_SSL_PASSWORD);
         }
@@ -375,9 +981,11 @@ public class HttpServer {
         //
         // TODO: handle the case the client does not send the certificate
         //
-        String keystoreFile = home + "/conf/keystore";
+        String keystoreFile = this.keystore.getPath();
         KeyStore keystore = KeyStore.getInstance("jks");
-        keystore.load(new FileInputStream(keystoreFile), sslPassword);
+        try (FileInputStream is = new FileInputStream(keystoreFile)) {
+            keystore.load(is, sslPassword);
+        }
         
         //
         // check that there is a certificate with alias ste.https; this is the 
@@ -396,38 +1004,456 @@ public class HttpServer {
                 KeyManagerFactory.getDefaultAlgorithm()
         );
         kmfactory.init(keystore, sslPassword);
-        X509KeyManager x509KeyManager = 
-            (X509KeyManager)kmfactory.getKeyManagers()[0];
         
-        SSLContext context = SSLContext.getInstance("TLS");
-        context.init(
-                new KeyManager[] {new HttpKeyManager(x509KeyManager)}, 
-                null, null
-        );
-
-        return context;
+        return (X509KeyManager)kmfactory.getKeyManagers()[0];
     }
 
-    private HttpProcessor buildDefaultHttpProcessor() {
-        return HttpProcessorBuilder.create()
-                .add(new ResponseDate())
-                .add(new ResponseServer())
-                .add(new ResponseContent())
-                .add(new ResponseConnControl()).build();
+    /**
+     * Looks up newVirtualThreadPerTaskExecutor() (java 21+) in the given
+     * class through reflection, so that we can still run on older jvms.
+     * 
+     * @param executors the class providing the factory method, normally 
+     *        Executors - NOT NULL
+     * 
+     * @return an executor starting a new virtual thread for each task; null
+     *         if the factory method is not available
+     */
+    static ExecutorService newVirtualThreadExecutor(final Class<?> executors) {
+        try {
+            return (ExecutorService)executors
+                   .getMethod("newVirtualThreadPerTaskExecutor")
+                   .invoke(null);
+        } catch (ReflectiveOperationException x) {
+            return null;
+        }
     }
     
-    private int configPort(final String whichPort) throws ConfigurationException {
-        final String KEY = "web".equals(whichPort) 
-                         ? CONFIG_HTTPS_WEB_PORT
-                         : CONFIG_HTTPS_SSL_PORT
-                         ;
-        final int DEFAULT = "web".equals(whichPort) 
-                          ? DEFAULT_WEB_PORT
-                          : DEFAULT_SSL_PORT
-                          ;
-        
-        int p = 0;
-        try {
+    /**
+     * Creates the workers shared by the ssl and web listeners. With virtual 
+     * threads each connection is served by a new virtual thread (if the jvm 
+     * does not support them, platform threads are used instead). With platform
+     * threads connections are served by a bounded pool: a connection goes to 
+     * an idle thread or to a new one up to the maximum number of threads, and
+     * only then is queued (see WorkerQueue); when also the queue is full, new
+     * connections are answered with 503 - Service Unavailable by the rejector
+     * (see createRejector()), so that the acceptor thread does not wait for 
+     * the request of rejected clients.
+     */
+    private ExecutorService createWorkers() {
+        if (threads == Threads.VIRTUAL) {
+            ExecutorService workers = newVirtualThreadExecutor(Executors.class);
+            if (workers != null) {
+                return workers;
+            }
+            if (LOG.isLoggable(Level.INFO)) {
+                LOG.info(String.format(
+                    "virtual threads not supported by java %s, using platform threads",
+                    System.getProperty("java.version")
+                ));
+            }
+        }
+        
+        final AtomicInteger counter = new AtomicInteger();
+        final WorkerQueue queue = new WorkerQueue(threadsQueue);
+        final ExecutorService rejector = createRejector();
+        
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            threadsCore, threadsMax, 
+            60, TimeUnit.SECONDS,
+            queue,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "https-worker-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            },
+            new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+                    //
+                    // a thread may have ended or got to the maximum since 
+                    // WorkerQueue.offer() was called
+                    //
+                    if (!executor.isShutdown() && queue.force(r)) {
+                        return;
+                    }
+                    if (!(r instanceof Worker)) {
+                        throw new RejectedExecutionException("all workers are busy");
+                    }
+                    try {
+                        rejector.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                ((Worker)r).reject();
+                            }
+                        });
+                    } catch (RejectedExecutionException x) {
+                        ((Worker)r).close();
+                    }
+                }
+            }
+        ) {
+            @Override
+            protected void terminated() {
+                rejector.shutdownNow();
+            }
+        };
+        queue.executor = pool;
+        
+        return pool;
+    }
+    
+    /**
+     * Creates the threads answering 503 - Service Unavailable to the 
+     * connections rejected by the workers; they are few (see REJECTORS) and do
+     * not queue, so that when they are all busy with slow clients further 
+     * rejected connections are just closed (see Worker.close()).
+     */
+    private ExecutorService createRejector() {
+        final AtomicInteger counter = new AtomicInteger();
+        
+        return new ThreadPoolExecutor(
+            0, Worker.REJECTORS, 
+            60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "https-rejector-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            }
+        );
+    }
+
+    /**
+     * Creates the thread purging expired sessions from the caches of the ssl
+     * and web services, so that requests never scan the caches; the same 
+     * thread checks the keystore for changes (see reloadKeystore()).
+     */
+    private ScheduledExecutorService createSweeper() {
+        ScheduledThreadPoolExecutor s = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "https-session-sweeper");
+                    t.setDaemon(true);
+                    return t;
+                }
+            }
+        );
+        
+        for (HttpSessionService service: getSessionServices().values()) {
+            service.getSessionCache().schedulePurge(s);
+        }
+        
+        if ((sslPort > 0) && (keystoreReload > 0)) {
+            s.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    reloadKeystore();
+                }
+            }, keystoreReload, keystoreReload, TimeUnit.SECONDS);
+        }
+        
+        return s;
+    }
+
+    /**
+     * Creates the thread enforcing the handshake timeout (see handshake()),
+     * so that a long purge or keystore reload does not delay closing the
+     * connections of stalled handshakes; null if the ssl listener is not
+     * configured or there is no handshake timeout.
+     */
+    private ScheduledExecutorService createHandshakeTimer() {
+        if ((sslPort <= 0) || (handshakeTimeout <= 0)) {
+            return null;
+        }
+        
+        ScheduledThreadPoolExecutor s = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "https-handshake-timer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            }
+        );
+        //
+        // handshake deadlines are cancelled for nearly all connections
+        //
+        s.setRemoveOnCancelPolicy(true);
+        
+        return s;
+    }
+
+    /**
+     * Registers a SessionCacheMonitor for each session cache (see 
+     * getSessionServices()) in the platform MBean server, with name 
+     * <code>ste.web.http:type=SessionCache,port=&lt;port&gt;,name=&lt;ssl|web|shared&gt;</code>,
+     * and the HandshakeMonitor of the ssl listener, with name
+     * <code>ste.web.http:type=Handshakes,port=&lt;port&gt;</code>;
+     * registration errors are logged and do not stop the server.
+     */
+    private List<ObjectName> registerMBeans() {
+        List<ObjectName> names = new ArrayList<>();
+        
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        for (Map.Entry<String, HttpSessionService> e: getSessionServices().entrySet()) {
+            final String name = e.getKey();
+            final HttpSessionService service = e.getValue();
+            final int port = (service == ssl) ? sslPort : webPort;
+            try {
+                ObjectName on = new ObjectName(
+                    "ste.web.http:type=SessionCache,port=" + port + ",name=" + name
+                );
+                mbs.registerMBean(new SessionCacheMonitor(name, service), on);
+                names.add(on);
+            } catch (JMException x) {
+                if (LOG.isLoggable(Level.WARNING)) {
+                    LOG.warning(String.format("unable to register the %s session cache MBean (%s)", name, x.getMessage()));
+                }
+            }
+        }
+        
+        if (sslPort > 0) {
+            try {
+                ObjectName on = new ObjectName("ste.web.http:type=Handshakes,port=" + sslPort);
+                mbs.registerMBean(handshakes, on);
+                names.add(on);
+            } catch (JMException x) {
+                if (LOG.isLoggable(Level.WARNING)) {
+                    LOG.warning(String.format("unable to register the handshakes MBean (%s)", x.getMessage()));
+                }
+            }
+        }
+        
+        return names;
+    }
+    
+    private void unregisterMBeans() {
+        if (mbeans == null) {
+            return;
+        }
+        
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName on: mbeans) {
+            try {
+                mbs.unregisterMBean(on);
+            } catch (JMException x) {
+                //
+                // nothing we can do...
+                //
+            }
+        }
+        mbeans = null;
+    }
+    
+    /**
+     * @return a new service for the listener with the given name using the
+     *         given session cache if not null or its own cache otherwise and
+     *         the server access log; null if the listener is not configured
+     */
+    private HttpSessionService createService(
+        final HttpRequestHandlerMapper mapper,
+        final ConfigurationSessionFactory sessionFactory,
+        final String name,
+        final SessionCache sharedCache
+    ) {
+        if ((("ssl".equals(name)) ? sslPort : webPort) <= 0) {
+            return null;
+        }
+        
+        HttpSessionService service = (sharedCache == null)
+            ? new HttpSessionService(processor, mapper, sessionFactory, name)
+            : new HttpSessionService(processor, mapper, sessionFactory, sharedCache)
+            ;
+        service.setShared(sharedCache != null);
+        service.setAccessLog(accessLog);
+        service.setAccessLogFilter(accessLogFilter);
+        if ("ssl".equals(name)) {
+            service.setAccessLogFormat(sslAccessLogFormat, true);
+        } else {
+            service.setAccessLogFormat(webAccessLogFormat, false);
+        }
+        
+        return service;
+    }
+    
+    /**
+     * Registers a SessionStatsHandler at the uri given by 
+     * CONFIG_HTTPS_SESSION_STATS, if set, in the given mapper. It is meant for
+     * the mapper of the ssl listener only, so that the statistics are not
+     * served in clear over http and are subject to the client authentication
+     * of the ssl listener.
+     */
+    private void registerStatsHandler(final UriHttpRequestHandlerMapper mapper) {
+        String uri = configuration.getString(CONFIG_HTTPS_SESSION_STATS);
+        if ((uri == null) || uri.trim().isEmpty()) {
+            return;
+        }
+        
+        mapper.register(uri.trim(), new SessionStatsHandler(this));
+    }
+
+    /**
+     * Starts the threads accepting connections on the given port. Blocking 
+     * listeners use <i>acceptors</i> threads: if the os supports SO_REUSEPORT
+     * each of them gets its own server socket (and the kernel balances the
+     * connections among them), otherwise they all accept on the same server 
+     * socket.
+     */
+    private List<Thread> startListeners(final int port, final boolean isSSL)
+    throws IOException {
+        List<Thread> threads = new ArrayList<>();
+        
+        if (listener == Listener.NIO) {
+            AsyncRequestListenerThread t = new AsyncRequestListenerThread(this, port, isSSL);
+            t.setDaemon(true);
+            t.start();
+            t.waitForBinding();
+            threads.add(t);
+            
+            return threads;
+        }
+        
+        List<ServerSocket> sockets = new ArrayList<>();
+        try {
+            ServerSocket socket = createServerSocket(isSSL);
+            sockets.add(socket);
+            boolean reusePort = (acceptors > 1) && setReusePort(socket);
+            if (reusePort) {
+                checkPortAvailable(port);
+            }
+            socket.bind(new InetSocketAddress(port), backlog);
+
+            for (int i=0; i<acceptors; ++i) {
+                if (reusePort && (i > 0)) {
+                    socket = createServerSocket(isSSL);
+                    sockets.add(socket);
+                    setReusePort(socket);
+                    socket.bind(new InetSocketAddress(port), backlog);
+                }
+                RequestListenerThread t = new RequestListenerThread(this, socket);
+                t.setDaemon(true);
+                threads.add(t);
+            }
+        } catch (IOException x) {
+            //
+            // do not leave the sockets bound so far listening with nobody
+            // accepting on them
+            //
+            for (ServerSocket s: sockets) {
+                try {
+                    s.close();
+                } catch (IOException e) {
+                    //
+                    // nothing we can do...
+                    //
+                }
+            }
+            throw x;
+        }
+        for (Thread t: threads) {
+            t.start();
+        }
+        
+        return threads;
+    }
+    
+    private ServerSocket createServerSocket(final boolean isSSL) throws IOException {
+        if (!isSSL) {
+            return new ServerSocket();
+        }
+        
+        SSLServerSocket socket = (SSLServerSocket) sf.createServerSocket();
+        socket.setSSLParameters(getSSLParameters(socket.getSSLParameters()));
+        
+        return socket;
+    }
+    
+    /**
+     * Applies the TLS configuration (client authentication, protocols and 
+     * cipher suites) to the given parameters of a server socket or engine.
+     * The server picks the cipher suite in its own order of preference, so
+     * that fast ciphers are used whenever the client supports them.
+     * 
+     * @param parameters the parameters to configure - NOT NULL
+     * 
+     * @return parameters
+     */
+    private SSLParameters getSSLParameters(final SSLParameters parameters) {
+        parameters.setNeedClientAuth(authentication == ClientAuthentication.CERTIFICATE);
+        parameters.setProtocols(sslProtocols);
+        parameters.setCipherSuites(sslCiphers);
+        parameters.setUseCipherSuitesOrder(true);
+        
+        return parameters;
+    }
+    
+    /**
+     * Makes sure nobody else is listening on the given port before binding it
+     * with SO_REUSEPORT: the option lets any process of the same user bind the
+     * port too, so a second instance of the server (or any other server with
+     * SO_REUSEPORT) would start without errors and the kernel would split the
+     * connections between the two. A socket without SO_REUSEPORT can not be
+     * bound while somebody listens on the port, whatever their options.
+     * 
+     * @throws IOException if the port is already in use
+     */
+    private void checkPortAvailable(final int port) throws IOException {
+        try (ServerSocket probe = new ServerSocket()) {
+            probe.bind(new InetSocketAddress(port));
+        }
+    }
+    
+    /**
+     * Turns on SO_REUSEPORT if supported by the jvm (java 9+) and the os.
+     * 
+     * @return true if SO_REUSEPORT has been set, false otherwise
+     */
+    private boolean setReusePort(final ServerSocket socket) {
+        try {
+            //
+            // through reflection so that we can still run on older jvms
+            //
+            Object option = StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+            Set<?> supported = (Set<?>)ServerSocket.class.getMethod("supportedOptions").invoke(socket);
+            if (!supported.contains(option)) {
+                return false;
+            }
+            ServerSocket.class.getMethod("setOption", SocketOption.class, Object.class)
+                              .invoke(socket, option, Boolean.TRUE);
+            return true;
+        } catch (ReflectiveOperationException x) {
+            return false;
+        }
+    }
+
+    private HttpProcessor buildDefaultHttpProcessor() {
+        return HttpProcessorBuilder.create()
+                .add(new ResponseDate())
+                .add(new ResponseServer())
+                .add(new ResponseContent())
+                .add(new ResponseConnControl()).build();
+    }
+    
+    private int configPort(final String whichPort) throws ConfigurationException {
+        final String KEY = "web".equals(whichPort) 
+                         ? CONFIG_HTTPS_WEB_PORT
+                         : CONFIG_HTTPS_SSL_PORT
+                         ;
+        final int DEFAULT = "web".equals(whichPort) 
+                          ? DEFAULT_WEB_PORT
+                          : DEFAULT_SSL_PORT
+                          ;
+        
+        int p = 0;
+        try {
             p = configuration.getInt(KEY, DEFAULT);
         } catch (ConversionException x) {
             throw new ConfigurationException(
@@ -440,6 +1466,76 @@ public class HttpServer {
         
         return p;
     }
+    
+    private AccessLogEncoder.Format configAccessLogFormat(final String whichPort) 
+    throws ConfigurationException {
+        final String KEY = "web".equals(whichPort) 
+                         ? CONFIG_HTTPS_WEB_ACCESSLOG_FORMAT
+                         : CONFIG_HTTPS_SSL_ACCESSLOG_FORMAT
+                         ;
+        
+        String f = configuration.getString(KEY, "common");
+        try {
+            return AccessLogEncoder.Format.valueOf(f.trim().toUpperCase());
+        } catch (IllegalArgumentException x) {
+            throw new ConfigurationException(
+                "the " + whichPort + " access log format <" + f + "> is invalid; please specify 'common' or 'json' for the property " +
+                KEY
+            );
+        }
+    }
+    
+    private int configInt(final String key, final int defaultValue) 
+    throws ConfigurationException {
+        try {
+            return configuration.getInt(key, defaultValue);
+        } catch (ConversionException x) {
+            throw new ConfigurationException(
+                "the value <" + configuration.getProperty(key) + 
+                "> is invalid; please specify a proper value for the property " + 
+                key
+            );
+        }
+    }
+
+    /**
+     * Turns stateless session tickets (java 13+) on or off as configured.
+     * Tickets can only be set for the whole jvm and before its first TLS
+     * handshake, therefore a value given on the command line takes precedence
+     * and the one configured here is ignored.
+     *
+     * @throws ConfigurationException if the value is not a boolean
+     */
+    private void configureSessionTickets() throws ConfigurationException {
+        boolean tickets = false;
+        try {
+            tickets = configuration.getBoolean(CONFIG_HTTPS_SSL_SESSION_TICKETS);
+        } catch (ConversionException x) {
+            throw new ConfigurationException(
+                "the ssl session tickets <" + configuration.getProperty(CONFIG_HTTPS_SSL_SESSION_TICKETS) +
+                "> is invalid; please specify true or false for the property " +
+                CONFIG_HTTPS_SSL_SESSION_TICKETS
+            );
+        }
+
+        final String current = System.getProperty(JDK_SESSION_TICKETS);
+        if (current == null) {
+            System.setProperty(JDK_SESSION_TICKETS, String.valueOf(tickets));
+            if (LOG.isLoggable(Level.INFO)) {
+                LOG.info(String.format(
+                    "ssl session tickets turned %s for the whole jvm (%s=%b)",
+                    tickets ? "on" : "off", JDK_SESSION_TICKETS, tickets
+                ));
+            }
+        } else if (Boolean.parseBoolean(current) != tickets) {
+            if (LOG.isLoggable(Level.WARNING)) {
+                LOG.warning(String.format(
+                    "ignoring %s=%b, the jvm was started with %s=%s",
+                    CONFIG_HTTPS_SSL_SESSION_TICKETS, tickets, JDK_SESSION_TICKETS, current
+                ));
+            }
+        }
+    }
 
     // --------------------------------------------------- RequestListenerThread
     
@@ -458,17 +1554,17 @@ public class HttpServer {
         public void run() {
             Logger LOG = Logger.getLogger(LOG_SERVER);
             
+            if (LOG.isLoggable(Level.INFO)) {
+                LOG.info(String.format("starting %s listener on port %d",
+                        isSSL ? "ssl" : "web",
+                        this.serverSocket.getLocalPort()
+                    )
+                );
+            }
             while (server.isRunning() && !Thread.interrupted()) {
                 Socket socket = null;
                 HttpServerConnection conn = null;
                 try {
-                    if (LOG.isLoggable(Level.INFO)) {
-                        LOG.info(String.format("starting %s listener on port %d",
-                                isSSL ? "ssl" : "web",
-                                this.serverSocket.getLocalPort()
-                            )
-                        );
-                    }
                     socket = this.serverSocket.accept();
                 } catch (IOException x) {
                     if (LOG.isLoggable(Level.INFO)) {
@@ -497,13 +1593,15 @@ public class HttpServer {
                     break;
                 }
 
-                // Start worker thread
-                Thread t = new WorkerThread(
+                //
+                // the TLS handshake, if any, is done by the worker
+                //
+                server.workers.execute(new Worker(
+                    server,
                     isSSL ? server.getSSLService() : server.getWebService(), 
-                    conn
-                );
-                t.setDaemon(true);
-                t.start();
+                    conn,
+                    socket
+                ));
             }
         }
 
@@ -521,39 +1619,358 @@ public class HttpServer {
         }
     }
 
-    // ------------------------------------------------------------ WorkerThread
+    // ---------------------------------------------- AsyncRequestListenerThread
     
-    static class WorkerThread extends Thread {
+    /**
+     * A non blocking listener: connections are handled by a selector based 
+     * reactor that does not need a thread per connection; only when a request
+     * has been fully received, it is served by one of the workers. Idle 
+     * connections are closed after the keep-alive timeout.
+     */
+    static class AsyncRequestListenerThread extends Thread {
+        /**
+         * When (in milliseconds) a connection was accepted, which is when its
+         * TLS handshake starts
+         */
+        private static final String ATTR_CONNECTED = "ste.https.connected";
+        
+        private final HttpServer server;
+        private final boolean isSSL;
+        private final ListeningIOReactor reactor;
+        private final ListenerEndpoint endpoint;
+        
+        public AsyncRequestListenerThread(final HttpServer server, final int port, final boolean isSSL)
+        throws IOException {
+            this.server = server;
+            this.isSSL = isSSL;
+            this.reactor = new DefaultListeningIOReactor(
+                IOReactorConfig.custom()
+                               .setSoTimeout(server.getKeepAliveTimeout())
+                               .setSoReuseAddress(true)
+                               .setBacklogSize(server.getBacklog())
+                               .build()
+            );
+            this.endpoint = reactor.listen(new InetSocketAddress(port));
+        }
+        
+        @Override
+        public void run() {
+            Logger LOG = Logger.getLogger(LOG_SERVER);
+            
+            final HttpSessionService http = isSSL ? server.getSSLService() : server.getWebService();
+            final HttpAsyncRequestHandler<HttpRequest> handler = new AsyncSessionRequestHandler(server, http);
+            
+            HttpAsyncService service = new HttpAsyncService(
+                server.processor, 
+                new HttpAsyncRequestHandlerMapper() {
+                    @Override
+                    public HttpAsyncRequestHandler<?> lookup(HttpRequest request) {
+                        return handler;
+                    }
+                }
+            );
+            
+            IOEventDispatch dispatch = null;
+            if (isSSL) {
+                dispatch = new DefaultHttpServerIODispatch<HttpAsyncService>(
+                    service, server.sslContext, 
+                    new SSLSetupHandler() {
+                        @Override
+                        public void initalize(SSLEngine engine) throws SSLException {
+                            engine.setSSLParameters(server.getSSLParameters(engine.getSSLParameters()));
+                        }
 
+                        @Override
+                        public void verify(IOSession session, SSLSession ssl) throws SSLException {
+                            Long connected = (Long)session.getAttribute(ATTR_CONNECTED);
+                            server.handshakes.handshakeCompleted(
+                                ssl, (connected != null) ? connected : 0L
+                            );
+                        }
+                    },
+                    ConnectionConfig.DEFAULT
+                ) {
+                    @Override
+                    public void connected(IOSession session) {
+                        session.setAttribute(ATTR_CONNECTED, System.currentTimeMillis());
+                        super.connected(session);
+                    }
+                };
+            } else {
+                dispatch = new DefaultHttpServerIODispatch<>(service, ConnectionConfig.DEFAULT);
+            }
+            
+            if (LOG.isLoggable(Level.INFO)) {
+                LOG.info(String.format("starting %s listener on port %d",
+                        isSSL ? "ssl" : "web",
+                        ((InetSocketAddress)endpoint.getAddress()).getPort()
+                    )
+                );
+            }
+            try {
+                reactor.execute(dispatch);
+            } catch (IOException x) {
+                if (LOG.isLoggable(Level.INFO)) {
+                    LOG.info(
+                        String.format(
+                            "stopping to listen on port %d (%s)",
+                            ((InetSocketAddress)endpoint.getAddress()).getPort(),
+                            x.getMessage()
+                        )
+                    );
+                }
+            }
+        }
+        
+        /**
+         * Waits until the listening socket has been bound.
+         * 
+         * @throws IOException if the socket could not be bound
+         */
+        public void waitForBinding() throws IOException {
+            try {
+                endpoint.waitFor();
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+            
+            Exception x = endpoint.getException();
+            if (x != null) {
+                interrupt();
+                throw (x instanceof IOException) ? (IOException)x : new IOException(x.getMessage(), x);
+            }
+        }
+
+        @Override
+        public void interrupt() {
+            try {
+                reactor.shutdown();
+            } catch (IOException x) {
+                //
+                // ignore
+                //
+                x.printStackTrace();
+            }
+        }
+    }
+    
+    // ---------------------------------------------- AsyncSessionRequestHandler
+    
+    /**
+     * Serves the requests received by the non blocking listeners with the 
+     * given HttpSessionService (and therefore with the same handlers and 
+     * session management of the blocking listeners). Since handlers are 
+     * blocking, they are run by the workers so that the reactor is never 
+     * blocked.
+     */
+    static class AsyncSessionRequestHandler implements HttpAsyncRequestHandler<HttpRequest> {
+        private final HttpServer server;
+        private final HttpSessionService http;
+        
+        public AsyncSessionRequestHandler(final HttpServer server, final HttpSessionService http) {
+            this.server = server;
+            this.http = http;
+        }
+
+        @Override
+        public HttpAsyncRequestConsumer<HttpRequest> processRequest(HttpRequest request, HttpContext context) {
+            return new BasicAsyncRequestConsumer();
+        }
+
+        @Override
+        public void handle(final HttpRequest request, final HttpAsyncExchange exchange, final HttpContext context) {
+            final HttpInetConnection connection = 
+                (HttpInetConnection)context.getAttribute(HttpCoreContext.HTTP_CONNECTION);
+            
+            //
+            // the connection counts the requests received so far, this one
+            // included
+            //
+            final int max = server.getKeepAliveMax();
+            final boolean keepAlive = 
+                (max == 0) || (connection.getMetrics().getRequestCount() < max);
+            try {
+                server.workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        http.serve(request, exchange.getResponse(), connection, keepAlive);
+                        exchange.submitResponse();
+                    }
+                });
+            } catch (RejectedExecutionException x) {
+                HttpResponse response = exchange.getResponse();
+                response.setStatusCode(HttpStatus.SC_SERVICE_UNAVAILABLE);
+                response.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
+                exchange.submitResponse();
+            }
+        }
+    }
+
+    // ------------------------------------------------------------- WorkerQueue
+    
+    /**
+     * The queue of the workers. ThreadPoolExecutor adds threads beyond the 
+     * core ones only when the queue refuses a task, therefore offer() hands a
+     * connection to an idle thread, if any, and otherwise refuses it until 
+     * the pool has reached the maximum number of threads; only then are 
+     * connections queued, up to the given capacity (0 means no queuing).
+     */
+    static class WorkerQueue extends LinkedTransferQueue<Runnable> {
+        
+        private final int capacity;
+        ThreadPoolExecutor executor;
+        
+        WorkerQueue(final int capacity) {
+            this.capacity = capacity;
+        }
+        
+        @Override
+        public boolean offer(final Runnable r) {
+            if (tryTransfer(r)) {
+                return true;
+            }
+            if (executor.getPoolSize() < executor.getMaximumPoolSize()) {
+                return false;
+            }
+            return force(r);
+        }
+        
+        /**
+         * Queues the given task, if the queue is not full. Note that size() 
+         * walks the queue, but it is called only when all threads are busy.
+         * 
+         * @return true if the task was queued
+         */
+        synchronized boolean force(final Runnable r) {
+            return (size() < capacity) && super.offer(r);
+        }
+        
+        @Override
+        public int remainingCapacity() {
+            return Math.max(0, capacity - size());
+        }
+    }
+
+    // ------------------------------------------------------------------ Worker
+    
+    /**
+     * Serves the requests of a connection until the client closes it, the
+     * response says the connection shall not be kept alive, the maximum number
+     * of requests per connection is reached or the connection is idle for more 
+     * than the keep-alive timeout.
+     */
+    static class Worker implements Runnable {
+        
+        static final int REJECT_TIMEOUT = 1000;
+        static final int REJECTORS = 4;
+
+        private final HttpServer server;
         private final HttpSessionService http;
         private final HttpServerConnection conn;
+        private final Socket socket;
 
-        public WorkerThread(
+        public Worker(
+                final HttpServer server,
                 final HttpSessionService http,
-                final HttpServerConnection conn) {
-            super();
+                final HttpServerConnection conn,
+                final Socket socket) {
+            this.server = server;
             this.http = http;
             this.conn = conn;
+            this.socket = socket;
         }
 
         @Override
         public void run() {
             Logger LOG = Logger.getLogger(LOG_SERVER);
+            
+            server.connections.add(conn);
             try {
-                if (!Thread.interrupted() && this.conn.isOpen()) {
-                    this.http.handleRequest(this.conn);
+                final int max = server.getKeepAliveMax();
+                
+                if (socket instanceof SSLSocket) {
+                    server.handshake((SSLSocket)socket);
+                }
+                this.conn.setSocketTimeout(server.getKeepAliveTimeout());
+                
+                int requests = 0;
+                while (!Thread.interrupted() && this.conn.isOpen()) {
+                    boolean keepAlive = (max == 0) || (++requests < max);
+                    this.http.handleRequest(this.conn, keepAlive);
+                    if (!keepAlive) {
+                        break;
+                    }
                 }
             } catch (ConnectionClosedException x) {
                 LOG.fine(String.format("connection closed by the client (%s)", x.getMessage()));
+            } catch (SocketTimeoutException x) {
+                LOG.fine(String.format("connection idle for more than %d ms", server.getKeepAliveTimeout()));
             } catch (IOException x) {
                 LOG.fine(String.format("io error (%s)", x.getMessage()));
             } catch (HttpException x) {
                 LOG.fine(String.format("http error (%s)", x.getMessage()));
             } finally {
+                server.connections.remove(conn);
+                try {
+                    this.conn.shutdown();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+        
+        /**
+         * Answers 503 - Service Unavailable and closes the connection. The
+         * request head is read (waiting at most REJECT_TIMEOUT ms) so that the
+         * client gets the response instead of a connection reset; this is why
+         * it is called by the rejector threads and never by the acceptor.
+         */
+        public void reject() {
+            Logger LOG = Logger.getLogger(LOG_SERVER);
+            
+            LOG.fine("all workers are busy, rejecting the connection");
+            if (socket instanceof SSLSocket) {
+                //
+                // answering would take a TLS handshake on the acceptor thread
+                //
                 try {
                     this.conn.shutdown();
                 } catch (IOException ignore) {
                 }
+                return;
+            }
+            try {
+                this.conn.setSocketTimeout(REJECT_TIMEOUT);
+                this.conn.receiveRequestHeader();
+                
+                HttpResponse response = new BasicHttpResponse(
+                    HttpVersion.HTTP_1_1, 
+                    HttpStatus.SC_SERVICE_UNAVAILABLE, 
+                    "Service Unavailable"
+                );
+                response.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
+                response.setHeader(HTTP.CONTENT_LEN, "0");
+                this.conn.sendResponseHeader(response);
+                this.conn.flush();
+            } catch (IOException x) {
+                LOG.fine(String.format("io error (%s)", x.getMessage()));
+            } catch (HttpException x) {
+                LOG.fine(String.format("http error (%s)", x.getMessage()));
+            } finally {
+                try {
+                    this.conn.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+        
+        /**
+         * Closes the connection without answering
+         */
+        public void close() {
+            Logger.getLogger(LOG_SERVER).fine("all workers and rejectors are busy, closing the connection");
+            try {
+                this.conn.shutdown();
+            } catch (IOException ignore) {
             }
         }
 
@@ -561,12 +1978,37 @@ public class HttpServer {
 
     // ---------------------------------------------------------- HttpKeyManager
     
-    private class HttpKeyManager implements X509KeyManager {
+    /**
+     * Chooses the server certificate and delegates to the key manager of the
+     * keystore, which can be swapped with setKeyManager() when the keystore 
+     * is reloaded. The aliases chosen for a handshake carry the generation of
+     * the key manager they come from (e.g. ste.https#2), so that certificate 
+     * chain and private key come from the same keystore even if it is 
+     * reloaded in the middle of the handshake.
+     */
+    private class HttpKeyManager extends X509ExtendedKeyManager {
+        
+        private static final char GENERATION = '#';
 
-        private X509KeyManager defaultKeyManager;
+        private volatile int generation;
+        private volatile X509KeyManager defaultKeyManager, previousKeyManager;
 
         public HttpKeyManager(X509KeyManager defaultKeyManager) {
+            this.generation = 0;
             this.defaultKeyManager = defaultKeyManager;
+            this.previousKeyManager = null;
+        }
+        
+        /**
+         * Swaps the key manager; handshakes in progress can still use the
+         * previous one.
+         * 
+         * @param keyManager the new key manager - NOT NULL
+         */
+        synchronized void setKeyManager(final X509KeyManager keyManager) {
+            previousKeyManager = defaultKeyManager;
+            defaultKeyManager = keyManager;
+            ++generation;
         }
 
         @Override
@@ -586,17 +2028,76 @@ public class HttpServer {
 
         @Override
         public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
-            return HttpServer.CERT_ALIAS;
+            return chooseServerAlias(keyType);
+        }
+
+        @Override
+        public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+            return chooseServerAlias(keyType);
+        }
+        
+        /**
+         * The handshake asks for the key types usable with what the client
+         * supports in order of preference (e.g. EC first for ECDSA cipher 
+         * suites and signature schemes); we answer with the server
+         * certificate (CERT_ALIAS_EC or CERT_ALIAS) whose key is of that type,
+         * so that clients supporting ECDSA get the EC certificate, which is
+         * cheaper to sign with, and the others the RSA one.
+         * 
+         * @param keyType the key algorithm (e.g. RSA or EC)
+         * 
+         * @return the alias or null if there is no certificate with such key
+         */
+        private String chooseServerAlias(final String keyType) {
+            final X509KeyManager km; final int g;
+            synchronized (this) {
+                km = defaultKeyManager; g = generation;
+            }
+            for (String alias: new String[] {CERT_ALIAS_EC, CERT_ALIAS}) {
+                PrivateKey key = km.getPrivateKey(alias);
+                if ((key != null) && key.getAlgorithm().equalsIgnoreCase(keyType)) {
+                    return alias + GENERATION + g;
+                }
+            }
+            
+            return null;
         }
 
         @Override
         public X509Certificate[] getCertificateChain(String alias) {
-            return defaultKeyManager.getCertificateChain(alias);
+            final int i = alias.lastIndexOf(GENERATION);
+            return (i < 0) 
+                 ? defaultKeyManager.getCertificateChain(alias)
+                 : keyManager(alias.substring(i+1)).getCertificateChain(alias.substring(0, i))
+                 ;
         }
 
         @Override
         public PrivateKey getPrivateKey(String alias) {
-            return defaultKeyManager.getPrivateKey(alias);
+            final int i = alias.lastIndexOf(GENERATION);
+            return (i < 0) 
+                 ? defaultKeyManager.getPrivateKey(alias)
+                 : keyManager(alias.substring(i+1)).getPrivateKey(alias.substring(0, i))
+                 ;
+        }
+        
+        /**
+         * @param g a generation as appended to the aliases
+         * 
+         * @return the key manager of the given generation if still available,
+         *         the current one otherwise
+         */
+        private synchronized X509KeyManager keyManager(final String g) {
+            try {
+                if ((Integer.parseInt(g) == generation - 1) && (previousKeyManager != null)) {
+                    return previousKeyManager;
+                }
+            } catch (NumberFormatException x) {
+                //
+                // not one of our aliases
+                //
+            }
+            return defaultKeyManager;
         }
 
     }
@@ -19,16 +19,24 @@ package ste.web.http;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.http.Header;
+import org.apache.http.HttpConnectionMetrics;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpException;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpInetConnection;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpServerConnection;
+import org.apache.http.RequestLine;
 import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpCoreContext;
 import org.apache.http.protocol.HttpProcessor;
@@ -44,32 +52,188 @@ import ste.web.acl.User;
  */
 public class HttpSessionService extends HttpService {
     
+    /**
+     * The format of access log lines (see AccessLogEncoder)
+     */
     public static final String LOG_PATTERN = "%s - %s \"%s\" %d";
     
+    /**
+     * Context attribute telling the service the request being handled is the
+     * last one allowed on the connection
+     */
+    public static final String ATTR_LAST_REQUEST = "ste.https.last-request";
+    
+    /**
+     * Session attribute marking a session used over the ssl listener; when
+     * the session cache is shared such sessions are not given to requests
+     * received on the web listener
+     */
+    public static final String ATTR_TLS = "ste.https.tls";
+    
+    /**
+     * Appended to the name of the session cookie set by the ssl listener when
+     * the session cache is shared, so that the web listener never overwrites
+     * the cookie of a session used over ssl
+     */
+    public static final String SSL_COOKIE_SUFFIX = "_ssl";
+    
     private Logger LOG = Logger.getLogger(HttpServer.LOG_ACCESS);
     
     private SessionCache sessions;
+    private final boolean lazy;
+    private AsyncAccessLog accessLog;
+    private AccessLogFilter accessLogFilter;
+    private AccessLogEncoder.Format accessLogFormat = AccessLogEncoder.Format.COMMON;
+    private boolean tls;
+    private boolean shared;
 
     public HttpSessionService(
         HttpProcessor processor, 
         HttpRequestHandlerMapper handlerMapper,
         ConfigurationSessionFactory sessionFactory
+    ) {
+        this(processor, handlerMapper, sessionFactory, "sessions");
+    }
+    
+    /**
+     * @param name the name of the service, used to name its session store 
+     *             (e.g. the listener name) - NOT NULL
+     */
+    public HttpSessionService(
+        HttpProcessor processor, 
+        HttpRequestHandlerMapper handlerMapper,
+        ConfigurationSessionFactory sessionFactory,
+        String name
+    ) {
+        this(processor, handlerMapper, sessionFactory, new SessionCache(sessionFactory, name));
+    }
+    
+    /**
+     * Creates a service using the given session cache, that may be shared 
+     * with other services.
+     * 
+     * @param sessions the session cache - NOT NULL
+     */
+    HttpSessionService(
+        HttpProcessor processor, 
+        HttpRequestHandlerMapper handlerMapper,
+        ConfigurationSessionFactory sessionFactory,
+        SessionCache sessions
     ) {
         //
         // parameter validation is done in super()
         //
         super(processor, handlerMapper);
         
-        this.sessions = new SessionCache(sessionFactory);
+        this.sessions = sessions;
+        this.lazy = sessionFactory.isLazy();
     }
     
     
+    SessionCache getSessionCache() {
+        return sessions;
+    }
+    
+    /**
+     * @param accessLog the log access records are queued to; if null, they 
+     *                  are logged synchronously - MAY BE NULL
+     */
+    void setAccessLog(final AsyncAccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+    
+    /**
+     * @param accessLogFilter the filter deciding which requests are logged; 
+     *                        if null, all requests are logged - MAY BE NULL
+     */
+    void setAccessLogFilter(final AccessLogFilter accessLogFilter) {
+        this.accessLogFilter = accessLogFilter;
+    }
+    
+    /**
+     * @param format the format of the access log lines - NOT NULL
+     * @param tls true if the service serves the ssl listener
+     */
+    void setAccessLogFormat(final AccessLogEncoder.Format format, final boolean tls) {
+        this.accessLogFormat = format;
+        this.tls = tls;
+    }
+    
+    /**
+     * @param shared true if the session cache is shared with the service of
+     *               the other listener
+     */
+    void setShared(final boolean shared) {
+        this.shared = shared;
+    }
+    
     public void handleRequest(final HttpServerConnection c)
+    throws HttpException, IOException {
+        handleRequest(c, true);
+    }
+    
+    /**
+     * Handles the next request on the given connection. If keepAlive is false
+     * the response is marked with <code>Connection: close</code> so that the
+     * client knows the connection is not going to be reused.
+     * 
+     * @param c the connection - NOT NULL
+     * @param keepAlive can the connection be reused after this request?
+     * 
+     * @throws HttpException in case of protocol errors
+     * @throws IOException in case of IO errors
+     */
+    public void handleRequest(final HttpServerConnection c, final boolean keepAlive)
     throws HttpException, IOException {
         //
         // TODO: server error handling (not related to IO or protocol)
         //
-        super.handleRequest(c, new HttpSessionContext());
+        HttpSessionContext context = createContext();
+        if (!keepAlive) {
+            context.setAttribute(ATTR_LAST_REQUEST, Boolean.TRUE);
+        }
+        super.handleRequest(c, context);
+    }
+    
+    void serve(
+        final HttpRequest request, 
+        final HttpResponse response, 
+        final HttpInetConnection connection
+    ) {
+        serve(request, response, connection, true);
+    }
+    
+    /**
+     * Serves a request that has already been read from the connection (e.g. 
+     * by a non blocking listener). As for handleRequest(), errors are turned
+     * into the proper error response and, if keepAlive is false, the response
+     * is marked with <code>Connection: close</code>.
+     * 
+     * @param request the request - NOT NULL
+     * @param response the response - NOT NULL
+     * @param connection the connection the request was received from - NOT NULL
+     * @param keepAlive can the connection be reused after this request?
+     */
+    void serve(
+        final HttpRequest request, 
+        final HttpResponse response, 
+        final HttpInetConnection connection,
+        final boolean keepAlive
+    ) {
+        HttpSessionContext context = createContext();
+        if (!keepAlive) {
+            context.setAttribute(ATTR_LAST_REQUEST, Boolean.TRUE);
+        }
+        context.setAttribute(HttpCoreContext.HTTP_CONNECTION, connection);
+        context.setAttribute(HttpCoreContext.HTTP_REQUEST, request);
+        
+        try {
+            doService(request, response, context);
+        } catch (HttpException x) {
+            handleException(x, response);
+        } catch (IOException | RuntimeException x) {
+            handleException(new HttpException(x.getMessage(), x), response);
+        }
     }
         
     // ------------------------------------------------------- protected methods
@@ -77,13 +241,38 @@ public class HttpSessionService extends HttpService {
     @Override
     protected void doService(HttpRequest request, HttpResponse response, HttpContext context) 
     throws HttpException, IOException {
-        String sessionId = sessionId(request, (HttpSessionContext)context);
+        final String cookie = sslCookieName();
+        final String presented = sessionId(
+            request, (cookie == null) ? sessions.getSessionIdName() : cookie
+        );
+        String sessionId = presented;
         
-        HttpSession session = sessions.get(sessionId);
-        ((HttpSessionContext)context).setSession(session);
+        if ((cookie != null) && (sessionId == null)) {
+            //
+            // a session started on the web listener is taken over by the ssl
+            // listener, which from now on identifies it by its own cookie
+            //
+            sessionId = sessionId(request, sessions.getSessionIdName());
+        }
+        if (shared && !tls && (sessionId != null)) {
+            //
+            // the session id travels in clear text on the web listener: a
+            // session used over ssl must not be given to whoever presents it
+            //
+            HttpSession s = sessions.get((Object)sessionId);
+            if ((s != null) && (s.getAttribute(ATTR_TLS) != null)) {
+                sessionId = null;
+            }
+        }
         
-        if (!session.getId().equals(sessionId)) {
-            response.setHeader(session.getHeader());
+        if ((context instanceof LazySessionContext) 
+            && ((sessionId == null) || !sessions.containsKey(sessionId))) {
+            //
+            // no existing session: it will be created only if asked for
+            //
+            ((LazySessionContext)context).bind(sessions, sessionId, presented, cookie, response);
+        } else {
+            assignSession(sessions.get(sessionId), presented, cookie, (HttpSessionContext)context, response);
         }
 
         response.setEntity(createEmptyEntity());
@@ -93,22 +282,146 @@ public class HttpSessionService extends HttpService {
         
         setPrincipal(request, (HttpSessionContext)context);
         
+        final long start = System.nanoTime();
         super.doService(request, response, context);
+        final long nanos = System.nanoTime() - start;
+        
+        if (context.getAttribute(ATTR_LAST_REQUEST) != null) {
+            response.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
+        }
+        
+        HttpSession session = (context instanceof LazySessionContext)
+                            ? ((LazySessionContext)context).peekSession()
+                            : ((HttpSessionContext)context).getSession();
+        if (session != null) {
+            if (shared && tls && (session.getAttribute(ATTR_TLS) == null)) {
+                session.setAttribute(ATTR_TLS, Boolean.TRUE);
+            }
+            sessions.release(session);
+        }
+        
+        if (!LOG.isLoggable(Level.INFO)) {
+            return;
+        }
+        if ((accessLogFilter != null) 
+            && !accessLogFilter.accept(response.getStatusLine().getStatusCode())) {
+            return;
+        }
         
-        LOG.info(String.format(
-            LOG_PATTERN,
-            remoteAddress.toString().substring(1),
-            session.getId(),
-            request.getRequestLine().toString(),
-            response.getStatusLine().getStatusCode()
-        ));
+        final String message = (accessLogFormat == AccessLogEncoder.Format.JSON)
+            ? jsonLine(request, response, connection, session, nanos)
+            : AccessLogEncoder.encode(
+                remoteAddress,
+                (session == null) ? null : session.getId(),
+                request.getRequestLine(),
+                response.getStatusLine().getStatusCode()
+              );
+        if (accessLog == null) {
+            LOG.info(message);
+        } else {
+            LogRecord record = new LogRecord(Level.INFO, message);
+            record.setLoggerName(LOG.getName());
+            record.setSourceClassName(HttpSessionService.class.getName());
+            record.setSourceMethodName("doService");
+            accessLog.log(record);
+        }
     }
     
     // --------------------------------------------------------- private methods
     
-    private String sessionId(HttpRequest request, HttpSessionContext context) {
+    private HttpSessionContext createContext() {
+        return lazy ? new LazySessionContext() : new HttpSessionContext();
+    }
+    
+    /**
+     * @return the access log line in JSON format, with members:
+     * <ul>
+     *   <li>remote: the client address</li>
+     *   <li>session: the session id or null</li>
+     *   <li>method, uri, protocol: the request line</li>
+     *   <li>status: the response status code</li>
+     *   <li>in, out: the request and response body length in bytes; -1 if 
+     *       not known in advance (e.g. chunked)</li>
+     *   <li>nanos: the time spent serving the request (handlers included)</li>
+     *   <li>tls: true if received by the ssl listener</li>
+     *   <li>reuse: the number of requests served before on the same connection</li>
+     * </ul>
+     */
+    private String jsonLine(
+        final HttpRequest request,
+        final HttpResponse response,
+        final HttpInetConnection connection,
+        final HttpSession session,
+        final long nanos
+    ) {
+        final RequestLine line = request.getRequestLine();
+        final HttpEntity in = (request instanceof HttpEntityEnclosingRequest)
+                            ? ((HttpEntityEnclosingRequest)request).getEntity()
+                            : null
+                            ;
+        final HttpEntity out = response.getEntity();
+        final HttpConnectionMetrics metrics = connection.getMetrics();
+        
+        return AccessLogEncoder.get().beginObject()
+            .field("remote", connection.getRemoteAddress())
+            .field("session", (session == null) ? null : session.getId())
+            .field("method", line.getMethod())
+            .field("uri", line.getUri())
+            .field("protocol", line.getProtocolVersion())
+            .field("status", response.getStatusLine().getStatusCode())
+            .field("in", (in == null) ? 0 : in.getContentLength())
+            .field("out", (out == null) ? 0 : out.getContentLength())
+            .field("nanos", nanos)
+            .field("tls", tls)
+            .field("reuse", (metrics == null) ? 0 : Math.max(0, metrics.getRequestCount() - 1))
+            .endObject().toString();
+    }
+    
+    /**
+     * Sets the session of the request and, unless the client already presented
+     * its id, the session cookie in the response.
+     * 
+     * @param session the session - NOT NULL
+     * @param presented the id presented by the client in the cookie set by
+     *                  this listener - MAY BE NULL
+     * @param cookie the name of the cookie if different from the one of the
+     *               session (see sslCookieName()) - MAY BE NULL
+     * @param context the request context - NOT NULL
+     * @param response the response - NOT NULL
+     */
+    private static void assignSession(
+        final HttpSession session, 
+        final String presented, 
+        final String cookie,
+        final HttpSessionContext context, 
+        final HttpResponse response
+    ) {
+        context.setSession(session);
+        
+        if (!session.getId().equals(presented)) {
+            Header h = session.getHeader();
+            if (cookie != null) {
+                final String value = h.getValue();
+                h = new BasicHeader(h.getName(), cookie + value.substring(value.indexOf('=')));
+            }
+            response.setHeader(h);
+        }
+    }
+    
+    /**
+     * @return the name of the session cookie of the ssl listener if the cache
+     *         is shared, null otherwise
+     */
+    private String sslCookieName() {
+        return (shared && tls) 
+             ? sessions.getSessionIdName() + SSL_COOKIE_SUFFIX
+             : null
+             ;
+    }
+    
+    private String sessionId(final HttpRequest request, final String name) {
         for (Header h: request.getHeaders("Cookie")) {
-            String sessionId = HttpUtils.extractSessionId(sessions.getSessionIdName(), h.getValue());
+            String sessionId = HttpUtils.extractSessionId(name, h.getValue());
             if (sessionId != null) {
                 return sessionId;
             }
@@ -144,4 +457,49 @@ public class HttpSessionService extends HttpService {
         
         return user;
     }
+    
+    // ------------------------------------------------------ LazySessionContext
+    
+    /**
+     * A context that creates the session (and sets the session cookie in the
+     * response) the first time getSession() is called, so that requests not
+     * using the session (e.g. static content) do not allocate one.
+     */
+    private static class LazySessionContext extends HttpSessionContext {
+        private SessionCache sessions;
+        private String sessionId, presented, cookie;
+        private HttpResponse response;
+        
+        void bind(
+            final SessionCache sessions, 
+            final String sessionId, 
+            final String presented,
+            final String cookie,
+            final HttpResponse response
+        ) {
+            this.sessions = sessions;
+            this.sessionId = sessionId;
+            this.presented = presented;
+            this.cookie = cookie;
+            this.response = response;
+        }
+        
+        @Override
+        public HttpSession getSession() {
+            HttpSession session = super.getSession();
+            if ((session == null) && (sessions != null)) {
+                session = sessions.get(sessionId);
+                assignSession(session, presented, cookie, this, response);
+            }
+            
+            return session;
+        }
+        
+        /**
+         * @return the session if already created, null otherwise
+         */
+        HttpSession peekSession() {
+            return super.getSession();
+        }
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The default store: sessions are kept on the heap as they are.
+ */
+public class MemorySessionStore implements SessionStore {
+
+    private final ConcurrentHashMap<String, HttpSession> sessions = new ConcurrentHashMap<>();
+
+    @Override
+    public HttpSession load(final String id) {
+        return sessions.get(id);
+    }
+
+    @Override
+    public void save(final HttpSession session) {
+        sessions.put(session.getId(), session);
+    }
+
+    @Override
+    public HttpSession delete(final String id) {
+        return sessions.remove(id);
+    }
+
+    /**
+     * Access times are not kept: sessions do not outlive the process
+     */
+    @Override
+    public void touch(final String id, final long timestamp) {
+    }
+
+    @Override
+    public long lastAccess(final String id) {
+        return 0;
+    }
+
+    @Override
+    public int size() {
+        return sessions.size();
+    }
+
+    @Override
+    public Set<String> ids() {
+        return sessions.keySet();
+    }
+
+    @Override
+    public boolean isShared() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        sessions.clear();
+    }
+}
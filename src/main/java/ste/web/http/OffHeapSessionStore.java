@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A store that keeps the serialized attributes of the sessions in direct
+ * memory, so that the heap holds only the sessions being used by a request and
+ * an index of ids.
+ *
+ * Memory is allocated in chunks of CHUNK_SIZE bytes divided in slots whose
+ * size is a power of two (at least MIN_SLOT_SIZE bytes); each session takes the
+ * smallest slot that can hold it and slots are reused once sessions are
+ * updated or deleted. Memory is never given back to the os until the store is
+ * closed.
+ *
+ * Sessions are StoredHttpSession and each load() returns a new object,
+ * therefore concurrent requests of the same session do not see each other
+ * changes and the last saved wins.
+ */
+public class OffHeapSessionStore implements SessionStore {
+
+    public static final int CHUNK_SIZE = 4*1024*1024;
+    public static final int MIN_SLOT_SIZE = 128;
+
+    private final String sessionIdName;
+    private final ConcurrentHashMap<String, Long> index;
+    private final SizeClass[] classes;
+    private final ReentrantReadWriteLock lock;
+
+    /**
+     * @param sessionIdName the name of the session id cookie - NOT NULL
+     */
+    public OffHeapSessionStore(final String sessionIdName) {
+        this.sessionIdName = sessionIdName;
+        this.index = new ConcurrentHashMap<>();
+        this.classes = new SizeClass[Integer.SIZE];
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    @Override
+    public HttpSession load(final String id) {
+        byte[] data = null;
+
+        lock.readLock().lock();
+        try {
+            Long address = index.get(id);
+            if (address == null) {
+                return null;
+            }
+            data = classes[sizeClass(address)].read(slot(address));
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return StoredHttpSession.fromBytes(sessionIdName, id, data);
+    }
+
+    /**
+     * @throws IllegalArgumentException if session is not a StoredHttpSession
+     * @throws IllegalStateException if an attribute is not serializable
+     */
+    @Override
+    public void save(final HttpSession session) {
+        if (!(session instanceof StoredHttpSession)) {
+            throw new IllegalArgumentException(
+                "session " + session.getId() + " can not be stored off heap"
+            );
+        }
+        StoredHttpSession s = (StoredHttpSession)session;
+        byte[] data = s.toBytes();
+
+        int c = Math.max(
+            Integer.SIZE - Integer.numberOfLeadingZeros(MIN_SLOT_SIZE - 1),
+            Integer.SIZE - Integer.numberOfLeadingZeros(data.length + Integer.BYTES - 1)
+        );
+
+        lock.writeLock().lock();
+        try {
+            if (classes[c] == null) {
+                classes[c] = new SizeClass(1 << c);
+            }
+            int slot = classes[c].allocate();
+            classes[c].write(slot, data);
+
+            Long old = index.put(s.getId(), address(c, slot));
+            if (old != null) {
+                classes[sizeClass(old)].free(slot(old));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        s.clean();
+    }
+
+    /**
+     * @return a copy of the removed session, so that the caller can expire it;
+     *         null if there was no session with the given id
+     */
+    @Override
+    public HttpSession delete(final String id) {
+        byte[] data = null;
+
+        lock.writeLock().lock();
+        try {
+            Long address = index.remove(id);
+            if (address == null) {
+                return null;
+            }
+            data = classes[sizeClass(address)].read(slot(address));
+            classes[sizeClass(address)].free(slot(address));
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return StoredHttpSession.fromBytes(sessionIdName, id, data);
+    }
+
+    /**
+     * Access times are not kept: sessions do not outlive the process
+     */
+    @Override
+    public void touch(final String id, final long timestamp) {
+    }
+
+    @Override
+    public long lastAccess(final String id) {
+        return 0;
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public Set<String> ids() {
+        return index.keySet();
+    }
+
+    /**
+     * @return the direct memory allocated by the store in bytes
+     */
+    public long getCapacity() {
+        lock.readLock().lock();
+        try {
+            long capacity = 0;
+            for (SizeClass c: classes) {
+                if (c != null) {
+                    capacity += (long)c.chunks.size() * c.chunkSize;
+                }
+            }
+            return capacity;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isShared() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            index.clear();
+            Arrays.fill(classes, null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private static long address(final int sizeClass, final int slot) {
+        return ((long)sizeClass << 32) | slot;
+    }
+
+    private static int sizeClass(final long address) {
+        return (int)(address >>> 32);
+    }
+
+    private static int slot(final long address) {
+        return (int)address;
+    }
+
+    // --------------------------------------------------------------- SizeClass
+
+    /**
+     * Slots of the same size; slots are kept in chunks of direct memory and
+     * free slots are reused before allocating new ones. Access is guarded by
+     * the store lock.
+     */
+    private static class SizeClass {
+        final int slotSize, slotsPerChunk, chunkSize;
+        final List<ByteBuffer> chunks = new ArrayList<>();
+        int[] free = new int[16];
+        int freeCount = 0, next = 0;
+
+        SizeClass(final int slotSize) {
+            this.slotSize = slotSize;
+            this.slotsPerChunk = Math.max(1, CHUNK_SIZE / slotSize);
+            this.chunkSize = slotsPerChunk * slotSize;
+        }
+
+        int allocate() {
+            if (freeCount > 0) {
+                return free[--freeCount];
+            }
+            if (next == chunks.size() * slotsPerChunk) {
+                chunks.add(ByteBuffer.allocateDirect(chunkSize));
+            }
+            return next++;
+        }
+
+        void free(final int slot) {
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, free.length * 2);
+            }
+            free[freeCount++] = slot;
+        }
+
+        void write(final int slot, final byte[] data) {
+            ByteBuffer b = chunks.get(slot / slotsPerChunk).duplicate();
+            b.position((slot % slotsPerChunk) * slotSize);
+            b.putInt(data.length).put(data);
+        }
+
+        byte[] read(final int slot) {
+            ByteBuffer b = chunks.get(slot / slotsPerChunk).duplicate();
+            b.position((slot % slotsPerChunk) * slotSize);
+            byte[] data = new byte[b.getInt()];
+            b.get(data);
+
+            return data;
+        }
+    }
+}
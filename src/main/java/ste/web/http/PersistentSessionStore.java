@@ -0,0 +1,443 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A store that keeps the sessions in another store (memory or off heap) and
+ * persists them in an append-only log, so that they survive a restart.
+ *
+ * Requests never touch the disk: saved and deleted sessions are queued and
+ * written in batches by a background thread every flushtime milliseconds
+ * (the latest change of a session wins); the log is guarded by a lock of its
+ * own, which requests never take, so that they do not wait for the writer. When the store is created, the log is
+ * read, compacted and its sessions are loaded in the underlying store. The
+ * last access times told by touch() are logged as well, so that after a 
+ * restart SessionCache expires the sessions that would have expired in the
+ * meantime and does not give reloaded sessions a full new lifetime. The
+ * writer compacts the log again when the records of deleted or changed 
+ * sessions are more than COMPACT_RATIO times the live sessions (and at least
+ * COMPACT_MIN), so that neither the log nor the restart time grow without 
+ * bounds on a long-running server.
+ *
+ * A session is persisted only when it is created or changed (see
+ * StoredHttpSession); changes not yet written when the process dies are lost.
+ */
+public class PersistentSessionStore implements SessionStore {
+
+    private static final byte SAVE = 1, DELETE = 2, ACCESS = 3;
+    private static final Object DELETED = new Object();
+
+    public static final int COMPACT_RATIO = 2;
+    public static final int COMPACT_MIN = 1000;
+
+    private final Logger LOG = Logger.getLogger(HttpServer.LOG_SERVER);
+
+    private final SessionStore store;
+    private final File log;
+    private final String sessionIdName;
+    private final long flushtime;
+    private final ConcurrentHashMap<String, Object> pending;
+    private final ConcurrentHashMap<String, Long> accessed;
+    private final Set<String> touched;
+    private final Object logLock;
+
+    private DataOutputStream out;
+    private volatile Thread writer;
+    private long records;
+
+    /**
+     * @param store the store keeping the sessions in memory - NOT NULL
+     * @param log the log file; the parent directory is created if needed - NOT NULL
+     * @param sessionIdName the name of the session id cookie - NOT NULL
+     * @param flushtime how often (in milliseconds) changes are written - &gt; 0
+     *
+     * @throws IOException if the log can not be read or written
+     */
+    public PersistentSessionStore(
+        final SessionStore store,
+        final File log,
+        final String sessionIdName,
+        final long flushtime
+    ) throws IOException {
+        this.store = store;
+        this.log = log;
+        this.sessionIdName = sessionIdName;
+        this.flushtime = flushtime;
+        this.pending = new ConcurrentHashMap<>();
+        this.accessed = new ConcurrentHashMap<>();
+        this.touched = ConcurrentHashMap.newKeySet();
+        this.logLock = new Object();
+
+        reload();
+    }
+
+    @Override
+    public HttpSession load(final String id) {
+        return store.load(id);
+    }
+
+    /**
+     * @throws IllegalArgumentException if session is not a StoredHttpSession
+     */
+    @Override
+    public void save(final HttpSession session) {
+        if (!(session instanceof StoredHttpSession)) {
+            throw new IllegalArgumentException(
+                "session " + session.getId() + " can not be persisted"
+            );
+        }
+        store.save(session);
+        ((StoredHttpSession)session).clean();
+        pending.put(session.getId(), session);
+        startWriter();
+    }
+
+    @Override
+    public HttpSession delete(final String id) {
+        pending.put(id, DELETED);
+        accessed.remove(id); touched.remove(id);
+        startWriter();
+
+        return store.delete(id);
+    }
+
+    /**
+     * Queues the access time to be written with the other changes; only the
+     * latest access of a session is written by each flush()
+     */
+    @Override
+    public void touch(final String id, final long timestamp) {
+        accessed.put(id, timestamp);
+        touched.add(id);
+        startWriter();
+    }
+
+    @Override
+    public long lastAccess(final String id) {
+        Long timestamp = accessed.get(id);
+
+        return (timestamp == null) ? 0 : timestamp;
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public Set<String> ids() {
+        return store.ids();
+    }
+
+    /**
+     * Writes all pending changes
+     *
+     * @throws IOException in case of errors writing the log
+     */
+    public void flush() throws IOException {
+        if (pending.isEmpty() && touched.isEmpty()) {
+            return;
+        }
+        synchronized (logLock) {
+            if (out == null) {
+                out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(log, true), 64*1024)
+                );
+            }
+            for (String id: pending.keySet()) {
+                Object session = pending.remove(id);
+                if (session == DELETED) {
+                    out.writeByte(DELETE); out.writeUTF(id);
+                    ++records;
+                } else if (session != null) {
+                    byte[] data = null;
+                    try {
+                        data = ((StoredHttpSession)session).toBytes();
+                    } catch (IllegalStateException x) {
+                        if (LOG.isLoggable(Level.WARNING)) {
+                            LOG.warning(x.getMessage());
+                        }
+                        continue;
+                    }
+                    write(out, id, data);
+                    ++records;
+                }
+            }
+            for (String id: touched) {
+                touched.remove(id);
+                Long timestamp = accessed.get(id);
+                if (timestamp != null) {
+                    write(out, id, timestamp);
+                    ++records;
+                }
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Rewrites the log with the live sessions only, if the records of deleted
+     * or changed sessions are more than COMPACT_RATIO times the live sessions
+     * and at least COMPACT_MIN; pending changes are written first. Requests
+     * do not wait for the rewrite: their changes are queued as usual and
+     * written to the new log by the next flush().
+     *
+     * @return true if the log has been compacted
+     *
+     * @throws IOException in case of errors writing the log
+     */
+    public boolean compact() throws IOException {
+        synchronized (logLock) {
+            final long live = store.size();
+            final long dead = records - live;
+            if ((dead < COMPACT_MIN) || (dead <= COMPACT_RATIO * live)) {
+                return false;
+            }
+
+            flush();
+            if (out != null) {
+                out.close(); out = null;
+            }
+
+            long n = 0;
+            File compacted = compacted();
+            try (DataOutputStream o = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(compacted), 64*1024)
+            )) {
+                for (String id: store.ids()) {
+                    HttpSession session = store.load(id);
+                    if (!(session instanceof StoredHttpSession)) {
+                        //
+                        // deleted in the meantime
+                        //
+                        continue;
+                    }
+                    try {
+                        write(o, id, ((StoredHttpSession)session).toBytes());
+                        ++n;
+                        Long timestamp = accessed.get(id);
+                        if (timestamp != null) {
+                            write(o, id, timestamp);
+                            ++n;
+                        }
+                    } catch (IllegalStateException x) {
+                        if (LOG.isLoggable(Level.WARNING)) {
+                            LOG.warning(x.getMessage());
+                        }
+                    }
+                }
+            }
+            Files.move(compacted.toPath(), log.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine(String.format("%s compacted from %d to %d records", log, records, n));
+            }
+            records = n;
+
+            return true;
+        }
+    }
+
+    @Override
+    public boolean isShared() {
+        return store.isShared();
+    }
+
+    /**
+     * Writes all pending changes, stops the writer and closes the underlying
+     * store; the store can still be used afterwards.
+     */
+    @Override
+    public void close() {
+        Thread w = null;
+        synchronized (this) {
+            w = writer; writer = null;
+        }
+        if (w != null) {
+            w.interrupt();
+            try {
+                w.join(1000);
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (logLock) {
+            try {
+                flush();
+            } catch (IOException x) {
+                if (LOG.isLoggable(Level.SEVERE)) {
+                    LOG.severe(String.format("unable to write sessions to %s (%s)", log, x.getMessage()));
+                }
+            }
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException x) {
+                    //
+                    // nothing we can do...
+                    //
+                }
+                out = null;
+            }
+        }
+        store.close();
+    }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * Starts the writer unless already running; requests only read the
+     * volatile writer, so that they never wait on a lock held while writing
+     */
+    private void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        synchronized (this) {
+            if (writer == null) {
+                writer = createWriter();
+                writer.start();
+            }
+        }
+    }
+
+    private Thread createWriter() {
+        Thread w = new Thread("https-session-writer") {
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    try {
+                        Thread.sleep(flushtime);
+                        flush();
+                        compact();
+                    } catch (InterruptedException x) {
+                        break;
+                    } catch (IOException x) {
+                        if (LOG.isLoggable(Level.SEVERE)) {
+                            LOG.severe(String.format("unable to write sessions to %s (%s)", log, x.getMessage()));
+                        }
+                    }
+                }
+            }
+        };
+        w.setDaemon(true);
+
+        return w;
+    }
+
+    /**
+     * Reads the log, rewrites it with the live sessions only and loads them
+     * in the underlying store. A truncated last record (e.g. because the
+     * process died while writing it) is ignored.
+     */
+    private void reload() throws IOException {
+        File dir = log.getAbsoluteFile().getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("unable to create " + dir.getAbsolutePath());
+        }
+
+        Map<String, byte[]> sessions = new LinkedHashMap<>();
+        Map<String, Long> access = new HashMap<>();
+        if (log.exists()) {
+            try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(log), 64*1024)
+            )) {
+                while (true) {
+                    byte op = in.readByte();
+                    String id = in.readUTF();
+                    if (op == DELETE) {
+                        sessions.remove(id); access.remove(id);
+                    } else if (op == ACCESS) {
+                        access.put(id, in.readLong());
+                    } else {
+                        byte[] data = new byte[in.readInt()];
+                        in.readFully(data);
+                        sessions.put(id, data);
+                    }
+                }
+            } catch (EOFException x) {
+                //
+                // end of log
+                //
+            }
+        }
+
+        records = 0;
+        File compacted = compacted();
+        try (DataOutputStream o = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(compacted), 64*1024)
+        )) {
+            for (Map.Entry<String, byte[]> s: sessions.entrySet()) {
+                try {
+                    store.save(StoredHttpSession.fromBytes(sessionIdName, s.getKey(), s.getValue()));
+                } catch (IllegalStateException x) {
+                    if (LOG.isLoggable(Level.WARNING)) {
+                        LOG.warning(x.getMessage());
+                    }
+                    continue;
+                }
+                write(o, s.getKey(), s.getValue());
+                ++records;
+                Long timestamp = access.get(s.getKey());
+                if (timestamp != null) {
+                    accessed.put(s.getKey(), timestamp);
+                    write(o, s.getKey(), timestamp);
+                    ++records;
+                }
+            }
+        }
+        Files.move(compacted.toPath(), log.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.info(String.format("%d sessions loaded from %s", store.size(), log));
+        }
+    }
+
+    private File compacted() {
+        return new File(log.getAbsoluteFile().getParentFile(), log.getName() + ".tmp");
+    }
+
+    private static void write(final DataOutputStream o, final String id, final byte[] data)
+    throws IOException {
+        o.writeByte(SAVE); o.writeUTF(id);
+        o.writeInt(data.length); o.write(data);
+    }
+
+    private static void write(final DataOutputStream o, final String id, final long timestamp)
+    throws IOException {
+        o.writeByte(ACCESS); o.writeUTF(id); o.writeLong(timestamp);
+    }
+}
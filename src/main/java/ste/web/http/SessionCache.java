@@ -16,55 +16,261 @@
 package ste.web.http;
 
 import java.time.Clock;
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * This class implements the cache for the sessions. Entries expire after a
  * given lifetime if not accessed (either in read or write). Expiration is the
  * entries is checked triggered by the access to any entry and if the last check
- * was performed earlier than a threshold.
- * 
+ * was performed earlier than a threshold. When a scheduler is provided with
+ * schedulePurge(), expired entries are purged by the scheduler instead, so that
+ * requests do not pay for scanning the whole cache.
+ *
+ * The cache can be bounded to a maximum number of sessions: when a new session
+ * would exceed the limit, the least recently used session is evicted (and 
+ * expired). As in redis, LRU is approximated: the evicted session is the least
+ * recently used among EVICTION_SAMPLE sessions taken from a random part of the
+ * cache at each eviction, so that no access order must be maintained on the 
+ * request path.
+ *
+ * The cache does not use any lock: the ids of the sessions are kept in a
+ * concurrent map together with the time they were last accessed, therefore
+ * requests do not serialize on the cache. If the same expired session is
+ * accessed concurrently by more threads, each of them gets a new session.
+ *
+ * Sessions are kept in the SessionStore given by the session factory. Stores
+ * that do not keep the live session objects save a session only when release()
+ * is called for it at the end of a request.
+ *
  */
-class SessionCache extends HashMap<String, HttpSession> {
+class SessionCache extends AbstractMap<String, HttpSession> {
     //
     // making time predictable...
     //
     private Clock clock = Clock.systemDefaultZone();
-    
+
     public static final long DEFAULT_SESSION_LIFETIME = 1000*60*15; // 15 min
     public static final long DEFAULT_SESSION_PURGETIME = 1000*5; // 5 seconds
-    
-    private final Map<String, Long> lastAccess;
-    
+    public static final int EVICTION_SAMPLE = 16;
+    //
+    // rough heap taken by a session without its attributes: index entry, id
+    // and session object
+    //
+    public static final int SESSION_OVERHEAD = 512;
+
+    private final ConcurrentHashMap<String, Entry> sessions;
+
     private final ConfigurationSessionFactory sessionFactory;
-    private final long lifetime, purgetime;
-    private long lastPurge;
+    private final SessionStore store;
+    private final long lifetime, purgetime, granularity;
+    private final int maxSessions;
+    private final LongAdder evictions, created, expired, purges;
+    private volatile long lastPurgeMicros;
+    private final AtomicLong lastPurge;
+    private volatile boolean scheduled;
     private String sessionIdName;
     
+    private final Logger LOG = Logger.getLogger(HttpServer.LOG_SERVER);
+
     /**
-     * Creates the session cache with default session lifetime and purgetime
+     * Equivalent to <code>SessionCache(sessionFactory, "sessions")</code>.
      */
     public SessionCache(ConfigurationSessionFactory sessionFactory) {
+        this(sessionFactory, "sessions");
+    }
+
+    /**
+     * Creates the session cache with the store given by the session factory;
+     * sessions already in the store (e.g. reloaded by a persistent store) keep
+     * the last access time known by the store, so that the ones that expired
+     * in the meantime are expired right away; sessions whose last access is
+     * not known are considered accessed now.
+     *
+     * @param sessionFactory the session factory - NOT NULL
+     * @param name the name of the store - NOT NULL
+     */
+    public SessionCache(ConfigurationSessionFactory sessionFactory, String name) {
         super();
-        
+
         this.sessionFactory = sessionFactory;
+        this.store = sessionFactory.createStore(name);
         this.lifetime = sessionFactory.getLifetime();
         this.sessionIdName = sessionFactory.getSessionIdName();
-        this.purgetime = DEFAULT_SESSION_PURGETIME;
-        this.lastPurge = 0;
-        
-        this.lastAccess = new HashMap<>();
+        this.purgetime = sessionFactory.getPurgetime();
+        //
+        // access times are tracked with a precision of at least 1% of the
+        // session lifetime
+        //
+        this.granularity = (lifetime > 0) 
+                         ? Math.min(sessionFactory.getGranularity(), lifetime / 100)
+                         : sessionFactory.getGranularity()
+                         ;
+        this.lastPurge = new AtomicLong(0);
+        this.scheduled = false;
+        this.maxSessions = sessionFactory.getMaxSessions();
+        this.evictions = new LongAdder();
+        this.created = new LongAdder();
+        this.expired = new LongAdder();
+        this.purges = new LongAdder();
+
+        this.sessions = new ConcurrentHashMap<>();
+        final long now = clock.millis();
+        for (String id: new ArrayList<>(store.ids())) {
+            long lastAccess = store.lastAccess(id);
+            if (lastAccess <= 0) {
+                lastAccess = now;
+            }
+            if (isExpired(lastAccess)) {
+                expired.increment();
+                deleteSession(id);
+            } else {
+                sessions.put(id, new Entry(lastAccess));
+            }
+        }
     }
-    
+
     public long getLifetime() {
         return lifetime;
     }
-    
+
     public String getSessionIdName() {
         return sessionIdName;
     }
     
+    public long getPurgetime() {
+        return purgetime;
+    }
+    
+    /**
+     * @return how often (at most, in milliseconds) the last access time of a
+     *         session is updated
+     */
+    public long getGranularity() {
+        return granularity;
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+    
+    /**
+     * @return how many sessions have been evicted to keep the cache within
+     *         getMaxSessions() sessions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return how many sessions have been created
+     */
+    public long getCreated() {
+        return created.sum();
+    }
+
+    /**
+     * @return how many sessions have expired
+     */
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    /**
+     * @return how many times the cache has been scanned for expired sessions
+     */
+    public long getPurges() {
+        return purges.sum();
+    }
+
+    /**
+     * @return how long (in microseconds) the last scan for expired sessions
+     *         took
+     */
+    public long getLastPurgeMicros() {
+        return lastPurgeMicros;
+    }
+
+    /**
+     * Estimates the memory taken by the sessions as SESSION_OVERHEAD bytes
+     * per session plus the average serialized size of the attributes of up to
+     * EVICTION_SAMPLE sessions. Only StoredHttpSession can be measured: plain
+     * HttpSession, as kept by the memory store without persistence, do not
+     * expose their attributes, in which case no estimate is available.
+     *
+     * @return the estimated memory (in bytes) taken by the sessions; -1 if
+     *         the sessions can not be measured
+     */
+    public long getEstimatedMemory() {
+        long n = 0, measured = 0, bytes = 0;
+        for (String id: sessions.keySet()) {
+            HttpSession session = store.load(id);
+            if (session instanceof StoredHttpSession) {
+                try {
+                    bytes += ((StoredHttpSession)session).toBytes().length;
+                    ++measured;
+                } catch (IllegalStateException x) {
+                    //
+                    // not serializable, not counted
+                    //
+                }
+            }
+            if (++n >= EVICTION_SAMPLE) {
+                break;
+            }
+        }
+
+        if ((n > 0) && (measured == 0)) {
+            return -1;
+        }
+
+        final long size = sessions.size();
+        return size * SESSION_OVERHEAD + ((measured == 0) ? 0 : bytes * size / measured);
+    }
+    
+    /**
+     * Purges expired sessions every purgetime milliseconds with the given 
+     * scheduler; get() does not purge the cache any more.
+     * 
+     * @param scheduler the scheduler - NOT NULL
+     */
+    void schedulePurge(final ScheduledExecutorService scheduler) {
+        if (lifetime == 0) {
+            return;
+        }
+        
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    expireSessions();
+                } catch (RuntimeException x) {
+                    //
+                    // an exception would cancel next executions
+                    //
+                    if (LOG.isLoggable(Level.SEVERE)) {
+                        LOG.severe(String.format("error purging sessions (%s)", x.getMessage()));
+                    }
+                }
+            }
+        }, purgetime, purgetime, TimeUnit.MILLISECONDS);
+        scheduled = true;
+    }
+
     /**
      * @throws UnsupportedOperationException - use get(null) instead
      */
@@ -72,7 +278,7 @@ class SessionCache extends HashMap<String, HttpSession> {
     public HttpSession put(String id, HttpSession session) {
         throw new UnsupportedOperationException("put() is unsupported; use get(null) instead");
     }
-    
+
     /**
      * @throws UnsupportedOperationException - use get(null) instead
      */
@@ -80,71 +286,327 @@ class SessionCache extends HashMap<String, HttpSession> {
     public void putAll(Map<? extends String, ? extends HttpSession> map) {
         throw new UnsupportedOperationException("putAll() is unsupported; use get(null) instead");
     }
-    
+
     /**
-     * Returns the session associated to the given id if found end not expired; 
+     * Returns the session associated to the given id if found end not expired;
      * otherwise a new session is created.
-     * 
+     *
      * @param id the session id - ANY VALUE
-     * 
-     * @return the session associated to the given id if found end not expired; 
+     *
+     * @return the session associated to the given id if found end not expired;
      * otherwise a new session is created.
      */
-    public synchronized HttpSession get(final String id) {
-        HttpSession session = (HttpSession)super.get(id);
-        
-        purge();
-        Long lastTS = lastAccess.get(id);
-        if ((lastTS == null) || isExpired(lastTS) || (session == null)) {
+    public HttpSession get(final String id) {
+        if (!scheduled) {
+            purge();
+        }
+
+        HttpSession session = null;
+
+        Entry e = (id == null) ? null : sessions.get(id);
+        if ((e != null) && isExpired(e.lastAccess)) {
+            expireSession(id, e);
+            e = null;
+        }
+        if (e != null) {
+            session = store.load(id);
+            if (session == null) {
+                //
+                // expired or evicted in the meantime
+                //
+                sessions.remove(id, e);
+                e = null;
+            }
+        }
+        if ((e == null) && (id != null) && store.isShared()) {
+            //
+            // the session may have been created or used by another node
+            //
+            session = store.load(id);
+            if (session != null) {
+                e = new Entry(clock.millis());
+                Entry current = sessions.putIfAbsent(id, e);
+                if (current != null) {
+                    e = current;
+                } else if ((maxSessions > 0) && (sessions.size() > maxSessions)) {
+                    evict(id);
+                }
+            }
+        }
+        if (e == null) {
             session = sessionFactory.create();
-            super.put(session.getId(), session);
+            created.increment();
+            store.save(session);
+            final long now = clock.millis();
+            sessions.put(session.getId(), new Entry(now));
+            store.touch(session.getId(), now);
+            if ((maxSessions > 0) && (sessions.size() > maxSessions)) {
+                evict(session.getId());
+            }
+        } else {
+            trackAccess(id, e, clock.millis());
         }
-        trackAccess(session.getId());
-        
+
         return session;
     }
 
+    /**
+     * Tells the cache the given session is not used by the current request
+     * any more, so that its changes are saved in the store if needed.
+     *
+     * @param session the session - NOT NULL
+     */
+    public void release(final HttpSession session) {
+        if (!(session instanceof StoredHttpSession) || !((StoredHttpSession)session).isDirty()) {
+            return;
+        }
+
+        String id = session.getId();
+        if (sessions.containsKey(id)) {
+            store.save(session);
+            if (!sessions.containsKey(id) && !store.isShared()) {
+                //
+                // expired or evicted while saving
+                //
+                store.delete(id);
+            }
+        }
+    }
+
+    /**
+     * Forgets all sessions and closes the underlying store
+     */
+    public void close() {
+        sessions.clear();
+        store.close();
+    }
+
+    /**
+     * Returns the session associated to the given id without creating a new
+     * session or tracking the access.
+     *
+     * @param id the session id - ANY VALUE
+     *
+     * @return the session associated to the given id if any, null otherwise
+     */
+    @Override
+    public HttpSession get(final Object id) {
+        Entry e = (id == null) ? null : sessions.get(id);
+
+        return (e == null) ? null : store.load((String)id);
+    }
+
+    @Override
+    public HttpSession remove(final Object id) {
+        Entry e = (id == null) ? null : sessions.remove(id);
+
+        return (e == null) ? null : store.delete((String)id);
+    }
+
+    @Override
+    public boolean containsKey(final Object id) {
+        return (id != null) && sessions.containsKey(id);
+    }
+
+    @Override
+    public int size() {
+        return sessions.size();
+    }
+
+    @Override
+    public void clear() {
+        for (String id: sessions.keySet()) {
+            remove(id);
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, HttpSession>> entrySet() {
+        return new AbstractSet<Map.Entry<String, HttpSession>>() {
+            @Override
+            public Iterator<Map.Entry<String, HttpSession>> iterator() {
+                final Iterator<Map.Entry<String, Entry>> i = sessions.entrySet().iterator();
+
+                return new Iterator<Map.Entry<String, HttpSession>>() {
+                    private String id = null;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, HttpSession> next() {
+                        id = i.next().getKey();
+                        return new SimpleImmutableEntry<>(id, store.load(id));
+                    }
+
+                    @Override
+                    public void remove() {
+                        i.remove();
+                        store.delete(id);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return sessions.size();
+            }
+        };
+    }
+
     // --------------------------------------------------------- private methods
-    
-    protected boolean isExpired(Long lastTS) {
+
+    protected boolean isExpired(long lastTS) {
         long ts = clock.millis();
         return (lifetime != 0) && (ts-lastTS > lifetime);
     }
-    
-    private void expireSession(final String id) {
-        if ((lifetime != 0) && (id != null)) {
-            HttpSession session = (HttpSession)super.get(id);
-            if (session != null) {
-                session.expire();
+
+    /**
+     * Removes the given entry only if it is still associated to the given id,
+     * so that a session is expired by one thread only.
+     */
+    private void expireSession(final String id, final Entry e) {
+        if (sessions.remove(id, e)) {
+            expired.increment();
+            deleteSession(id);
+        }
+    }
+
+    /**
+     * Removes the session from the store and, if the store keeps live 
+     * sessions, expires it so that it can not be used any more; sessions in
+     * shared stores may still be used by other nodes and are left to the store
+     */
+    private void deleteSession(final String id) {
+        if (store.isShared()) {
+            return;
+        }
+        HttpSession session = store.delete(id);
+        if (session != null) {
+            session.expire();
+        }
+    }
+
+    /**
+     * Evicts sessions until the cache is within its limit; the given (new)
+     * session is never evicted. All sessions in the sampled part of the cache
+     * are candidates; if they are less than EVICTION_SAMPLE, the sample is
+     * completed with the first sessions of the cache.
+     */
+    private void evict(final String newId) {
+        while (sessions.size() > maxSessions) {
+            String lruId = null; Entry lru = null;
+            
+            Iterator<Map.Entry<String, Entry>> i = Spliterators.iterator(sample());
+            boolean sampled = true;
+            int n = 0;
+            while (sampled || (n < EVICTION_SAMPLE)) {
+                if (!i.hasNext()) {
+                    if (!sampled || (n >= EVICTION_SAMPLE)) {
+                        break;
+                    }
+                    i = sessions.entrySet().iterator(); sampled = false;
+                    continue;
+                }
+                Map.Entry<String, Entry> e = i.next();
+                if (e.getKey().equals(newId)) {
+                    continue;
+                }
+                if ((lru == null) || (e.getValue().lastAccess < lru.lastAccess)) {
+                    lruId = e.getKey(); lru = e.getValue();
+                }
+                ++n;
+            }
+            
+            if (lru == null) {
+                return;
+            }
+            if (sessions.remove(lruId, lru)) {
+                evictions.increment();
+                deleteSession(lruId);
             }
-            remove(id);
-            lastAccess.remove(id);
         }
     }
-    
-    private void trackAccess(String id) {
-        lastAccess.put(id, clock.millis());
+
+    /**
+     * Picks a random part of the cache with about EVICTION_SAMPLE sessions:
+     * the bins of the map are split in halves, keeping one at random, until 
+     * the part is small enough, which takes O(log(size)) steps. Since ids 
+     * are spread over the bins by their hash, the sessions in the part have
+     * nothing to do with their last access time.
+     */
+    private Spliterator<Map.Entry<String, Entry>> sample() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        
+        Spliterator<Map.Entry<String, Entry>> part = sessions.entrySet().spliterator();
+        while (part.estimateSize() > EVICTION_SAMPLE) {
+            Spliterator<Map.Entry<String, Entry>> half = part.trySplit();
+            if (half == null) {
+                break;
+            }
+            if (random.nextBoolean()) {
+                part = half;
+            }
+        }
+        
+        return part;
     }
-    
-    @SuppressWarnings("unchecked")
+
+    /**
+     * Updates the last access time only if it is older than granularity, so
+     * that sessions used by chatty clients are not written at each request
+     * (the entry is shared by all threads using the session). As a result
+     * sessions may expire (or be evicted) up to granularity milliseconds
+     * earlier than their exact last access would tell. The store is told of
+     * the updated access time (see SessionStore.touch()).
+     */
+    private void trackAccess(final String id, final Entry e, final long now) {
+        if (now - e.lastAccess >= granularity) {
+            e.lastAccess = now;
+            store.touch(id, now);
+        }
+    }
+
     private void purge() {
         if (lifetime == 0) {
             return;
         }
-        
+
         long ts = clock.millis();
-        if (ts-lastPurge <= purgetime) {
+        long last = lastPurge.get();
+        if ((ts-last <= purgetime) || !lastPurge.compareAndSet(last, ts)) {
+            //
+            // too early or another thread is purging
+            //
             return;
         }
-        
-        Object[] access = lastAccess.entrySet().toArray();
-        for (Object o: access) {
-            Map.Entry<String, Long> a = (Map.Entry<String, Long>)o;
-            long lastTS = a.getValue();
-            if (isExpired(lastTS)) {
-                expireSession(a.getKey());
+
+        expireSessions();
+    }
+
+    /**
+     * Scans the cache without blocking the threads accessing it.
+     */
+    private void expireSessions() {
+        final long start = System.nanoTime();
+        for (Map.Entry<String, Entry> e: sessions.entrySet()) {
+            if (isExpired(e.getValue().lastAccess)) {
+                expireSession(e.getKey(), e.getValue());
             }
         }
-        lastPurge = ts;
+        lastPurgeMicros = (System.nanoTime() - start) / 1000;
+        purges.increment();
+    }
+
+    // ------------------------------------------------------------------- Entry
+
+    private static class Entry {
+        volatile long lastAccess;
+
+        Entry(final long lastAccess) {
+            this.lastAccess = lastAccess;
+        }
     }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+/**
+ * Exposes the statistics of a session cache as a JMX MBean (see HttpServer)
+ * and as text (see SessionStatsHandler).
+ */
+public class SessionCacheMonitor implements SessionCacheMonitorMBean {
+
+    private final String name;
+    private final SessionCache cache;
+
+    /**
+     * @param name the name of the service using the cache - NOT NULL
+     * @param service the service - NOT NULL
+     */
+    public SessionCacheMonitor(final String name, final HttpSessionService service) {
+        this.name = name;
+        this.cache = service.getSessionCache();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getSessions() {
+        return cache.size();
+    }
+
+    @Override
+    public int getMaxSessions() {
+        return cache.getMaxSessions();
+    }
+
+    @Override
+    public long getLifetime() {
+        return cache.getLifetime();
+    }
+
+    @Override
+    public long getCreated() {
+        return cache.getCreated();
+    }
+
+    @Override
+    public long getExpired() {
+        return cache.getExpired();
+    }
+
+    @Override
+    public long getEvicted() {
+        return cache.getEvictions();
+    }
+
+    @Override
+    public long getPurges() {
+        return cache.getPurges();
+    }
+
+    @Override
+    public long getLastPurgeMicros() {
+        return cache.getLastPurgeMicros();
+    }
+
+    @Override
+    public long getEstimatedMemory() {
+        return cache.getEstimatedMemory();
+    }
+
+    /**
+     * Appends the statistics to the given buffer, one per line in the form
+     * <code>&lt;name&gt;.&lt;statistic&gt; &lt;value&gt;</code>
+     *
+     * @param text the buffer - NOT NULL
+     *
+     * @return text
+     */
+    public StringBuilder print(final StringBuilder text) {
+        line(text, "sessions", getSessions());
+        line(text, "max_sessions", getMaxSessions());
+        line(text, "lifetime", getLifetime());
+        line(text, "created", getCreated());
+        line(text, "expired", getExpired());
+        line(text, "evicted", getEvicted());
+        line(text, "purges", getPurges());
+        line(text, "last_purge_micros", getLastPurgeMicros());
+        line(text, "estimated_memory", getEstimatedMemory());
+
+        return text;
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void line(final StringBuilder text, final String statistic, final long value) {
+        text.append(name).append('.').append(statistic).append(' ').append(value).append('\n');
+    }
+}
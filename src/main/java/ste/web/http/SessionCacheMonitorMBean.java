@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+/**
+ * The statistics of a session cache exposed via JMX; counters are totals since
+ * the cache was created, so that rates can be computed by the monitoring tool.
+ */
+public interface SessionCacheMonitorMBean {
+    /**
+     * @return the name of the service using the cache (e.g. ssl or web)
+     */
+    public String getName();
+
+    /**
+     * @return the number of sessions in the cache
+     */
+    public int getSessions();
+
+    /**
+     * @return the maximum number of sessions; 0 means no limit
+     */
+    public int getMaxSessions();
+
+    /**
+     * @return the session lifetime in milliseconds; 0 means forever
+     */
+    public long getLifetime();
+
+    /**
+     * @return how many sessions have been created
+     */
+    public long getCreated();
+
+    /**
+     * @return how many sessions have expired
+     */
+    public long getExpired();
+
+    /**
+     * @return how many sessions have been evicted
+     */
+    public long getEvicted();
+
+    /**
+     * @return how many times the cache has been scanned for expired sessions
+     */
+    public long getPurges();
+
+    /**
+     * @return how long (in microseconds) the last scan took
+     */
+    public long getLastPurgeMicros();
+
+    /**
+     * @return the estimated memory (in bytes) taken by the sessions; -1 if
+     *         the sessions can not be measured
+     */
+    public long getEstimatedMemory();
+}
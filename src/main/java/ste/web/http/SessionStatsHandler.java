@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.io.IOException;
+import java.util.Map;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+
+/**
+ * Returns the statistics of the session caches of a server as plain text,
+ * one statistic per line (see SessionCacheMonitor.print()), e.g.:
+ *
+ * <pre>
+ * ssl.sessions 1204
+ * ssl.created 98112
+ * ...
+ * web.sessions 12
+ * ...
+ * </pre>
+ *
+ * If the services share the session cache, its statistics are printed once
+ * with prefix shared.
+ *
+ * It is registered by HttpServer at the uri given by ste.https.session.stats,
+ * on the ssl listener only.
+ */
+public class SessionStatsHandler implements HttpRequestHandler {
+
+    private final HttpServer server;
+
+    /**
+     * @param server the server - NOT NULL
+     */
+    public SessionStatsHandler(final HttpServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void handle(
+        final HttpRequest request,
+        final HttpResponse response,
+        final HttpContext context
+    ) throws HttpException, IOException {
+        StringBuilder text = new StringBuilder(1024);
+        for (Map.Entry<String, HttpSessionService> e: server.getSessionServices().entrySet()) {
+            new SessionCacheMonitor(e.getKey(), e.getValue()).print(text);
+        }
+
+        response.setStatusCode(HttpStatus.SC_OK);
+        response.setEntity(new StringEntity(text.toString(), ContentType.TEXT_PLAIN));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.util.Set;
+
+/**
+ * Where SessionCache keeps the sessions. The cache keeps track of the sessions
+ * in use and of when they were last accessed, so that it can expire and evict
+ * them; the store keeps the sessions themselves.
+ *
+ * Stores may keep the live session objects (e.g. MemorySessionStore) or only
+ * their attributes (e.g. OffHeapSessionStore); in the latter case the sessions
+ * are StoredHttpSession and each load() returns a new object.
+ *
+ * Implementations must be thread safe.
+ */
+public interface SessionStore {
+    /**
+     * @param id the session id - NOT NULL
+     *
+     * @return the session with the given id or null if not in the store
+     */
+    public HttpSession load(String id);
+
+    /**
+     * Adds or updates the given session
+     *
+     * @param session the session - NOT NULL
+     */
+    public void save(HttpSession session);
+
+    /**
+     * Removes the session with the given id
+     *
+     * @param id the session id - NOT NULL
+     *
+     * @return the removed session (the live object or a copy re-created from
+     *         the stored data) so that the caller can expire it; null if there
+     *         was no session with the given id or the store is shared
+     */
+    public HttpSession delete(String id);
+
+    /**
+     * Tells the store when the session with the given id was last accessed;
+     * stores that outlive the process keep it, so that the session can still
+     * expire after a restart
+     *
+     * @param id the session id - NOT NULL
+     * @param timestamp the last access time in milliseconds
+     */
+    public void touch(String id, long timestamp);
+
+    /**
+     * @param id the session id - NOT NULL
+     *
+     * @return when the session with the given id was last accessed, as told
+     *         by touch() (possibly before a restart); 0 if not known
+     */
+    public long lastAccess(String id);
+
+    /**
+     * @return the number of sessions in the store
+     */
+    public int size();
+
+    /**
+     * @return the ids of the sessions in the store; the set is a view that
+     *         reflects later changes
+     */
+    public Set<String> ids();
+
+    /**
+     * @return true if the store is shared with other nodes; the cache then
+     *         only forgets the sessions it expires or evicts and leaves their
+     *         expiration to the store
+     */
+    public boolean isShared();
+
+    /**
+     * Releases all resources held by the store
+     */
+    public void close();
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * A session that can be stored outside the heap: it keeps track of its
+ * attributes so that they can be serialized and of whether they have been
+ * changed since the session was loaded. Attribute values must be serializable;
+ * note that only setAttribute() and removeAttribute() make a session dirty,
+ * therefore an attribute value changed in place must be set again to be saved.
+ */
+class StoredHttpSession extends HttpSession {
+
+    private final String id;
+    private final ConcurrentHashMap<String, Object> attributes;
+    private volatile boolean dirty;
+
+    /**
+     * Creates a new session
+     *
+     * @param sessionIdName the name of the session id cookie - NOT NULL
+     */
+    StoredHttpSession(final String sessionIdName) {
+        super(sessionIdName);
+        this.id = null;
+        this.attributes = new ConcurrentHashMap<>();
+        this.dirty = true;
+    }
+
+    /**
+     * Re-creates a stored session; the id generated by HttpSession is not
+     * used.
+     *
+     * @param sessionIdName the name of the session id cookie - NOT NULL
+     * @param id the id of the stored session - NOT NULL
+     * @param attributes the attributes of the stored session - NOT NULL
+     */
+    StoredHttpSession(
+        final String sessionIdName,
+        final String id,
+        final Map<String, Object> attributes
+    ) {
+        super(sessionIdName);
+        this.id = id;
+        this.attributes = new ConcurrentHashMap<>();
+        for (Map.Entry<String, Object> a: attributes.entrySet()) {
+            setAttribute(a.getKey(), a.getValue());
+        }
+        this.dirty = false;
+    }
+
+    @Override
+    public String getId() {
+        return (id == null) ? super.getId() : id;
+    }
+
+    /**
+     * @return the session cookie as built by HttpSession, with the id returned
+     *         by getId()
+     */
+    @Override
+    public Header getHeader() {
+        Header h = super.getHeader();
+        if (id == null) {
+            return h;
+        }
+        return new BasicHeader(h.getName(), h.getValue().replace(super.getId(), id));
+    }
+
+    @Override
+    public void setAttribute(final String name, final Object value) {
+        super.setAttribute(name, value);
+        if (value == null) {
+            attributes.remove(name);
+        } else {
+            attributes.put(name, value);
+        }
+        dirty = true;
+    }
+
+    @Override
+    public Object removeAttribute(final String name) {
+        Object value = super.removeAttribute(name);
+        attributes.remove(name);
+        dirty = true;
+
+        return value;
+    }
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+    void clean() {
+        dirty = false;
+    }
+
+    /**
+     * @return the serialized attributes
+     *
+     * @throws IllegalStateException if an attribute is not serializable
+     */
+    byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new HashMap<>(attributes));
+        } catch (IOException x) {
+            throw new IllegalStateException(
+                "unable to store session " + getId() + "; are all attributes serializable? (" + x.getMessage() + ")", x
+            );
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Re-creates a stored session from its serialized attributes
+     *
+     * @throws IllegalStateException if the attributes can not be read
+     */
+    @SuppressWarnings("unchecked")
+    static StoredHttpSession fromBytes(
+        final String sessionIdName,
+        final String id,
+        final byte[] bytes
+    ) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return new StoredHttpSession(
+                sessionIdName, id, (Map<String, Object>)in.readObject()
+            );
+        } catch (IOException | ClassNotFoundException x) {
+            throw new IllegalStateException(
+                "unable to load session " + id + " (" + x.getMessage() + ")", x
+            );
+        }
+    }
+}
@@ -16,13 +16,15 @@
 package ste.web.security;
 
 import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.InvalidParameterException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
 import java.util.Calendar;
 import java.util.Date;
 import org.apache.commons.lang.StringUtils;
@@ -41,7 +43,12 @@ import sun.security.x509.X509CertInfo;
  * @author ste
  */
 public class CertificateBuilder {
-    private final String SIGNING_ALGHORITM = "SHA512withRSA";
+    public static final String RSA = "RSA";
+    public static final String EC  = "EC";
+    
+    public static final int DEFAULT_RSA_SIZE = 2048;
+    public static final int DEFAULT_EC_SIZE  = 256;
+    
     private final String dn;
     private final long validFrom, validTo;
     
@@ -75,16 +82,45 @@ public class CertificateBuilder {
         return keys;
     }
     
+    /**
+     * Generates a DEFAULT_RSA_SIZE bits RSA key pair
+     */
     public CertificateBuilder generateKeyPair() {
+        return generateKeyPair(RSA, DEFAULT_RSA_SIZE);
+    }
+    
+    /**
+     * Generates a key pair of the given algorithm and size: RSA keys of at 
+     * least 2048 bits or EC keys on the NIST curves P-256, P-384 and P-521 
+     * (size 256, 384 or 521). Signing with an EC P-256 key is much cheaper 
+     * than with an RSA key of equivalent strength (3072 bits), which makes 
+     * TLS handshakes cheaper for the server.
+     * 
+     * @param algorithm RSA or EC - NOT NULL
+     * @param size the key size in bits
+     * 
+     * @throws IllegalArgumentException if algorithm or size are not valid
+     */
+    public CertificateBuilder generateKeyPair(final String algorithm, final int size) {
         try {
-            KeyPairGenerator keyGenerator = KeyPairGenerator.getInstance("RSA");
-            keyGenerator.initialize(1024, SecureRandom.getInstance("SHA1PRNG", "SUN"));
+            KeyPairGenerator keyGenerator = null;
+            if (RSA.equalsIgnoreCase(algorithm) && (size >= 2048)) {
+                keyGenerator = KeyPairGenerator.getInstance(RSA);
+                keyGenerator.initialize(size, new SecureRandom());
+            } else if (EC.equalsIgnoreCase(algorithm) && ((size == 256) || (size == 384) || (size == 521))) {
+                keyGenerator = KeyPairGenerator.getInstance(EC);
+                keyGenerator.initialize(new ECGenParameterSpec("secp" + size + "r1"), new SecureRandom());
+            } else {
+                throw new IllegalArgumentException(String.format(
+                    "invalid key %s %d; please specify RSA with size >= 2048 or EC with size 256, 384 or 521",
+                    algorithm, size
+                ));
+            }
             keys = keyGenerator.generateKeyPair();
-        } catch (NoSuchAlgorithmException | NoSuchProviderException x) {
-            //
-            // it is supposed these parameters are correct for any jdk
-            // TODO: turn this into a runtime exception
-            //
+        } catch (GeneralSecurityException | InvalidParameterException x) {
+            throw new IllegalArgumentException(String.format(
+                "unable to generate a %s %d key pair (%s)", algorithm, size, x.getMessage()
+            ), x);
         }
         
         return this;
@@ -96,6 +132,7 @@ public class CertificateBuilder {
         }
         
         PrivateKey privkey = keys.getPrivate();
+        String signingAlgorithm = getSigningAlgorithm();
         X509CertInfo info = new X509CertInfo();
         CertificateValidity interval = 
             new CertificateValidity(new Date(validFrom), new Date(validTo));
@@ -115,13 +152,13 @@ public class CertificateBuilder {
 
             // Sign the cert to identify the algorithm that's used.
             X509CertImpl cert = new X509CertImpl(info);
-            cert.sign(privkey, SIGNING_ALGHORITM);
+            cert.sign(privkey, signingAlgorithm);
 
             // Update the algorith, and resign.
             algo = (AlgorithmId) cert.get(X509CertImpl.SIG_ALG);
             info.set(CertificateAlgorithmId.NAME + "." + CertificateAlgorithmId.ALGORITHM, algo);
             cert = new X509CertImpl(info);
-            cert.sign(privkey, SIGNING_ALGHORITM);
+            cert.sign(privkey, signingAlgorithm);
             
             return cert;
         } catch (Exception x) {
@@ -134,4 +171,22 @@ public class CertificateBuilder {
         
         return null;
     }
+    
+    // --------------------------------------------------------- private methods
+    
+    /**
+     * @return SHA512withRSA for RSA keys, ECDSA with the hash matching the 
+     *         curve size for EC keys
+     */
+    private String getSigningAlgorithm() {
+        if (keys.getPublic() instanceof ECPublicKey) {
+            int size = ((ECPublicKey)keys.getPublic()).getParams().getCurve().getField().getFieldSize();
+            return (size <= 256) ? "SHA256withECDSA" 
+                 : (size <= 384) ? "SHA384withECDSA" 
+                 : "SHA512withECDSA"
+                 ;
+        }
+        
+        return "SHA512withRSA";
+    }
 }
@@ -19,6 +19,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.security.KeyStore;
+import java.security.KeyStoreException;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import joptsimple.OptionException;
@@ -41,12 +42,20 @@ public class KeystoreCLI {
     
     static public final String   OPTION_KEYSTORE = "keystore";
     static public final String   OPTION_PASSWORD = "password";
+    static public final String    OPTION_KEYTYPE = "keytype";
+    static public final String    OPTION_KEYSIZE = "keysize";
+    
+    static public final String   KEYTYPE_RSA  = "rsa";
+    static public final String   KEYTYPE_EC   = "ec";
+    static public final String   KEYTYPE_BOTH = "both";
     
     static private final OptionParser parser = new OptionParser();
     
     static {
         parser.accepts(OPTION_KEYSTORE, "keystore pathname").withRequiredArg().defaultsTo("keystore").describedAs("pathname");
         parser.accepts(OPTION_PASSWORD, "keystore password").withRequiredArg().defaultsTo("").describedAs("string");
+        parser.accepts(OPTION_KEYTYPE, "server keypairs: rsa, ec (P-256) or both (rsa for older clients, ec for the others)").withRequiredArg().defaultsTo(KEYTYPE_BOTH).describedAs("rsa|ec|both");
+        parser.accepts(OPTION_KEYSIZE, "rsa key size").withRequiredArg().ofType(Integer.class).defaultsTo(CertificateBuilder.DEFAULT_RSA_SIZE).describedAs("bits");
     }
 
     // -------------------------------------------------------------------- Main
@@ -80,6 +89,14 @@ public class KeystoreCLI {
                 options = parser.parse(notCommandArgs);
                 
                 File keystoreFile = new File((String)options.valueOf(OPTION_KEYSTORE)).getAbsoluteFile();
+                String keyType = ((String)options.valueOf(OPTION_KEYTYPE)).toLowerCase();
+                int keySize = (Integer)options.valueOf(OPTION_KEYSIZE);
+                
+                if (!KEYTYPE_RSA.equals(keyType) && !KEYTYPE_EC.equals(keyType) && !KEYTYPE_BOTH.equals(keyType)) {
+                    System.out.println("ups! invalid key type " + keyType);
+                    usage();
+                    return;
+                }
                 
                 if (keystoreFile.exists()) {
                     System.out.println("keystore " + keystoreFile.getAbsolutePath() + " already exists");
@@ -91,22 +108,24 @@ public class KeystoreCLI {
                     }
                 }
                 
+                //
+                // generate the keys before touching the keystore, so that an
+                // invalid size does not leave it empty
+                //
+                String password = (String)options.valueOf(OPTION_PASSWORD);
+                KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
+                ks.load(null, null);
+                
+                if (KEYTYPE_EC.equals(keyType)) {
+                    addKeyEntry(ks, HttpServer.CERT_ALIAS, CertificateBuilder.EC, CertificateBuilder.DEFAULT_EC_SIZE, password);
+                } else {
+                    addKeyEntry(ks, HttpServer.CERT_ALIAS, CertificateBuilder.RSA, keySize, password);
+                    if (KEYTYPE_BOTH.equals(keyType)) {
+                        addKeyEntry(ks, HttpServer.CERT_ALIAS_EC, CertificateBuilder.EC, CertificateBuilder.DEFAULT_EC_SIZE, password);
+                    }
+                }
+                
                 try (FileOutputStream os = new FileOutputStream(keystoreFile)) {
-                    KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
-                    ks.load(null, null);
-                    
-                    CertificateBuilder builder = new CertificateBuilder("cn=localhost");
-                    X509Certificate certificate = builder.build();
-                    
-                    String password = (String)options.valueOf(OPTION_PASSWORD);
-                    
-                    ks.setKeyEntry(
-                            HttpServer.CERT_ALIAS,
-                            builder.getKeyPair().getPrivate(),
-                            password.toCharArray(),
-                            new Certificate[]{ certificate }
-                    );
-                    
                     ks.store(os, password.toCharArray());
                     
                     System.out.println(String.format(
@@ -115,7 +134,7 @@ public class KeystoreCLI {
                          ("".equals(options.valueOf(OPTION_PASSWORD))) ? "no password" : ("password " + password)
                     ));
                 }
-            } catch(OptionException x) {
+            } catch(OptionException | IllegalArgumentException x) {
                 System.out.println("ups! " + x.getMessage().toLowerCase());
                 usage();
             }
@@ -127,6 +146,21 @@ public class KeystoreCLI {
     }
 
     // --------------------------------------------------------- private methods
+    
+    private static void addKeyEntry(
+        final KeyStore ks, final String alias, final String algorithm, final int size, final String password
+    ) throws KeyStoreException {
+        CertificateBuilder builder = new CertificateBuilder("cn=localhost");
+        X509Certificate certificate = builder.generateKeyPair(algorithm, size).build();
+
+        ks.setKeyEntry(
+                alias,
+                builder.getKeyPair().getPrivate(),
+                password.toCharArray(),
+                new Certificate[]{ certificate }
+        );
+    }
+    
     public static void usage() {
         System.out.println("usage:\n  " + KeystoreCLI.class.getName() + " commands options\n");
         System.out.println("Command  Description\n-------  -----------\n");
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.function.Supplier;
+import org.apache.http.HttpVersion;
+import org.apache.http.RequestLine;
+import org.apache.http.message.BasicRequestLine;
+
+/**
+ * Measures time and heap allocated per access log line, comparing
+ * String.format() with HttpSessionService.LOG_PATTERN (as formerly done by
+ * HttpSessionService) and AccessLogEncoder. The allocation of the encoder
+ * shall be the resulting String only.
+ *
+ * It is not run as part of the test suite; run it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ste.web.http.AccessLogBenchmark
+ * </pre>
+ */
+public class AccessLogBenchmark {
+
+    private static final int OPS = 2000000;
+
+    private static volatile Object sink;
+
+    public static void main(String... args) throws Exception {
+        final InetAddress remote = InetAddress.getByAddress(new byte[] {10, 0, 12, 115});
+        final RequestLine line = new BasicRequestLine("GET", "/static/css/main.css", HttpVersion.HTTP_1_1);
+        final String sessionId = new HttpSession("HTTPSID").getId();
+
+        final String[] names = { "String.format", "AccessLogEncoder" };
+        final Supplier<?>[] encoders = {
+            () -> String.format(
+                HttpSessionService.LOG_PATTERN,
+                remote.toString().substring(1), sessionId, line.toString(), 200
+            ),
+            () -> AccessLogEncoder.encode(remote, sessionId, line, 200)
+        };
+
+        for (Supplier<?> e: encoders) {
+            run(e); // warm up
+        }
+
+        final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        final long self = Thread.currentThread().getId();
+
+        System.out.println(String.format("%20s %10s %12s", "encoder", "ns/line", "bytes/line"));
+        for (int i=0; i<encoders.length; ++i) {
+            long bytes = threads.getThreadAllocatedBytes(self);
+            long time = System.nanoTime();
+            run(encoders[i]);
+            time = System.nanoTime() - time;
+            bytes = threads.getThreadAllocatedBytes(self) - bytes;
+
+            System.out.println(String.format(
+                "%20s %10d %12d", names[i], time / OPS, bytes / OPS
+            ));
+        }
+        System.out.println(String.format(
+            "%20s %10s %12d", "(line String)", "", sizeOf(AccessLogEncoder.encode(remote, sessionId, line, 200))
+        ));
+    }
+
+    private static void run(final Supplier<?> encoder) {
+        for (int i=0; i<OPS; ++i) {
+            sink = encoder.get();
+        }
+    }
+
+    /**
+     * @return the approximate size of a String with compressed oops (header,
+     *         hash and value fields plus the char array)
+     */
+    private static long sizeOf(final String s) {
+        return 24 + ((16 + 2L*s.length() + 7) & ~7);
+    }
+}
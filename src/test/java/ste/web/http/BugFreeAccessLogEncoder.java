@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.net.InetAddress;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpVersion;
+import org.apache.http.RequestLine;
+import org.apache.http.message.BasicRequestLine;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+import static ste.web.http.HttpSessionService.LOG_PATTERN;
+
+/**
+ *
+ * @author ste
+ */
+public class BugFreeAccessLogEncoder {
+
+    @Test
+    public void same_output_as_log_pattern() throws Exception {
+        final InetAddress[] ADDRESSES = {
+            InetAddress.getByAddress(new byte[] {127, 0, 0, 1}),
+            InetAddress.getByAddress(new byte[] {10, (byte)255, (byte)128, 0}),
+            InetAddress.getByName("::1")
+        };
+        final RequestLine[] LINES = {
+            new BasicRequestLine("GET", "/index.html", HttpVersion.HTTP_1_1),
+            new BasicRequestLine("POST", "/api/v1/users?id=10", HttpVersion.HTTP_1_0)
+        };
+
+        for (InetAddress A: ADDRESSES) {
+            for (RequestLine L: LINES) {
+                for (String S: new String[] {null, "ABCDEF0123"}) {
+                    for (int C: new int[] {200, 404, 503}) {
+                        then(AccessLogEncoder.encode(A, S, L, C)).isEqualTo(String.format(
+                            LOG_PATTERN,
+                            A.toString().substring(1),
+                            (S == null) ? "-" : S,
+                            L.toString(),
+                            C
+                        ));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void json_objects() throws Exception {
+        then(AccessLogEncoder.get().beginObject().endObject().toString()).isEqualTo("{}");
+        then(
+            AccessLogEncoder.get().beginObject()
+                .field("remote", InetAddress.getByAddress(new byte[] {10, 0, 0, 1}))
+                .field("session", (String)null)
+                .field("uri", "/a\"b\\c\td\u0001")
+                .field("protocol", HttpVersion.HTTP_1_0)
+                .field("status", 200)
+                .field("tls", true)
+                .endObject().toString()
+        ).isEqualTo(
+            "{\"remote\":\"10.0.0.1\",\"session\":null,\"uri\":\"/a\\\"b\\\\c\\u0009d\\u0001\","
+          + "\"protocol\":\"HTTP/1.0\",\"status\":200,\"tls\":true}"
+        );
+    }
+    
+    @Test
+    public void append_numbers() throws Exception {
+        for (long N: new long[] {0, 7, 10, 99, 1234567890123L, -1, -45, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            then(AccessLogEncoder.get().append(N).toString()).isEqualTo(String.valueOf(N));
+        }
+    }
+
+    @Test
+    public void buffer_grows_and_is_reused() throws Exception {
+        final String LONG = StringUtils.repeat("0123456789", 100);
+
+        AccessLogEncoder e = AccessLogEncoder.get().append(LONG).append('-').append(LONG);
+        then(e.toString()).isEqualTo(LONG + "-" + LONG);
+        then(e.length()).isEqualTo(2001);
+
+        then(AccessLogEncoder.get()).isSameAs(e);
+        then(AccessLogEncoder.get().length()).isZero();
+        then(AccessLogEncoder.get().append("short").toString()).isEqualTo("short");
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import static org.assertj.core.api.Assertions.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+import ste.xtest.reflect.PrivateAccess;
+import ste.xtest.time.FixedClock;
+
+/**
+ *
+ * @author ste
+ */
+public class BugFreeAccessLogFilter {
+
+    private static final String[] NONE = new String[0];
+
+    @Test
+    public void log_one_every_sample() throws Exception {
+        AccessLogFilter f = new AccessLogFilter(3, NONE, 0);
+
+        int logged = 0;
+        for (int i=0; i<30; ++i) {
+            if (f.accept(200)) {
+                ++logged;
+            }
+        }
+        then(logged).isEqualTo(10);
+        then(f.getSampledOut()).isEqualTo(20);
+        then(f.getRateLimited()).isZero();
+        then(f.getSuppressed()).isEqualTo(20);
+
+        f = new AccessLogFilter(1, NONE, 0);
+        for (int i=0; i<10; ++i) {
+            then(f.accept(200)).isTrue();
+        }
+        then(f.getSuppressed()).isZero();
+    }
+
+    @Test
+    public void sampling_is_not_per_thread() throws Exception {
+        final AccessLogFilter F = new AccessLogFilter(3, NONE, 0);
+        final AtomicInteger LOGGED = new AtomicInteger();
+
+        //
+        // e.g. virtual threads, each serving a single request
+        //
+        for (int i=0; i<300; ++i) {
+            Thread t = new Thread(() -> {
+                if (F.accept(200)) {
+                    LOGGED.incrementAndGet();
+                }
+            });
+            t.start(); t.join();
+        }
+
+        //
+        // each counter may hold up to sample-1 requests not logged yet
+        //
+        final int COUNTERS = ((AtomicLongArray)PrivateAccess.getInstanceValue(F, "counters")).length();
+        then(LOGGED.get()).isBetween((300 - 2*COUNTERS)/3, 100);
+        then(F.getSampledOut()).isEqualTo(300 - LOGGED.get());
+    }
+
+    @Test
+    public void always_log_given_statuses() throws Exception {
+        AccessLogFilter f = new AccessLogFilter(1000, new String[] {"5xx", " 404 "}, 0);
+
+        for (int status: new int[] {500, 503, 599, 404, 404}) {
+            then(f.accept(status)).isTrue();
+        }
+        for (int status: new int[] {200, 302, 401, 403}) {
+            then(f.accept(status)).isFalse();
+        }
+        then(f.getSampledOut()).isEqualTo(4);
+    }
+
+    @Test
+    public void rate_limit() throws Exception {
+        final FixedClock CLOCK = new FixedClock();
+        AccessLogFilter f = new AccessLogFilter(1, NONE, 10);
+        PrivateAccess.setInstanceValue(f, "clock", CLOCK);
+
+        //
+        // a burst of up to rate lines...
+        //
+        for (int i=0; i<10; ++i) {
+            then(f.accept(200)).isTrue();
+        }
+        then(f.accept(200)).isFalse();
+        then(f.accept(500)).isFalse();  // the limit applies to all lines
+        then(f.getRateLimited()).isEqualTo(2);
+
+        //
+        // ... then one line every 1/rate seconds
+        //
+        CLOCK.millis += 50;
+        then(f.accept(200)).isFalse();
+        CLOCK.millis += 50;
+        then(f.accept(200)).isTrue();
+        then(f.accept(200)).isFalse();
+
+        //
+        // the bucket fills up again
+        //
+        CLOCK.millis += 5000;
+        for (int i=0; i<10; ++i) {
+            then(f.accept(200)).isTrue();
+        }
+        then(f.accept(200)).isFalse();
+        then(f.getRateLimited()).isEqualTo(5);
+        then(f.getSampledOut()).isZero();
+    }
+
+    @Test
+    public void invalid_values() throws Exception {
+        for (String S: new String[] {"6xx", "5x", "abc", "1000", "099"}) {
+            try {
+                new AccessLogFilter(2, new String[] {S}, 0);
+                fail("missing check for " + S);
+            } catch (IllegalArgumentException x) {
+                then(x).hasMessage("invalid status " + S);
+            }
+        }
+        try {
+            new AccessLogFilter(0, NONE, 0);
+            fail("missing check for sample");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("sample must be greater than 0");
+        }
+        try {
+            new AccessLogFilter(1, NONE, -1);
+            fail("missing check for rate");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("rate must be greater or equal to 0");
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ste.xtest.logging.ListLogHandler;
+
+/**
+ *
+ * @author ste
+ */
+public class BugFreeAsyncAccessLog {
+
+    private static final Logger LOG = Logger.getLogger("ste.https.access.test");
+
+    private AsyncAccessLog log = null;
+
+    @Before
+    public void before() {
+        for (Handler h: LOG.getHandlers()) {
+            LOG.removeHandler(h);
+        }
+        LOG.setUseParentHandlers(false);
+        LOG.setLevel(Level.INFO);
+    }
+
+    @After
+    public void after() {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    @Test
+    public void records_are_published_in_order_by_the_writer() throws Exception {
+        final ListLogHandler h = new ListLogHandler();
+        LOG.addHandler(h);
+
+        log = new AsyncAccessLog(LOG, AsyncAccessLog.Policy.BLOCK, 16);
+
+        //
+        // not started yet: synchronous
+        //
+        log.log(record("zero"));
+        then(h.getMessages()).containsExactly("zero");
+
+        log.start();
+        final List<String> expected = new ArrayList<>();
+        expected.add("zero");
+        for (int i=0; i<100; ++i) {
+            log.log(record(String.valueOf(i)));
+            expected.add(String.valueOf(i));
+        }
+        log.flush();
+        then(h.getMessages()).containsExactlyElementsOf(expected);
+        then(log.getPending()).isZero();
+        then(log.getDropped()).isZero();
+    }
+
+    @Test
+    public void drop_records_when_full() throws Exception {
+        final BlockingHandler h = new BlockingHandler();
+        LOG.addHandler(h);
+
+        log = new AsyncAccessLog(LOG, AsyncAccessLog.Policy.DROP, 3);  // 4 slots
+        log.start();
+
+        log.log(record("first")); h.entered.await();  // the writer is now stuck
+
+        for (int i=0; i<10; ++i) {
+            log.log(record(String.valueOf(i)));
+        }
+        then(log.getPending()).isEqualTo(4);
+        then(log.getDropped()).isEqualTo(6);
+
+        h.release.countDown(); log.flush();
+        then(h.messages).containsExactly("first", "0", "1", "2", "3");
+    }
+
+    @Test
+    public void block_when_full() throws Exception {
+        final BlockingHandler h = new BlockingHandler();
+        LOG.addHandler(h);
+
+        log = new AsyncAccessLog(LOG, AsyncAccessLog.Policy.BLOCK, 2);
+        log.start();
+
+        log.log(record("first")); h.entered.await();
+
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i=0; i<5; ++i) {
+                    log.log(record(String.valueOf(i)));
+                }
+            }
+        };
+        producer.start(); producer.join(250);
+        then(producer.isAlive()).isTrue();
+        then(log.getPending()).isEqualTo(2);
+
+        h.release.countDown(); producer.join(1000);
+        then(producer.isAlive()).isFalse();
+
+        log.flush();
+        then(h.messages).containsExactly("first", "0", "1", "2", "3", "4");
+        then(log.getDropped()).isZero();
+    }
+
+    @Test
+    public void close_publishes_pending_records() throws Exception {
+        final BlockingHandler h = new BlockingHandler();
+        LOG.addHandler(h);
+
+        log = new AsyncAccessLog(LOG, AsyncAccessLog.Policy.DROP, 8);
+        log.start();
+        log.log(record("first")); h.entered.await();
+        log.log(record("second")); log.log(record("third"));
+
+        h.release.countDown(); log.close();
+        then(h.messages).containsExactly("first", "second", "third");
+
+        //
+        // after close records are published synchronously
+        //
+        log.log(record("fourth"));
+        then(h.messages).endsWith("fourth");
+    }
+
+    @Test
+    public void close_leaves_pending_records_to_a_busy_writer() throws Exception {
+        final BlockingHandler h = new BlockingHandler();
+        LOG.addHandler(h);
+
+        log = new AsyncAccessLog(LOG, AsyncAccessLog.Policy.DROP, 8);
+        log.start();
+        log.log(record("first")); h.entered.await();
+        log.log(record("second")); log.log(record("third"));
+
+        //
+        // the writer is stuck: close() gives up waiting and does not drain
+        // the buffer behind its back
+        //
+        log.close();
+        then(h.messages).isEmpty();
+        then(log.getPending()).isEqualTo(2);
+
+        h.release.countDown(); log.flush();
+        then(h.messages).containsExactly("first", "second", "third");
+        then(log.getPending()).isZero();
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private LogRecord record(final String message) {
+        return new LogRecord(Level.INFO, message);
+    }
+
+    // --------------------------------------------------------- BlockingHandler
+
+    /**
+     * A handler that keeps publishing the first record until released
+     */
+    private static class BlockingHandler extends Handler {
+        final List<String> messages = new ArrayList<>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public synchronized void publish(LogRecord record) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+            messages.add(record.getMessage());
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import static org.assertj.core.api.Assertions.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Before;
+import org.junit.Test;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_CLUSTER_BACKEND;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_CLUSTER_NEARTIME;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_STORE;
+import ste.xtest.reflect.PrivateAccess;
+import ste.xtest.time.FixedClock;
+
+/**
+ *
+ * @author ste
+ */
+public class BugFreeClusterSessionStore {
+
+    private final ClusterSessionStore.InProcessBackend BACKEND
+        = new ClusterSessionStore.InProcessBackend();
+
+    @Before
+    public void before() {
+        BACKEND.clear();
+    }
+
+    @Test
+    public void sessions_are_shared_by_name() throws Exception {
+        ClusterSessionStore node1 = new ClusterSessionStore(BACKEND, "web", "HTTPSID", 60000, 1000);
+        ClusterSessionStore node2 = new ClusterSessionStore(BACKEND, "web", "HTTPSID", 60000, 1000);
+        ClusterSessionStore other = new ClusterSessionStore(BACKEND, "ssl", "HTTPSID", 60000, 1000);
+
+        StoredHttpSession s = new StoredHttpSession("HTTPSID");
+        s.setAttribute("one", "1");
+        node1.save(s);
+        then(s.isDirty()).isFalse();
+        then(node1.load(s.getId())).isSameAs(s);
+
+        HttpSession s2 = node2.load(s.getId());
+        then(s2).isNotSameAs(s);
+        then(s2.getAttribute("one")).isEqualTo("1");
+        then(other.load(s.getId())).isNull();
+
+        node2.delete(s.getId());
+        then(node1.load(s.getId())).isSameAs(s);  // still in the near-cache
+        then(node2.load(s.getId())).isNull();
+    }
+
+    @Test
+    public void near_cache_expires() throws Exception {
+        final FixedClock CLOCK = new FixedClock();
+
+        ClusterSessionStore node1 = new ClusterSessionStore(BACKEND, "web", "HTTPSID", 60000, 100);
+        ClusterSessionStore node2 = new ClusterSessionStore(BACKEND, "web", "HTTPSID", 60000, 100);
+        PrivateAccess.setInstanceValue(node1, "clock", CLOCK);
+        PrivateAccess.setInstanceValue(node2, "clock", CLOCK);
+
+        StoredHttpSession s = new StoredHttpSession("HTTPSID");
+        node1.save(s);
+
+        HttpSession s2 = node2.load(s.getId());
+        s2.setAttribute("one", "uno"); node2.save(s2);
+
+        CLOCK.millis += 50;
+        then(node1.load(s.getId()).getAttribute("one")).isNull();
+
+        CLOCK.millis += 50;
+        then(node1.load(s.getId()).getAttribute("one")).isEqualTo("uno");
+        then(node1.ids()).containsExactly(s.getId());
+
+        //
+        // a save sweeps stale entries
+        //
+        CLOCK.millis += 100;
+        node1.save(new StoredHttpSession("HTTPSID"));
+        then(node1.ids()).doesNotContain(s.getId());
+    }
+
+    @Test
+    public void backend_expires_unused_sessions() throws Exception {
+        final FixedClock CLOCK = new FixedClock();
+        PrivateAccess.setInstanceValue(BACKEND, "clock", CLOCK);
+
+        BACKEND.put("one", new byte[] {1}, 100);
+        BACKEND.put("two", new byte[] {2}, 0);
+
+        CLOCK.millis += 60;
+        then(BACKEND.get("one", 100)).containsExactly(1);
+        CLOCK.millis += 60;
+        then(BACKEND.get("one", 100)).containsExactly(1);
+        CLOCK.millis += 101;
+        then(BACKEND.get("one", 100)).isNull();
+        then(BACKEND.get("two", 0)).containsExactly(2);
+    }
+
+    @Test
+    public void any_node_serves_any_session() throws Exception {
+        final PropertiesConfiguration C = new PropertiesConfiguration();
+        C.setProperty(CONFIG_HTTPS_SESSION_STORE, "cluster");
+
+        final ConfigurationSessionFactory F = new ConfigurationSessionFactory(C);
+        SessionCache node1 = new SessionCache(F, "web"), node2 = new SessionCache(F, "web");
+
+        HttpSession s = node1.get(null);
+        s.setAttribute("user", "ste"); node1.release(s);
+
+        HttpSession s2 = node2.get(s.getId());
+        then(s2.getId()).isEqualTo(s.getId());
+        then(s2.getAttribute("user")).isEqualTo("ste");
+        then(node2).containsKey(s.getId());
+
+        //
+        // a node forgets expired or evicted sessions, but other nodes keep them
+        //
+        Object entry = ((Map)PrivateAccess.getInstanceValue(node1, "sessions")).get(s.getId());
+        Method m = SessionCache.class.getDeclaredMethod("expireSession", String.class, entry.getClass());
+        m.setAccessible(true); m.invoke(node1, s.getId(), entry);
+        then(node1).doesNotContainKey(s.getId());
+        then(node2.get(s.getId()).getId()).isEqualTo(s.getId());
+        then(node1.get(s.getId()).getId()).isEqualTo(s.getId());
+
+        //
+        // removing a session removes it from all nodes
+        //
+        node2.remove(s.getId());
+        then(node2.get(s.getId()).getId()).isNotEqualTo(s.getId());
+    }
+
+    @Test
+    public void cluster_configuration() throws Exception {
+        final PropertiesConfiguration C = new PropertiesConfiguration();
+        C.setProperty(CONFIG_HTTPS_SESSION_STORE, "cluster");
+
+        ConfigurationSessionFactory f = new ConfigurationSessionFactory(C);
+        then(f.getStore()).isEqualTo(ConfigurationSessionFactory.Store.CLUSTER);
+        then(f.getNeartime()).isEqualTo(ConfigurationSessionFactory.DEFAULT_NEARTIME);
+        then(f.create()).isInstanceOf(StoredHttpSession.class);
+        then(f.createStore("web")).isInstanceOf(ClusterSessionStore.class);
+
+        C.setProperty(CONFIG_HTTPS_SESSION_CLUSTER_NEARTIME, "0");
+        then(new ConfigurationSessionFactory(C).getNeartime()).isZero();
+
+        for (String N: new String[] {"nan", "-1"}) {
+            C.setProperty(CONFIG_HTTPS_SESSION_CLUSTER_NEARTIME, N);
+            try {
+                new ConfigurationSessionFactory(C);
+                fail("missing check for values validity (" + N + ")");
+            } catch (ConfigurationException x) {
+                then(x).hasMessageContaining(CONFIG_HTTPS_SESSION_CLUSTER_NEARTIME + " must be a number greater or equal to zero");
+            }
+        }
+        C.clearProperty(CONFIG_HTTPS_SESSION_CLUSTER_NEARTIME);
+
+        for (String B: new String[] {"none.Backend", "java.lang.String"}) {
+            C.setProperty(CONFIG_HTTPS_SESSION_CLUSTER_BACKEND, B);
+            try {
+                new ConfigurationSessionFactory(C);
+                fail("missing check for values validity (" + B + ")");
+            } catch (ConfigurationException x) {
+                then(x).hasMessageContaining("the session backend <" + B + "> is invalid")
+                       .hasMessageContaining(CONFIG_HTTPS_SESSION_CLUSTER_BACKEND);
+            }
+        }
+    }
+}
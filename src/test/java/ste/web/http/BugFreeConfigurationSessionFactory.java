@@ -20,13 +20,27 @@ import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import static org.assertj.core.api.Assertions.fail;
 import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import static ste.web.http.BaseBugFreeHttpServer.SSL_PASSWORD;
+import static ste.web.http.ConfigurationSessionFactory.DEFAULT_FLUSHTIME;
+import static ste.web.http.ConfigurationSessionFactory.DEFAULT_GRANULARITY;
 import static ste.web.http.ConfigurationSessionFactory.DEFAULT_LIFETIME;
+import static ste.web.http.ConfigurationSessionFactory.DEFAULT_MAX_SESSIONS;
+import static ste.web.http.ConfigurationSessionFactory.DEFAULT_PURGETIME;
 import static ste.web.http.ConfigurationSessionFactory.REGEX_VALID_NAME;
 import static ste.web.http.Constants.CONFIG_HTTPS_ROOT;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_FLUSHTIME;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_GRANULARITY;
 import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_ID_NAME;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_LAZY;
 import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_LIFETIME;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_MAX;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_PERSIST;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_SHARED;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_STORE;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_PURGETIME;
 import static ste.web.http.Constants.CONFIG_HTTPS_WEB_PORT;
 import static ste.web.http.Constants.CONFIG_SSL_PASSWORD;
 import static ste.web.http.Constants.CONFIG_HTTPS_SSL_PORT;
@@ -37,6 +51,9 @@ import static ste.web.http.Constants.CONFIG_HTTPS_SSL_PORT;
  */
 public class BugFreeConfigurationSessionFactory {
     
+    @Rule
+    public final TemporaryFolder TESTDIR = new TemporaryFolder();
+    
     @Test
     public void constructor() throws Exception {
         try {
@@ -53,6 +70,16 @@ public class BugFreeConfigurationSessionFactory {
             = new ConfigurationSessionFactory(new PropertiesConfiguration());
         
         then(F.getLifetime()).isEqualTo(DEFAULT_LIFETIME);
+        then(F.getPurgetime()).isEqualTo(DEFAULT_PURGETIME);
+        then(F.getGranularity()).isEqualTo(DEFAULT_GRANULARITY);
+        then(F.getMaxSessions()).isEqualTo(DEFAULT_MAX_SESSIONS).isZero();  // no limit
+        then(F.isLazy()).isFalse();
+        then(F.isPersist()).isFalse();
+        then(F.isSharedCache()).isFalse();
+        then(F.getFlushtime()).isEqualTo(DEFAULT_FLUSHTIME);
+        then(F.getStore()).isEqualTo(ConfigurationSessionFactory.Store.MEMORY);
+        then(F.createStore()).isInstanceOf(MemorySessionStore.class);
+        then(F.create()).isNotInstanceOf(StoredHttpSession.class);
         then(F.getSessionIdName()).isEqualTo(SessionHeader.DEFAULT_SESSION_HEADER);
     }
     
@@ -85,6 +112,191 @@ public class BugFreeConfigurationSessionFactory {
         }
     }
     
+    @Test
+    public void purgetime_values_ok() throws Exception {
+        final PropertiesConfiguration C = new PropertiesConfiguration();
+        
+        for (long P: new long[] {1, 100, 60000}) {
+            C.setProperty(CONFIG_HTTPS_SESSION_PURGETIME, P);
+            then(new ConfigurationSessionFactory(C).getPurgetime()).isEqualTo(P);
+        }
+    }
+    
+    @Test
+    public void purgetime_values_ko() throws Exception {
+        final PropertiesConfiguration C = new PropertiesConfiguration();
+        
+        for (String P: new String[] {"nan", "0", "-10"}) {
+            C.setProperty(CONFIG_HTTPS_SESSION_PURGETIME, P);
+            try {
+                new ConfigurationSessionFactory(C);
+                fail("missing check for values validity (" + P + ")");
+            } catch (ConfigurationException x) {
+                then(x).hasMessageContaining(CONFIG_HTTPS_SESSION_PURGETIME + " must be a positive number");
+            }
+        }
+    }
+    
+    @Test
+    public void granularity_values() throws Exception {
+        final PropertiesConfiguration C = new PropertiesConfiguration();
+        
+        for (long G: new long[] {0, 1, 60000}) {
+            C.setProperty(CONFIG_HTTPS_SESSION_GRANULARITY, G);
+            then(new ConfigurationSessionFactory(C).getGranularity()).isEqualTo(G);
+        }
+        
+        for (String G: new String[] {"nan", "-1"}) {
+            C.setProperty(CONFIG_HTTPS_SESSION_GRANULARITY, G);
+            try {
+                new ConfigurationSessionFactory(C);
+                fail("missing check for values validity (" + G + ")");
+            } catch (ConfigurationException x) {
+                then(x).hasMessageContaining(CONFIG_HTTPS_SESSION_GRANULARITY + " must be a number greater or equal to zero");
+            }
+        }
+    }
+    
+    @Test
+    public void max_sessions_values_ok() throws Exception {
+        final PropertiesConfiguration C = new PropertiesConfiguration();
+        
+        for (int M: new int[] {0, 1, 1000}) {
+            C.setProperty(CONFIG_HTTPS_SESSION_MAX, M);
+            then(new ConfigurationSessionFactory(C).getMaxSessions()).isEqualTo(M);
+        }
+    }
+    
+    @Test
+    public void max_sessions_values_ko() throws Exception {
+        final PropertiesConfiguration C = new PropertiesConfiguration();
+        
+        for (String M: new String[] {"nan", "-1"}) {
+            C.setProperty(CONFIG_HTTPS_SESSION_MAX, M);
+            try {
+                new ConfigurationSessionFactory(C);
+                fail("missing check for values validity (" + M + ")");
+            } catch (ConfigurationException x) {
+                then(x).hasMessageContaining(CONFIG_HTTPS_SESSION_MAX + " must be a number greater or equal to zero");
+            }
+        }
+    }
+    
+    @Test
+    public void lazy_values() throws Exception {
+        final PropertiesConfiguration C = new PropertiesConfiguration();
+        
+        C.setProperty(CONFIG_HTTPS_SESSION_LAZY, "true");
+        then(new ConfigurationSessionFactory(C).isLazy()).isTrue();
+        C.setProperty(CONFIG_HTTPS_SESSION_LAZY, "false");
+        then(new ConfigurationSessionFactory(C).isLazy()).isFalse();
+        
+        C.setProperty(CONFIG_HTTPS_SESSION_LAZY, "maybe");
+        try {
+            new ConfigurationSessionFactory(C);
+            fail("missing check for values validity");
+        } catch (ConfigurationException x) {
+            then(x).hasMessageContaining(CONFIG_HTTPS_SESSION_LAZY + " must be true or false");
+        }
+    }
+    
+    @Test
+    public void store_values() throws Exception {
+        final PropertiesConfiguration C = new PropertiesConfiguration();
+        
+        for (String S: new String[] {"offheap", "OFFHEAP", " OffHeap "}) {
+            C.setProperty(CONFIG_HTTPS_SESSION_STORE, S);
+            ConfigurationSessionFactory f = new ConfigurationSessionFactory(C);
+            then(f.getStore()).isEqualTo(ConfigurationSessionFactory.Store.OFFHEAP);
+            then(f.createStore()).isInstanceOf(OffHeapSessionStore.class);
+            then(f.create()).isInstanceOf(StoredHttpSession.class);
+        }
+        C.setProperty(CONFIG_HTTPS_SESSION_STORE, "memory");
+        then(new ConfigurationSessionFactory(C).getStore()).isEqualTo(ConfigurationSessionFactory.Store.MEMORY);
+        
+        for (String S: new String[] {"", "disk", "heap"}) {
+            C.setProperty(CONFIG_HTTPS_SESSION_STORE, S);
+            try {
+                new ConfigurationSessionFactory(C);
+                fail("missing check for values validity (" + S + ")");
+            } catch (ConfigurationException x) {
+                then(x).hasMessageContaining("the session store <" + S + "> is invalid")
+                       .hasMessageContaining(CONFIG_HTTPS_SESSION_STORE);
+            }
+        }
+    }
+    
+    @Test
+    public void persist_values() throws Exception {
+        final PropertiesConfiguration C = new PropertiesConfiguration();
+        
+        C.setProperty(CONFIG_HTTPS_SESSION_PERSIST, "true");
+        try {
+            new ConfigurationSessionFactory(C);
+            fail("missing check for root");
+        } catch (ConfigurationException x) {
+            then(x).hasMessageContaining(CONFIG_HTTPS_ROOT + " must be set when " + CONFIG_HTTPS_SESSION_PERSIST + " is true");
+        }
+        
+        C.setProperty(CONFIG_HTTPS_ROOT, TESTDIR.getRoot().getAbsolutePath());
+        for (String S: new String[] {"memory", "offheap"}) {
+            C.setProperty(CONFIG_HTTPS_SESSION_STORE, S);
+            ConfigurationSessionFactory f = new ConfigurationSessionFactory(C);
+            then(f.isPersist()).isTrue();
+            then(f.create()).isInstanceOf(StoredHttpSession.class);
+            SessionStore store = f.createStore("web");
+            then(store).isInstanceOf(PersistentSessionStore.class);
+            store.close();
+            then(TESTDIR.getRoot().toPath().resolve("sessions/web.log")).exists();
+        }
+        
+        C.setProperty(CONFIG_HTTPS_SESSION_PERSIST, "maybe");
+        try {
+            new ConfigurationSessionFactory(C);
+            fail("missing check for values validity");
+        } catch (ConfigurationException x) {
+            then(x).hasMessageContaining(CONFIG_HTTPS_SESSION_PERSIST + " must be true or false");
+        }
+    }
+    
+    @Test
+    public void shared_values() throws Exception {
+        final PropertiesConfiguration C = new PropertiesConfiguration();
+        
+        C.setProperty(CONFIG_HTTPS_SESSION_SHARED, "true");
+        then(new ConfigurationSessionFactory(C).isSharedCache()).isTrue();
+        C.setProperty(CONFIG_HTTPS_SESSION_SHARED, "false");
+        then(new ConfigurationSessionFactory(C).isSharedCache()).isFalse();
+        
+        C.setProperty(CONFIG_HTTPS_SESSION_SHARED, "maybe");
+        try {
+            new ConfigurationSessionFactory(C);
+            fail("missing check for values validity");
+        } catch (ConfigurationException x) {
+            then(x).hasMessageContaining(CONFIG_HTTPS_SESSION_SHARED + " must be true or false");
+        }
+    }
+    
+    @Test
+    public void flushtime_values() throws Exception {
+        final PropertiesConfiguration C = new PropertiesConfiguration();
+        
+        for (long F: new long[] {1, 100, 60000}) {
+            C.setProperty(CONFIG_HTTPS_SESSION_FLUSHTIME, F);
+            then(new ConfigurationSessionFactory(C).getFlushtime()).isEqualTo(F);
+        }
+        
+        for (String F: new String[] {"nan", "0", "-10"}) {
+            C.setProperty(CONFIG_HTTPS_SESSION_FLUSHTIME, F);
+            try {
+                new ConfigurationSessionFactory(C);
+                fail("missing check for values validity (" + F + ")");
+            } catch (ConfigurationException x) {
+                then(x).hasMessageContaining(CONFIG_HTTPS_SESSION_FLUSHTIME + " must be a positive number");
+            }
+        }
+    }
+    
     @Test
     public void session_id_name_value_ok() throws Exception {  
         final PropertiesConfiguration C = new PropertiesConfiguration();
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.http.HttpStatus;
+import static org.assertj.core.api.Assertions.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.After;
+import org.junit.Test;
+import static ste.web.http.Constants.*;
+import ste.xtest.logging.ListLogHandler;
+import ste.xtest.reflect.PrivateAccess;
+
+/**
+ *
+ * @author ste
+ */
+public class BugFreeHttpServerAcceptors extends BaseBugFreeHttpServer {
+
+    private static final Logger LOG = Logger.getLogger(HttpServer.LOG_SERVER);
+
+    @After
+    @Override
+    public void after() throws Exception {
+        super.after();
+        waitServerShutdown();
+    }
+
+    @Test
+    public void default_values() throws Exception {
+        then(server.getAcceptors()).isEqualTo(DEFAULT_ACCEPTORS);
+        then(server.getBacklog()).isEqualTo(DEFAULT_BACKLOG);
+    }
+
+    @Test
+    public void invalid_acceptors() throws Exception {
+        for (String V: new String[] {"0", "-1"}) {
+            configuration.setProperty(CONFIG_HTTPS_ACCEPTORS, V);
+            try {
+                createServer();
+                fail("missing invalid value check for " + V);
+            } catch (ConfigurationException x) {
+                then(x).hasMessageContaining("the acceptors <" + V + "> are invalid")
+                       .hasMessageContaining(CONFIG_HTTPS_ACCEPTORS);
+            }
+        }
+    }
+
+    @Test
+    public void negative_backlog_means_system_default() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_BACKLOG, "-10");
+        createServer();
+        then(server.getBacklog()).isZero();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void start_more_acceptors_per_port() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_ACCEPTORS, "4");
+        configuration.setProperty(CONFIG_HTTPS_BACKLOG, "200");
+        createServer(); server.start(); waitServerStartup();
+
+        then((List<Thread>)PrivateAccess.getInstanceValue(server, "listenerThreads")).hasSize(4);
+        then((List<Thread>)PrivateAccess.getInstanceValue(server, "webListenerThreads")).hasSize(4);
+
+        for (int i=0; i<10; ++i) {
+            URL ssl = new URL("https://localhost:" + PORT + "/index.html");
+            URL web = new URL("http://localhost:" + WEBPORT + "/index.html");
+
+            then(((HttpURLConnection)ssl.openConnection()).getResponseCode()).isEqualTo(HttpStatus.SC_OK);
+            then(((HttpURLConnection)web.openConnection()).getResponseCode()).isEqualTo(HttpStatus.SC_OK);
+        }
+
+        server.stop(); waitServerShutdown();
+        for (Thread t: (List<Thread>)PrivateAccess.getInstanceValue(server, "listenerThreads")) {
+            then(t.isAlive()).isFalse();
+        }
+        for (Thread t: (List<Thread>)PrivateAccess.getInstanceValue(server, "webListenerThreads")) {
+            then(t.isAlive()).isFalse();
+        }
+    }
+
+    @Test
+    public void do_not_share_the_port_with_a_running_server() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_ACCEPTORS, "2");
+        createServer(); server.start(); waitServerStartup();
+
+        //
+        // with SO_REUSEPORT the second server could bind the port and take
+        // part of the connections
+        //
+        HttpServer second = new HttpServer(configuration);
+        second.setHandlers(null);
+        try {
+            second.start();
+            then(PrivateAccess.getInstanceValue(second, "listenerThreads")).isNull();
+            then(PrivateAccess.getInstanceValue(second, "webListenerThreads")).isNull();
+        } finally {
+            second.stop();
+        }
+
+        URL web = new URL("http://localhost:" + WEBPORT + "/index.html");
+        then(((HttpURLConnection)web.openConnection()).getResponseCode()).isEqualTo(HttpStatus.SC_OK);
+    }
+
+    @Test
+    public void log_listener_startup_once_per_acceptor() throws Exception {
+        for (Handler h: LOG.getHandlers()) {
+            LOG.removeHandler(h);
+        }
+        LOG.setLevel(Level.INFO);
+        ListLogHandler h = new ListLogHandler();
+        LOG.addHandler(h);
+
+        configuration.setProperty(CONFIG_HTTPS_ACCEPTORS, "2");
+        createServer(); server.start(); waitServerStartup();
+
+        for (int i=0; i<5; ++i) {
+            URL web = new URL("http://localhost:" + WEBPORT + "/index.html");
+            HttpURLConnection conn = (HttpURLConnection)web.openConnection();
+            conn.setRequestProperty("Connection", "close");
+            then(conn.getResponseCode()).isEqualTo(HttpStatus.SC_OK);
+        }
+
+        int n = 0;
+        for (String m: h.getMessages()) {
+            if (m.equals("starting web listener on port " + WEBPORT)) {
+                ++n;
+            }
+        }
+        then(n).isEqualTo(2);
+
+        LOG.removeHandler(h);
+    }
+}
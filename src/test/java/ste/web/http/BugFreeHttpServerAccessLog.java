@@ -16,16 +16,31 @@
 package ste.web.http;
 
 import java.net.HttpURLConnection;
+import java.net.Socket;
 import java.net.URL;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.DefaultBHttpClientConnection;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.util.EntityUtils;
+import static org.assertj.core.api.Assertions.fail;
 import static org.assertj.core.api.BDDAssertions.then;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import static ste.web.http.Constants.CONFIG_HTTPS_ACCESSLOG;
+import static ste.web.http.Constants.CONFIG_HTTPS_ACCESSLOG_ALWAYS;
+import static ste.web.http.Constants.CONFIG_HTTPS_ACCESSLOG_BUFFER;
+import static ste.web.http.Constants.CONFIG_HTTPS_ACCESSLOG_RATE;
+import static ste.web.http.Constants.CONFIG_HTTPS_ACCESSLOG_SAMPLE;
+import static ste.web.http.Constants.CONFIG_HTTPS_SSL_ACCESSLOG_FORMAT;
+import static ste.web.http.Constants.CONFIG_HTTPS_WEB_ACCESSLOG_FORMAT;
 import static ste.web.http.HttpServer.LOG_ACCESS;
 import ste.xtest.logging.ListLogHandler;
 
@@ -81,6 +96,174 @@ public class BugFreeHttpServerAccessLog extends BaseBugFreeHttpServer {
         then(h.getMessages()).contains("127.0.0.1 - " + sessionId + " \"GET /index2.html HTTP/1.1\" 404");
     }
     
+    @Test
+    public void log_access_asynchronously() throws Exception {
+        then(server.getAccessLog()).isNull();
+        
+        configuration.setProperty(CONFIG_HTTPS_ACCESSLOG, "drop");
+        createServer();
+        then(server.getAccessLog()).isNotNull();
+        
+        final ListLogHandler h = new ListLogHandler();
+        LOG.addHandler(h);
+        LOG.setLevel(Level.INFO);
+        
+        server.start(); waitServerStartup();
+        
+        URL url = new URL("https://localhost:" + PORT + "/index.html");
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        String sessionId = HttpUtils.extractSessionId(conn.getHeaderField("Set-Cookie"));
+        
+        server.getAccessLog().flush();
+        then(h.getMessages()).contains("127.0.0.1 - " + sessionId + " \"GET /index.html HTTP/1.1\" 200");
+        then(h.getRecords().get(0).getLoggerName()).isEqualTo(LOG_ACCESS);
+    }
+    
+    @Test
+    public void log_access_in_json_per_listener() throws Exception {
+        then(server.getAccessLogFormat("ssl")).isEqualTo(AccessLogEncoder.Format.COMMON);
+        then(server.getAccessLogFormat("web")).isEqualTo(AccessLogEncoder.Format.COMMON);
+        
+        configuration.setProperty(CONFIG_HTTPS_WEB_ACCESSLOG_FORMAT, "json");
+        createServer();
+        then(server.getAccessLogFormat("ssl")).isEqualTo(AccessLogEncoder.Format.COMMON);
+        then(server.getAccessLogFormat("web")).isEqualTo(AccessLogEncoder.Format.JSON);
+        
+        final ListLogHandler h = new ListLogHandler();
+        LOG.addHandler(h);
+        LOG.setLevel(Level.INFO);
+        
+        server.start(); waitServerStartup();
+        
+        //
+        // two requests on the same connection
+        //
+        DefaultBHttpClientConnection conn = new DefaultBHttpClientConnection(8*1024);
+        try {
+            conn.bind(new Socket("localhost", Integer.parseInt(WEBPORT)));
+            for (int i=0; i<2; ++i) {
+                BasicHttpRequest request = new BasicHttpRequest("GET", "/index.html", HttpVersion.HTTP_1_1);
+                request.setHeader(HTTP.TARGET_HOST, "localhost");
+                conn.sendRequestHeader(request); conn.flush();
+                HttpResponse response = conn.receiveResponseHeader();
+                conn.receiveResponseEntity(response);
+                EntityUtils.consume(response.getEntity());
+            }
+        } finally {
+            conn.close();
+        }
+        
+        then(h.getMessages()).hasSize(2);
+        for (int i=0; i<2; ++i) {
+            then(h.getMessages().get(i))
+                .startsWith("{\"remote\":\"127.0.0.1\",\"session\":\"")
+                .contains(",\"method\":\"GET\",\"uri\":\"/index.html\",\"protocol\":\"HTTP/1.1\",\"status\":200,")
+                .contains(",\"nanos\":")
+                .endsWith(",\"tls\":false,\"reuse\":" + i + "}");
+        }
+        
+        URL url = new URL("https://localhost:" + PORT + "/index.html");
+        HttpURLConnection c = (HttpURLConnection)url.openConnection();
+        String sessionId = HttpUtils.extractSessionId(c.getHeaderField("Set-Cookie"));
+        then(h.getMessages()).contains("127.0.0.1 - " + sessionId + " \"GET /index.html HTTP/1.1\" 200");
+    }
+    
+    @Test
+    public void access_log_filter() throws Exception {
+        then(server.getAccessLogFilter()).isNull();
+        
+        configuration.setProperty(CONFIG_HTTPS_ACCESSLOG_SAMPLE, "10");
+        createServer();
+        AccessLogFilter f = server.getAccessLogFilter();
+        then(f).isNotNull();
+        then(f.accept(500)).isTrue();  // 5xx always logged by default
+        then(f.accept(200)).isFalse();
+        
+        configuration.setProperty(CONFIG_HTTPS_ACCESSLOG_SAMPLE, "1");
+        configuration.setProperty(CONFIG_HTTPS_ACCESSLOG_RATE, "100");
+        configuration.setProperty(CONFIG_HTTPS_ACCESSLOG_ALWAYS, "404, 5xx");
+        createServer();
+        then(server.getAccessLogFilter()).isNotNull();
+        
+        final ListLogHandler h = new ListLogHandler();
+        LOG.addHandler(h);
+        LOG.setLevel(Level.INFO);
+        
+        server.start(); waitServerStartup();
+        
+        URL url = new URL("http://localhost:" + WEBPORT + "/index.html");
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        then(conn.getResponseCode()).isEqualTo(200);
+        then(h.getMessages()).hasSize(1);
+        then(server.getAccessLogFilter().getSuppressed()).isZero();
+    }
+    
+    @Test
+    public void invalid_access_log_values() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_ACCESSLOG, "none");
+        try {
+            createServer();
+            fail("missing check for values validity");
+        } catch (ConfigurationException x) {
+            then(x).hasMessageContaining("the access log <none> is invalid")
+                   .hasMessageContaining(CONFIG_HTTPS_ACCESSLOG);
+        }
+        configuration.clearProperty(CONFIG_HTTPS_ACCESSLOG);
+        
+        configuration.setProperty(CONFIG_HTTPS_SSL_ACCESSLOG_FORMAT, "xml");
+        try {
+            createServer();
+            fail("missing check for values validity");
+        } catch (ConfigurationException x) {
+            then(x).hasMessageContaining("the ssl access log format <xml> is invalid")
+                   .hasMessageContaining(CONFIG_HTTPS_SSL_ACCESSLOG_FORMAT);
+        }
+        configuration.clearProperty(CONFIG_HTTPS_SSL_ACCESSLOG_FORMAT);
+        
+        configuration.setProperty(CONFIG_HTTPS_ACCESSLOG_SAMPLE, "0");
+        try {
+            createServer();
+            fail("missing check for values validity");
+        } catch (ConfigurationException x) {
+            then(x).hasMessageContaining("the access log sample <0> is invalid")
+                   .hasMessageContaining(CONFIG_HTTPS_ACCESSLOG_SAMPLE);
+        }
+        configuration.setProperty(CONFIG_HTTPS_ACCESSLOG_SAMPLE, "2");
+        
+        configuration.setProperty(CONFIG_HTTPS_ACCESSLOG_RATE, "-1");
+        try {
+            createServer();
+            fail("missing check for values validity");
+        } catch (ConfigurationException x) {
+            then(x).hasMessageContaining("the access log rate <-1> is invalid")
+                   .hasMessageContaining(CONFIG_HTTPS_ACCESSLOG_RATE);
+        }
+        configuration.clearProperty(CONFIG_HTTPS_ACCESSLOG_RATE);
+        
+        configuration.setProperty(CONFIG_HTTPS_ACCESSLOG_ALWAYS, "5xx, 6xx");
+        try {
+            createServer();
+            fail("missing check for values validity");
+        } catch (ConfigurationException x) {
+            then(x).hasMessageContaining("the access log statuses <5xx,6xx> are invalid (invalid status 6xx)")
+                   .hasMessageContaining(CONFIG_HTTPS_ACCESSLOG_ALWAYS);
+        }
+        configuration.clearProperty(CONFIG_HTTPS_ACCESSLOG_ALWAYS);
+        configuration.clearProperty(CONFIG_HTTPS_ACCESSLOG_SAMPLE);
+        
+        configuration.setProperty(CONFIG_HTTPS_ACCESSLOG, "block");
+        for (String V: new String[] {"0", "-1"}) {
+            configuration.setProperty(CONFIG_HTTPS_ACCESSLOG_BUFFER, V);
+            try {
+                createServer();
+                fail("missing check for values validity (" + V + ")");
+            } catch (ConfigurationException x) {
+                then(x).hasMessageContaining("the access log buffer <" + V + "> is invalid")
+                       .hasMessageContaining(CONFIG_HTTPS_ACCESSLOG_BUFFER);
+            }
+        }
+    }
+    
     // --------------------------------------------------------- private methods
     
 }
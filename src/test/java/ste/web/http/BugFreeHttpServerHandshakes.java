@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.net.SocketException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import org.apache.commons.configuration.ConfigurationException;
+import static org.assertj.core.api.Assertions.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+import static ste.web.http.Constants.*;
+import ste.xtest.reflect.PrivateAccess;
+
+/**
+ *
+ * @author ste
+ */
+public class BugFreeHttpServerHandshakes extends BaseBugFreeHttpServer {
+
+    private static final String JDK_SESSION_TICKETS = "jdk.tls.server.enableSessionTicketExtension";
+
+    @Rule
+    public final RestoreSystemProperties RESTORE_SYSTEM_PROPERTIES = new RestoreSystemProperties();
+
+    @Test
+    public void default_values() throws Exception {
+        SSLSessionContext sessions = sslContext().getServerSessionContext();
+        then(sessions.getSessionCacheSize()).isEqualTo(DEFAULT_SSL_SESSION_CACHE);
+        then(sessions.getSessionTimeout()).isEqualTo(DEFAULT_SSL_SESSION_TIMEOUT);
+        then(server.getHandshakeMonitor().getSessionCacheSize()).isEqualTo(DEFAULT_SSL_SESSION_CACHE);
+        then(server.getHandshakeMonitor().getFullHandshakes()).isZero();
+        then(server.getHandshakeMonitor().getResumedHandshakes()).isZero();
+        then(server.getHandshakeMonitor().getFailedHandshakes()).isZero();
+        then(server.getHandshakeMonitor().getHandshakeDurations()).containsOnly(0L);
+        then(server.getHandshakeTimeout()).isEqualTo(DEFAULT_SSL_HANDSHAKE_TIMEOUT);
+    }
+
+    @Test
+    public void configure_handshake_timeout() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_SSL_HANDSHAKE_TIMEOUT, "500");
+        createServer();
+        then(server.getHandshakeTimeout()).isEqualTo(500);
+
+        configuration.setProperty(CONFIG_HTTPS_SSL_HANDSHAKE_TIMEOUT, "0");
+        createServer();
+        then(server.getHandshakeTimeout()).isZero();
+
+        configuration.setProperty(CONFIG_HTTPS_SSL_HANDSHAKE_TIMEOUT, "-1");
+        try {
+            createServer();
+            fail("missing invalid value check for handshake timeout");
+        } catch (ConfigurationException x) {
+            then(x).hasMessage(
+                "the ssl handshake timeout -1 is invalid; please specify a value >= 0 for the property " + CONFIG_HTTPS_SSL_HANDSHAKE_TIMEOUT
+            );
+        }
+    }
+
+    @Test
+    public void handshake_durations_histogram() throws Exception {
+        HandshakeMonitor monitor = server.getHandshakeMonitor();
+        then(monitor.getHandshakeDurationBounds()).isEqualTo(HandshakeMonitor.DURATION_BOUNDS);
+
+        monitor.handshakeDone(500000L, true);      // 0.5 ms
+        monitor.handshakeDone(1000000L, true);     // 1 ms
+        monitor.handshakeDone(15000000L, true);    // 15 ms
+        monitor.handshakeDone(60000000000L, false); // 1 minute
+
+        long[] durations = monitor.getHandshakeDurations();
+        then(durations).hasSize(HandshakeMonitor.DURATION_BOUNDS.length + 1);
+        then(durations[0]).isEqualTo(2);
+        then(durations[4]).isEqualTo(1);  // <= 20 ms
+        then(durations[durations.length-1]).isEqualTo(1);
+        then(monitor.getFailedHandshakes()).isEqualTo(1);
+    }
+
+    @Test
+    public void slow_clients_do_not_block_other_connections() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_SSL_HANDSHAKE_TIMEOUT, "1000");
+        createServer();
+        server.start(); waitServerStartup();
+
+        SSLSocketFactory factory = (SSLSocketFactory)SSLSocketFactory.getDefault();
+        try (SSLSocket socket = (SSLSocket)factory.createSocket("localhost", Integer.parseInt(PORT))) {
+            socket.startHandshake();  // warm up
+        }
+
+        //
+        // deadlines have their own thread, not shared with session purges
+        //
+        boolean timer = false;
+        for (Thread t: Thread.getAllStackTraces().keySet()) {
+            timer |= "https-handshake-timer".equals(t.getName());
+        }
+        then(timer).isTrue();
+
+        //
+        // a client that never starts the handshake and one that sends it a
+        // byte at a time, each byte within the socket timeout
+        //
+        try (
+            Socket silent = new Socket("localhost", Integer.parseInt(PORT));
+            Socket trickling = new Socket("localhost", Integer.parseInt(PORT))
+        ) {
+            final long start = System.currentTimeMillis();
+
+            try (SSLSocket socket = (SSLSocket)factory.createSocket("localhost", Integer.parseInt(PORT))) {
+                socket.startHandshake();
+            }
+            then(System.currentTimeMillis() - start).isLessThan(1000);
+
+            final byte[] HELLO = { 0x16, 0x03, 0x01, 0x00, (byte)0xff, 0x01, 0x00, 0x00, (byte)0xfb, 0x03, 0x03 };
+            try {
+                for (int i=0; i<3; ++i) {
+                    for (byte b: HELLO) {
+                        trickling.getOutputStream().write(b);
+                        trickling.getOutputStream().flush();
+                        Thread.sleep(100);
+                    }
+                }
+            } catch (IOException x) {
+                //
+                // closed by the server
+                //
+            }
+
+            //
+            // the server may send an alert before closing the connection
+            //
+            while (silent.getInputStream().read() >= 0);
+            while (trickling.getInputStream().read() >= 0);
+            then(System.currentTimeMillis() - start).isLessThan(3000);
+        } catch (SocketException x) {
+            //
+            // connection reset: closed by the server
+            //
+        }
+
+        HandshakeMonitor monitor = server.getHandshakeMonitor();
+        for (int i=0; (i<50) && (monitor.getFailedHandshakes() < 2); ++i) {
+            Thread.sleep(20);
+        }
+        then(monitor.getFailedHandshakes()).isEqualTo(2);
+        long total = 0;
+        for (long n: monitor.getHandshakeDurations()) {
+            total += n;
+        }
+        then(total).isEqualTo(4);
+    }
+
+    @Test
+    public void returning_clients_resume_the_session_with_tls12() throws Exception {
+        returningClientsResumeTheSession("TLSv1.2");
+    }
+
+    @Test
+    public void returning_clients_resume_the_session_with_tls13() throws Exception {
+        //
+        // TLS 1.3 resumes with a pre-shared key, giving the connection a copy
+        // of the cached session
+        //
+        returningClientsResumeTheSession("TLSv1.3");
+    }
+
+    @Test
+    public void returning_clients_resume_the_session_with_nio() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_LISTENER, "nio");
+        createServer();
+
+        returningClientsResumeTheSession("TLSv1.2");
+
+        createServer();
+        returningClientsResumeTheSession("TLSv1.3");
+    }
+
+    @Test
+    public void configure_session_tickets() throws Exception {
+        System.clearProperty(JDK_SESSION_TICKETS);
+        configuration.setProperty(CONFIG_HTTPS_SSL_SESSION_TICKETS, "true");
+        createServer();
+        then(System.getProperty(JDK_SESSION_TICKETS)).isEqualTo("true");
+
+        //
+        // a value given on the command line wins
+        //
+        System.setProperty(JDK_SESSION_TICKETS, "false");
+        createServer();
+        then(System.getProperty(JDK_SESSION_TICKETS)).isEqualTo("false");
+
+        configuration.setProperty(CONFIG_HTTPS_SSL_SESSION_TICKETS, "maybe");
+        try {
+            createServer();
+            fail("missing invalid value check for session tickets");
+        } catch (ConfigurationException x) {
+            then(x).hasMessage(
+                "the ssl session tickets <maybe> is invalid; please specify true or false for the property " + CONFIG_HTTPS_SSL_SESSION_TICKETS
+            );
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void returningClientsResumeTheSession(final String protocol) throws Exception {
+        server.start(); waitServerStartup();
+
+        //
+        // a new client context, whose session cache is not shared with other
+        // tests
+        //
+        SSLContext client = SSLContext.getInstance("TLS");
+        client.init(null, null, null);
+        SSLSocketFactory factory = client.getSocketFactory();
+        for (int i=0; i<3; ++i) {
+            try (SSLSocket socket = (SSLSocket)factory.createSocket("localhost", Integer.parseInt(PORT))) {
+                socket.setEnabledProtocols(new String[] { protocol });
+                socket.startHandshake();
+                then(socket.getSession().getProtocol()).isEqualTo(protocol);
+                socket.getOutputStream().write(
+                    "GET /index.html HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes()
+                );
+                socket.getOutputStream().flush();
+                while (socket.getInputStream().read() >= 0);
+            }
+        }
+
+        //
+        // nio listeners count the handshake on the reactor thread
+        //
+        HandshakeMonitor monitor = server.getHandshakeMonitor();
+        for (int i=0; (i<50) && (monitor.getFullHandshakes() + monitor.getResumedHandshakes() < 3); ++i) {
+            Thread.sleep(20);
+        }
+        then(monitor.getFullHandshakes()).isEqualTo(1);
+        then(monitor.getResumedHandshakes()).isEqualTo(2);
+
+        final MBeanServer MBS = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName NAME = new ObjectName("ste.web.http:type=Handshakes,port=" + PORT);
+        then(MBS.getAttribute(NAME, "ResumedHandshakes")).isEqualTo(2L);
+
+        server.stop(); waitServerShutdown();
+        then(MBS.isRegistered(NAME)).isFalse();
+    }
+
+    private SSLContext sslContext() throws Exception {
+        return (SSLContext)PrivateAccess.getInstanceValue(server, "sslContext");
+    }
+}
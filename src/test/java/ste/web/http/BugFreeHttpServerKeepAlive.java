@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.net.Socket;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.impl.DefaultBHttpClientConnection;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
+import static org.assertj.core.api.Assertions.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.After;
+import org.junit.Test;
+import static ste.web.http.Constants.*;
+
+/**
+ *
+ * @author ste
+ */
+public class BugFreeHttpServerKeepAlive extends BaseBugFreeHttpServer {
+
+    private DefaultBHttpClientConnection conn = null;
+
+    @After
+    @Override
+    public void after() throws Exception {
+        if (conn != null) {
+            conn.close();
+        }
+        super.after();
+    }
+
+    @Test
+    public void default_values() throws Exception {
+        then(server.getKeepAliveMax()).isEqualTo(DEFAULT_KEEPALIVE_MAX);
+        then(server.getKeepAliveTimeout()).isEqualTo(DEFAULT_KEEPALIVE_TIMEOUT);
+    }
+
+    @Test
+    public void invalid_values() throws Exception {
+        for (String KEY: new String[] {CONFIG_HTTPS_KEEPALIVE_MAX, CONFIG_HTTPS_KEEPALIVE_TIMEOUT}) {
+            createDefaultConfiguration();
+            configuration.setProperty(KEY, "nan");
+            try {
+                createServer();
+                fail("missing invalid value check for " + KEY);
+            } catch (ConfigurationException x) {
+                then(x).hasMessageContaining("the value <nan> is invalid")
+                       .hasMessageContaining(KEY);
+            }
+        }
+    }
+
+    @Test
+    public void serve_more_requests_on_the_same_connection() throws Exception {
+        server.start(); waitServerStartup();
+
+        connect();
+        for (int i=0; i<5; ++i) {
+            HttpResponse response = get("/index.html");
+            then(response.getStatusLine().getStatusCode()).isEqualTo(200);
+            then(response.getFirstHeader(HTTP.CONN_DIRECTIVE)).isNull();
+        }
+    }
+
+    @Test
+    public void close_connection_after_max_requests() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_KEEPALIVE_MAX, "2");
+        createServer(); server.start(); waitServerStartup();
+
+        connect();
+        HttpResponse response = get("/index.html");
+        then(response.getFirstHeader(HTTP.CONN_DIRECTIVE)).isNull();
+
+        response = get("/index.html");
+        then(response.getFirstHeader(HTTP.CONN_DIRECTIVE).getValue())
+            .isEqualToIgnoringCase(HTTP.CONN_CLOSE);
+
+        waitConnectionClosed();
+    }
+
+    @Test
+    public void close_connection_after_max_requests_with_nio() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_LISTENER, "nio");
+        configuration.setProperty(CONFIG_HTTPS_KEEPALIVE_MAX, "3");
+        createServer(); server.start(); waitServerStartup();
+
+        connect();
+        for (int i=0; i<2; ++i) {
+            HttpResponse response = get("/index.html");
+            then(response.getStatusLine().getStatusCode()).isEqualTo(200);
+            then(response.getFirstHeader(HTTP.CONN_DIRECTIVE)).isNull();
+        }
+
+        HttpResponse response = get("/index.html");
+        then(response.getFirstHeader(HTTP.CONN_DIRECTIVE).getValue())
+            .isEqualToIgnoringCase(HTTP.CONN_CLOSE);
+
+        waitConnectionClosed();
+    }
+
+    @Test
+    public void close_connection_when_idle() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_KEEPALIVE_TIMEOUT, "100");
+        createServer(); server.start(); waitServerStartup();
+
+        connect();
+        then(get("/index.html").getStatusLine().getStatusCode()).isEqualTo(200);
+
+        waitConnectionClosed();
+    }
+
+    @Test
+    public void close_connection_if_requested_by_the_client() throws Exception {
+        server.start(); waitServerStartup();
+
+        connect();
+        BasicHttpRequest request = new BasicHttpRequest("GET", "/index.html", HttpVersion.HTTP_1_1);
+        request.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
+        then(send(request).getFirstHeader(HTTP.CONN_DIRECTIVE).getValue())
+            .isEqualToIgnoringCase(HTTP.CONN_CLOSE);
+
+        waitConnectionClosed();
+    }
+
+    @Test
+    public void close_connections_on_stop() throws Exception {
+        server.start(); waitServerStartup();
+
+        connect();
+        then(get("/index.html").getStatusLine().getStatusCode()).isEqualTo(200);
+
+        server.stop(); waitServerShutdown();
+
+        waitConnectionClosed();
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void connect() throws Exception {
+        conn = new DefaultBHttpClientConnection(8*1024);
+        conn.bind(new Socket("localhost", Integer.parseInt(WEBPORT)));
+    }
+
+    private HttpResponse get(final String uri) throws Exception {
+        return send(new BasicHttpRequest("GET", uri, HttpVersion.HTTP_1_1));
+    }
+
+    private HttpResponse send(final BasicHttpRequest request) throws Exception {
+        request.setHeader(HTTP.TARGET_HOST, "localhost");
+        conn.sendRequestHeader(request);
+        conn.flush();
+
+        HttpResponse response = conn.receiveResponseHeader();
+        conn.receiveResponseEntity(response);
+        EntityUtils.consume(response.getEntity());
+
+        return response;
+    }
+
+    private void waitConnectionClosed() throws Exception {
+        //
+        // isStale() tries to read from the socket: it returns true when the
+        // other end closed the connection
+        //
+        int i = 50;
+        while ((--i > 0) && !conn.isStale()) {
+            Thread.sleep(20);
+        }
+        then(conn.isStale()).isTrue();
+    }
+}
@@ -58,8 +58,8 @@ public class BugFreeHttpServerListeners extends BaseBugFreeHttpServer {
         
         createServer(); server.start(); waitServerStartup();
         
-        then(PrivateAccess.getInstanceValue(server, "listenerThread")).isNull();
-        then(PrivateAccess.getInstanceValue(server, "webListenerThread")).isNotNull();
+        then(PrivateAccess.getInstanceValue(server, "listenerThreads")).isNull();
+        then(PrivateAccess.getInstanceValue(server, "webListenerThreads")).isNotNull();
         
         server.stop(); waitServerShutdown();
         
@@ -67,8 +67,8 @@ public class BugFreeHttpServerListeners extends BaseBugFreeHttpServer {
         
         createServer(); server.start(); waitServerStartup();
         
-        then(PrivateAccess.getInstanceValue(server, "listenerThread")).isNull();
-        then(PrivateAccess.getInstanceValue(server, "webListenerThread")).isNotNull();
+        then(PrivateAccess.getInstanceValue(server, "listenerThreads")).isNull();
+        then(PrivateAccess.getInstanceValue(server, "webListenerThreads")).isNotNull();
         
         server.stop(); waitServerShutdown();
     }
@@ -81,8 +81,8 @@ public class BugFreeHttpServerListeners extends BaseBugFreeHttpServer {
         
         createServer(); server.start(); waitServerStartup();
         
-        then(PrivateAccess.getInstanceValue(server, "webListenerThread")).isNull();
-        then(PrivateAccess.getInstanceValue(server, "listenerThread")).isNotNull();
+        then(PrivateAccess.getInstanceValue(server, "webListenerThreads")).isNull();
+        then(PrivateAccess.getInstanceValue(server, "listenerThreads")).isNotNull();
         
         server.stop(); waitServerShutdown();
         
@@ -90,8 +90,8 @@ public class BugFreeHttpServerListeners extends BaseBugFreeHttpServer {
         
         createServer(); server.start(); waitServerStartup();
         
-        then(PrivateAccess.getInstanceValue(server, "webListenerThread")).isNull();
-        then(PrivateAccess.getInstanceValue(server, "listenerThread")).isNotNull();
+        then(PrivateAccess.getInstanceValue(server, "webListenerThreads")).isNull();
+        then(PrivateAccess.getInstanceValue(server, "listenerThreads")).isNotNull();
         
         server.stop(); waitServerShutdown();
     }
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.net.Socket;
+import java.util.List;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -83,8 +84,8 @@ public class BugFreeHttpServerLog extends BaseBugFreeHttpServer {
     
         server.start(); waitServerStartup();
 
-        HttpServer.RequestListenerThread listener = 
-            (HttpServer.RequestListenerThread)PrivateAccess.getInstanceValue(server, "listenerThread");
+        HttpServer.RequestListenerThread listener = (HttpServer.RequestListenerThread)
+            ((List)PrivateAccess.getInstanceValue(server, "listenerThreads")).get(0);
 
         listener.interrupt();
 
@@ -98,8 +99,8 @@ public class BugFreeHttpServerLog extends BaseBugFreeHttpServer {
         
         server.start(); waitServerStartup();
 
-        HttpServer.RequestListenerThread listener = 
-            (HttpServer.RequestListenerThread)PrivateAccess.getInstanceValue(server, "webListenerThread");
+        HttpServer.RequestListenerThread listener = (HttpServer.RequestListenerThread)
+            ((List)PrivateAccess.getInstanceValue(server, "webListenerThreads")).get(0);
 
         listener.interrupt();
 
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.impl.DefaultBHttpClientConnection;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.apache.http.util.EntityUtils;
+import static org.assertj.core.api.Assertions.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.After;
+import org.junit.Test;
+import static ste.web.http.Constants.*;
+import ste.web.http.handlers.PrintSessionHandler;
+
+/**
+ *
+ * @author ste
+ */
+public class BugFreeHttpServerNio extends BaseBugFreeHttpServer {
+
+    @After
+    @Override
+    public void after() throws Exception {
+        super.after();
+        waitServerShutdown();
+    }
+
+    @Test
+    public void blocking_listener_by_default() throws Exception {
+        then(server.getListener()).isEqualTo(HttpServer.Listener.BLOCKING);
+    }
+
+    @Test
+    public void listener_values() throws Exception {
+        for (String V: new String[] {"nio", "NIO", " Nio "}) {
+            configuration.setProperty(CONFIG_HTTPS_LISTENER, V);
+            createServer();
+            then(server.getListener()).isEqualTo(HttpServer.Listener.NIO);
+        }
+        for (String V: new String[] {"", "async", "1"}) {
+            configuration.setProperty(CONFIG_HTTPS_LISTENER, V);
+            try {
+                createServer();
+                fail("missing invalid value check for '" + V + "'");
+            } catch (ConfigurationException x) {
+                then(x).hasMessageContaining("the listener <" + V + "> is invalid")
+                       .hasMessageContaining(CONFIG_HTTPS_LISTENER);
+            }
+        }
+    }
+
+    @Test
+    public void serve_ssl_and_web_requests() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_LISTENER, "nio");
+        createServer(); server.start(); waitServerStartup();
+
+        URL ssl = new URL("https://localhost:" + PORT + "/index.html");
+        URL web = new URL("http://localhost:" + WEBPORT + "/index.html");
+
+        then(((HttpURLConnection)ssl.openConnection()).getResponseCode()).isEqualTo(HttpStatus.SC_OK);
+        then(((HttpURLConnection)web.openConnection()).getResponseCode()).isEqualTo(HttpStatus.SC_OK);
+
+        web = new URL("http://localhost:" + WEBPORT + "/notexisting.html");
+        then(((HttpURLConnection)web.openConnection()).getResponseCode()).isEqualTo(HttpStatus.SC_NOT_FOUND);
+    }
+
+    @Test
+    public void serve_requests_with_sessions() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_LISTENER, "nio");
+        HashMap<String, HttpRequestHandler> handlers = new HashMap<>();
+        handlers.put("*", new PrintSessionHandler());
+        server = new HttpServer(configuration);
+        server.setHandlers(handlers);
+        server.start(); waitServerStartup();
+
+        URL url = new URL("http://localhost:" + WEBPORT + "/index.html");
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        String sessionId = HttpUtils.extractSessionId(conn.getHeaderField("Set-Cookie"));
+        then(sessionId).isNotNull();
+        then(IOUtils.toString(conn.getInputStream(), "UTF8")).contains("{counter: 1}");
+
+        conn = (HttpURLConnection)url.openConnection();
+        conn.setRequestProperty("Cookie", SessionHeader.DEFAULT_SESSION_HEADER + "=" + sessionId + ";");
+        then(conn.getHeaderField("Set-Cookie")).isNull();
+        then(IOUtils.toString(conn.getInputStream(), "UTF8"))
+            .contains(String.format("{id: %s}", sessionId))
+            .contains("{counter: 2}");
+    }
+
+    @Test
+    public void serve_more_requests_on_the_same_connection() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_LISTENER, "nio");
+        createServer(); server.start(); waitServerStartup();
+
+        DefaultBHttpClientConnection conn = new DefaultBHttpClientConnection(8*1024);
+        conn.bind(new Socket("localhost", Integer.parseInt(WEBPORT)));
+        try {
+            for (int i=0; i<5; ++i) {
+                BasicHttpRequest request = new BasicHttpRequest("GET", "/index.html", HttpVersion.HTTP_1_1);
+                request.setHeader(HTTP.TARGET_HOST, "localhost");
+                conn.sendRequestHeader(request);
+                conn.flush();
+
+                HttpResponse response = conn.receiveResponseHeader();
+                conn.receiveResponseEntity(response);
+                EntityUtils.consume(response.getEntity());
+
+                then(response.getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_OK);
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -29,6 +29,9 @@ import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.Date;
 import java.util.HashMap;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.http.protocol.HttpRequestHandler;
@@ -41,9 +44,11 @@ import org.junit.contrib.java.lang.system.ClearSystemProperties;
 import org.junit.rules.TemporaryFolder;
 import static ste.web.http.Constants.CONFIG_HTTPS_AUTH;
 import static ste.web.http.Constants.CONFIG_HTTPS_ROOT;
+import static ste.web.http.Constants.CONFIG_HTTPS_SSL_KEYSTORE_RELOAD;
 import static ste.web.http.Constants.CONFIG_HTTPS_WEB_PORT;
 import static ste.web.http.Constants.CONFIG_SSL_PASSWORD;
 import ste.web.http.handlers.FileHandler;
+import ste.web.security.CertificateBuilder;
 import sun.security.x509.AlgorithmId;
 import sun.security.x509.CertificateAlgorithmId;
 import sun.security.x509.CertificateSerialNumber;
@@ -164,9 +169,118 @@ public class BugFreeHttpServerSSL {
         }
     }
 
+    @Test
+    public void ec_certificate_for_clients_supporting_ecdsa() throws Exception {
+        final String PASSWORD = String.valueOf(System.currentTimeMillis());
+        
+        KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
+        KeyStore trusted = KeyStore.getInstance(KeyStore.getDefaultType());
+        ks.load(null, null); trusted.load(null, null);
+        for (String[] V: new String[][] {
+            {HttpServer.CERT_ALIAS, CertificateBuilder.RSA, "2048"}, 
+            {HttpServer.CERT_ALIAS_EC, CertificateBuilder.EC, "256"}
+        }) {
+            CertificateBuilder builder = new CertificateBuilder("cn=localhost");
+            X509Certificate certificate = builder.generateKeyPair(V[1], Integer.parseInt(V[2])).build();
+            ks.setKeyEntry(V[0], builder.getKeyPair().getPrivate(), PASSWORD.toCharArray(), new Certificate[] {certificate});
+            trusted.setCertificateEntry(V[0], certificate);
+        }
+        try (FileOutputStream os = new FileOutputStream(new File(root, "conf/keystore"))) {
+            ks.store(os, PASSWORD.toCharArray());
+        }
+        
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trusted);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, tmf.getTrustManagers(), null);
+        
+        HttpServer server = createServer(PASSWORD);
+        try {
+            server.start(); Thread.sleep(250);
+            
+            try (SSLSocket socket = (SSLSocket)context.getSocketFactory().createSocket("localhost", 8440)) {
+                socket.startHandshake();
+                then(socket.getSession().getPeerCertificates()[0].getPublicKey().getAlgorithm()).isEqualTo("EC");
+            }
+            
+            try (SSLSocket socket = (SSLSocket)context.getSocketFactory().createSocket("localhost", 8440)) {
+                socket.setEnabledProtocols(new String[] {"TLSv1.2"});
+                socket.setEnabledCipherSuites(new String[] {"TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256"});
+                socket.startHandshake();
+                then(socket.getSession().getPeerCertificates()[0].getPublicKey().getAlgorithm()).isEqualTo("RSA");
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void reload_keystore_without_restart() throws Exception {
+        final String PASSWORD = String.valueOf(System.currentTimeMillis());
+        final File KEYSTORE = new File(root, "conf/keystore");
+        
+        KeyStore trusted = KeyStore.getInstance(KeyStore.getDefaultType());
+        trusted.load(null, null);
+        X509Certificate A = createKeyStore(PASSWORD, trusted, "a");
+        
+        HttpServer server = createServer(PASSWORD, "0");
+        try {
+            server.start(); Thread.sleep(250);
+            then(serverCertificate(trusted)).isEqualTo(A);
+            then(server.reloadKeystore()).isFalse();  // not changed
+            
+            X509Certificate B = createKeyStore(PASSWORD, trusted, "b");
+            KEYSTORE.setLastModified(KEYSTORE.lastModified() + 2000);
+            then(server.reloadKeystore()).isTrue();
+            then(serverCertificate(trusted)).isEqualTo(B);
+            then(server.reloadKeystore()).isFalse();
+            
+            //
+            // a broken keystore does not replace the current certificates
+            //
+            try (FileOutputStream os = new FileOutputStream(KEYSTORE)) {
+                os.write("not a keystore".getBytes());
+            }
+            KEYSTORE.setLastModified(KEYSTORE.lastModified() + 4000);
+            then(server.reloadKeystore()).isFalse();
+            then(serverCertificate(trusted)).isEqualTo(B);
+        } finally {
+            server.stop();
+        }
+    }
+    
+    @Test
+    public void reload_keystore_periodically() throws Exception {
+        final String PASSWORD = String.valueOf(System.currentTimeMillis());
+        final File KEYSTORE = new File(root, "conf/keystore");
+        
+        KeyStore trusted = KeyStore.getInstance(KeyStore.getDefaultType());
+        trusted.load(null, null);
+        X509Certificate A = createKeyStore(PASSWORD, trusted, "a");
+        
+        HttpServer server = createServer(PASSWORD, "1");
+        try {
+            server.start(); Thread.sleep(250);
+            then(serverCertificate(trusted)).isEqualTo(A);
+            
+            X509Certificate B = createKeyStore(PASSWORD, trusted, "b");
+            KEYSTORE.setLastModified(KEYSTORE.lastModified() + 2000);
+            for (int i=0; (i<30) && !B.equals(serverCertificate(trusted)); ++i) {
+                Thread.sleep(100);
+            }
+            then(serverCertificate(trusted)).isEqualTo(B);
+        } finally {
+            server.stop();
+        }
+    }
+
     // --------------------------------------------------------- private methods
     
     private HttpServer createServer(String password) throws Exception {
+        return createServer(password, null);
+    }
+    
+    private HttpServer createServer(String password, String reload) throws Exception {
         HashMap<String, HttpRequestHandler> handlers = new HashMap<>();
         handlers.put("*", new FileHandler(root.getPath()));
         
@@ -178,6 +292,9 @@ public class BugFreeHttpServerSSL {
         if (password != null) {
             configuration.setProperty(CONFIG_SSL_PASSWORD, password);
         }
+        if (reload != null) {
+            configuration.setProperty(CONFIG_HTTPS_SSL_KEYSTORE_RELOAD, reload);
+        }
 
         HttpServer server = new HttpServer(configuration);
         server.setHandlers(handlers);
@@ -218,6 +335,44 @@ public class BugFreeHttpServerSSL {
         createKeyStore(password, null);
     }
     
+    /**
+     * Creates a keystore with a new RSA server certificate, which is also 
+     * added to trusted with the given alias
+     */
+    private X509Certificate createKeyStore(String password, KeyStore trusted, String alias) 
+    throws Exception {
+        CertificateBuilder builder = new CertificateBuilder("cn=localhost");
+        X509Certificate certificate = builder.generateKeyPair().build();
+        
+        KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
+        ks.load(null, null);
+        ks.setKeyEntry(
+            HttpServer.CERT_ALIAS, builder.getKeyPair().getPrivate(), 
+            password.toCharArray(), new Certificate[] {certificate}
+        );
+        try (FileOutputStream os = new FileOutputStream(new File(root, "conf/keystore"))) {
+            ks.store(os, password.toCharArray());
+        }
+        trusted.setCertificateEntry(alias, certificate);
+        
+        return certificate;
+    }
+    
+    /**
+     * @return the certificate presented by the server to a new client
+     */
+    private Certificate serverCertificate(KeyStore trusted) throws Exception {
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trusted);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, tmf.getTrustManagers(), null);
+        
+        try (SSLSocket socket = (SSLSocket)context.getSocketFactory().createSocket("localhost", 8440)) {
+            socket.startHandshake();
+            return socket.getSession().getPeerCertificates()[0];
+        }
+    }
+    
     private KeyPair createNewKeyPair() throws Exception {
         KeyPairGenerator keyGenerator = KeyPairGenerator.getInstance("DSA");
         keyGenerator.initialize(1024, SecureRandom.getInstance("SHA1PRNG", "SUN"));
@@ -15,9 +15,12 @@
  */
 package ste.web.http;
 
+import java.lang.management.ManagementFactory;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpStatus;
 import org.apache.http.protocol.HttpRequestHandler;
@@ -25,6 +28,10 @@ import static org.assertj.core.api.BDDAssertions.then;
 import org.junit.Test;
 import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_ID_NAME;
 import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_LIFETIME;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_PURGETIME;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_SHARED;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_STATS;
+import static ste.web.http.Constants.CONFIG_HTTPS_WEB_PORT;
 import ste.web.http.handlers.PrintSessionHandler;
 
 /**
@@ -179,6 +186,168 @@ public class BugFreeHttpServerSession extends BaseBugFreeHttpServer {
             .contains("{counter: 1}");
     }
 
+    @Test
+    public void expired_sessions_are_purged_in_background() throws Exception {
+        createDefaultConfiguration();
+        configuration.setProperty(CONFIG_HTTPS_SESSION_LIFETIME, "250");
+        configuration.setProperty(CONFIG_HTTPS_SESSION_PURGETIME, "50");
+        createServer();
+
+        HashMap<String, HttpRequestHandler> handlers = new HashMap<>();
+        handlers.put("*", new PrintSessionHandler());
+        server.setHandlers(handlers);
+
+        server.start(); waitServerStartup();
+
+        URL url = new URL("https://localhost:" + PORT + "/index.html");
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        then(conn.getResponseCode()).isEqualTo(HttpStatus.SC_OK);
+        conn.disconnect();
+
+        then(server.getSSLService().getSessionCache()).hasSize(1);
+
+        //
+        // no requests are needed to purge the cache
+        //
+        Thread.sleep(500);
+        then(server.getSSLService().getSessionCache()).isEmpty();
+    }
+
+    @Test
+    public void session_statistics() throws Exception {
+        createDefaultConfiguration();
+        configuration.setProperty(CONFIG_HTTPS_SESSION_STATS, "/_sessions");
+        createServer();
+
+        HashMap<String, HttpRequestHandler> handlers = new HashMap<>();
+        handlers.put("*", new PrintSessionHandler());
+        server.setHandlers(handlers);
+
+        server.start(); waitServerStartup();
+
+        URL url = new URL("https://localhost:" + PORT + "/index.html");
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        then(conn.getResponseCode()).isEqualTo(HttpStatus.SC_OK);
+        conn.disconnect();
+
+        final MBeanServer MBS = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName SSL = new ObjectName("ste.web.http:type=SessionCache,port=" + PORT + ",name=ssl");
+        then(MBS.getAttribute(SSL, "Sessions")).isEqualTo(1);
+        then(MBS.getAttribute(SSL, "Created")).isEqualTo(1L);
+        then(MBS.getAttribute(SSL, "Expired")).isEqualTo(0L);
+        then(MBS.getAttribute(SSL, "EstimatedMemory")).isEqualTo(-1L);  // plain sessions
+
+        //
+        // the stats request gets a session too
+        //
+        conn = (HttpURLConnection)new URL("https://localhost:" + PORT + "/_sessions").openConnection();
+        then(conn.getResponseCode()).isEqualTo(HttpStatus.SC_OK);
+        then(conn.getContentType()).startsWith("text/plain");
+        then(IOUtils.toString(conn.getInputStream(), "UTF8"))
+            .contains("ssl.sessions 2\n")
+            .contains("ssl.created 2\n")
+            .contains("ssl.expired 0\n");
+        conn.disconnect();
+
+        //
+        // statistics are not served in clear
+        //
+        conn = (HttpURLConnection)new URL("http://localhost:" + WEBPORT + "/_sessions").openConnection();
+        then(IOUtils.toString(conn.getInputStream(), "UTF8")).doesNotContain("ssl.sessions");
+        conn.disconnect();
+
+        server.stop(); waitServerShutdown();
+        then(MBS.isRegistered(SSL)).isFalse();
+    }
+
+    @Test
+    public void shared_session_cache() throws Exception {
+        createDefaultConfiguration();
+        createServer();
+        server.setHandlers(new HashMap<String, HttpRequestHandler>());
+        then(server.getSSLService().getSessionCache())
+            .isNotSameAs(server.getWebService().getSessionCache());
+
+        configuration.setProperty(CONFIG_HTTPS_SESSION_SHARED, "true");
+        createServer();
+
+        HashMap<String, HttpRequestHandler> handlers = new HashMap<>();
+        handlers.put("*", new PrintSessionHandler());
+        server.setHandlers(handlers);
+        then(server.getSSLService().getSessionCache())
+            .isSameAs(server.getWebService().getSessionCache());
+
+        server.start(); waitServerStartup();
+
+        //
+        // a session created on the web port is available on the ssl port
+        //
+        URL url = new URL("http://localhost:" + WEBPORT + "/index.html");
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        then(conn.getResponseCode()).isEqualTo(HttpStatus.SC_OK);
+        String sessionId = HttpUtils.extractSessionId(conn.getHeaderField("Set-Cookie"));
+        conn.disconnect();
+
+        //
+        // the ssl listener takes it over with a cookie of its own
+        //
+        final String SSL_COOKIE = SessionHeader.DEFAULT_SESSION_HEADER + HttpSessionService.SSL_COOKIE_SUFFIX;
+        url = new URL("https://localhost:" + PORT + "/index.html");
+        conn = (HttpURLConnection)url.openConnection();
+        conn.setRequestProperty("Cookie", SessionHeader.DEFAULT_SESSION_HEADER + "=" + sessionId + ";");
+        then(conn.getResponseCode()).isEqualTo(HttpStatus.SC_OK);
+        then(HttpUtils.extractSessionId(SSL_COOKIE, conn.getHeaderField("Set-Cookie"))).isEqualTo(sessionId);
+        then(IOUtils.toString(conn.getInputStream(), "UTF8"))
+            .contains(String.format("{id: %s}", sessionId))
+            .contains("{counter: 2}");
+        conn.disconnect();
+
+        //
+        // once used over ssl, the session is not given to http requests
+        //
+        url = new URL("http://localhost:" + WEBPORT + "/index.html");
+        conn = (HttpURLConnection)url.openConnection();
+        conn.setRequestProperty("Cookie", SessionHeader.DEFAULT_SESSION_HEADER + "=" + sessionId + ";");
+        then(conn.getResponseCode()).isEqualTo(HttpStatus.SC_OK);
+        final String webSessionId = HttpUtils.extractSessionId(conn.getHeaderField("Set-Cookie"));
+        then(webSessionId).isNotEqualTo(sessionId);
+        then(IOUtils.toString(conn.getInputStream(), "UTF8"))
+            .doesNotContain(String.format("{id: %s}", sessionId))
+            .contains("{counter: 1}");
+        conn.disconnect();
+
+        //
+        // ...but back on ssl the client still has its ssl session
+        //
+        url = new URL("https://localhost:" + PORT + "/index.html");
+        conn = (HttpURLConnection)url.openConnection();
+        conn.setRequestProperty(
+            "Cookie", 
+            SessionHeader.DEFAULT_SESSION_HEADER + "=" + webSessionId + "; " + SSL_COOKIE + "=" + sessionId + ";"
+        );
+        then(conn.getResponseCode()).isEqualTo(HttpStatus.SC_OK);
+        then(conn.getHeaderField("Set-Cookie")).isNull();
+        then(IOUtils.toString(conn.getInputStream(), "UTF8"))
+            .contains(String.format("{id: %s}", sessionId))
+            .contains("{counter: 3}");
+        conn.disconnect();
+
+        final MBeanServer MBS = ManagementFactory.getPlatformMBeanServer();
+        then(MBS.isRegistered(new ObjectName("ste.web.http:type=SessionCache,port=" + PORT + ",name=shared"))).isTrue();
+        then(MBS.isRegistered(new ObjectName("ste.web.http:type=SessionCache,port=" + PORT + ",name=ssl"))).isFalse();
+
+        server.stop(); waitServerShutdown();
+
+        //
+        // with a single listener there is nothing to share
+        //
+        configuration.setProperty(CONFIG_HTTPS_WEB_PORT, "0");
+        createServer();
+        server.setHandlers(handlers);
+        then(server.getWebService()).isNull();
+        then(server.getSSLService().getSessionCache()).isNotNull();
+    }
+
     // ------------------------------------------------------- protected methods
 
     protected void createAndStartServer() throws Exception {
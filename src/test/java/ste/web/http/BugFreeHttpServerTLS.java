@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.util.Arrays;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import org.apache.commons.configuration.ConfigurationException;
+import static org.assertj.core.api.Assertions.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+import static ste.web.http.Constants.*;
+
+/**
+ *
+ * @author ste
+ */
+public class BugFreeHttpServerTLS extends BaseBugFreeHttpServer {
+
+    @Test
+    public void default_values() throws Exception {
+        then(server.getSSLProtocols()).contains("TLSv1.2").isSubsetOf(DEFAULT_SSL_PROTOCOLS);
+        then(server.getSSLProtocols()[0]).isEqualTo(
+            Arrays.asList(server.getSSLProtocols()).contains("TLSv1.3") ? "TLSv1.3" : "TLSv1.2"
+        );
+        then(server.getSSLCipherSuites())
+            .contains("TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256")
+            .isSubsetOf(DEFAULT_SSL_CIPHERS);
+    }
+
+    @Test
+    public void configure_protocols_and_ciphers() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_SSL_PROTOCOLS, "TLSv1.2");
+        configuration.setProperty(
+            CONFIG_HTTPS_SSL_CIPHERS,
+            "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384, TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256"
+        );
+        createServer();
+
+        then(server.getSSLProtocols()).containsExactly("TLSv1.2");
+        then(server.getSSLCipherSuites()).containsExactly(
+            "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384", "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256"
+        );
+    }
+
+    @Test
+    public void invalid_values() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_SSL_PROTOCOLS, "TLSv1.2,TLSv9");
+        try {
+            createServer();
+            fail("missing invalid value check for protocols");
+        } catch (ConfigurationException x) {
+            then(x).hasMessageContaining("the ssl protocol TLSv9 is not supported")
+                   .hasMessageContaining(CONFIG_HTTPS_SSL_PROTOCOLS);
+        }
+        configuration.clearProperty(CONFIG_HTTPS_SSL_PROTOCOLS);
+
+        configuration.setProperty(CONFIG_HTTPS_SSL_CIPHERS, "TLS_NONE_WITH_NOTHING");
+        try {
+            createServer();
+            fail("missing invalid value check for ciphers");
+        } catch (ConfigurationException x) {
+            then(x).hasMessageContaining("the ssl cipher suite TLS_NONE_WITH_NOTHING is not supported")
+                   .hasMessageContaining(CONFIG_HTTPS_SSL_CIPHERS);
+        }
+    }
+
+    @Test
+    public void invalid_keystore_reload() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_SSL_KEYSTORE_RELOAD, "-1");
+        try {
+            createServer();
+            fail("missing invalid value check for keystore reload");
+        } catch (ConfigurationException x) {
+            then(x).hasMessage(
+                "the keystore reload interval -1 is invalid; please specify a value >= 0 for the property " + CONFIG_HTTPS_SSL_KEYSTORE_RELOAD
+            );
+        }
+    }
+
+    @Test
+    public void the_server_picks_its_preferred_cipher() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_SSL_PROTOCOLS, "TLSv1.2");
+        configuration.setProperty(
+            CONFIG_HTTPS_SSL_CIPHERS,
+            "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384, TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256"
+        );
+        createServer();
+        server.start(); waitServerStartup();
+
+        SSLSocketFactory factory = (SSLSocketFactory)SSLSocketFactory.getDefault();
+        try (SSLSocket socket = (SSLSocket)factory.createSocket("localhost", Integer.parseInt(PORT))) {
+            //
+            // the client prefers AES-128, but the server order wins
+            //
+            socket.setEnabledCipherSuites(new String[] {
+                "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256", "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384"
+            });
+            socket.startHandshake();
+            then(socket.getSession().getProtocol()).isEqualTo("TLSv1.2");
+            then(socket.getSession().getCipherSuite()).isEqualTo("TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384");
+        }
+
+        try (SSLSocket socket = (SSLSocket)factory.createSocket("localhost", Integer.parseInt(PORT))) {
+            //
+            // no cipher in common
+            //
+            socket.setEnabledCipherSuites(new String[] {"TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA"});
+            socket.startHandshake();
+            fail("the handshake shall fail with no cipher in common");
+        } catch (Exception x) {
+            //
+            // OK
+            //
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.impl.DefaultBHttpClientConnection;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
+import static org.assertj.core.api.Assertions.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.After;
+import org.junit.Test;
+import static ste.web.http.Constants.*;
+import ste.xtest.reflect.PrivateAccess;
+
+/**
+ *
+ * @author ste
+ */
+public class BugFreeHttpServerThreads extends BaseBugFreeHttpServer {
+
+    private final List<DefaultBHttpClientConnection> connections = new ArrayList<>();
+
+    @After
+    @Override
+    public void after() throws Exception {
+        for (DefaultBHttpClientConnection c: connections) {
+            c.close();
+        }
+        super.after();
+    }
+
+    @Test
+    public void default_values() throws Exception {
+        then(server.getThreadsCore()).isEqualTo(DEFAULT_THREADS_CORE);
+        then(server.getThreadsMax()).isEqualTo(DEFAULT_THREADS_MAX);
+        then(server.getThreadsQueue()).isEqualTo(DEFAULT_THREADS_QUEUE);
+    }
+
+    @Test
+    public void invalid_values() throws Exception {
+        final String[][] TEST_VALUES = {
+            {"-1", "10", "10"}, {"10", "0", "10"}, {"10", "5", "10"}, {"10", "10", "-1"}
+        };
+
+        for (String[] V: TEST_VALUES) {
+            configuration.setProperty(CONFIG_HTTPS_THREADS_CORE, V[0]);
+            configuration.setProperty(CONFIG_HTTPS_THREADS_MAX, V[1]);
+            configuration.setProperty(CONFIG_HTTPS_THREADS_QUEUE, V[2]);
+            try {
+                createServer();
+                fail("missing invalid value check for " + V[0] + ", " + V[1] + ", " + V[2]);
+            } catch (ConfigurationException x) {
+                then(x).hasMessageContaining("invalid worker threads configuration")
+                       .hasMessageContaining(CONFIG_HTTPS_THREADS_CORE)
+                       .hasMessageContaining(CONFIG_HTTPS_THREADS_MAX)
+                       .hasMessageContaining(CONFIG_HTTPS_THREADS_QUEUE);
+            }
+        }
+    }
+
+    @Test
+    public void configure_workers() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_THREADS_CORE, "1");
+        configuration.setProperty(CONFIG_HTTPS_THREADS_MAX, "2");
+        configuration.setProperty(CONFIG_HTTPS_THREADS_QUEUE, "3");
+        createServer(); server.start(); waitServerStartup();
+
+        ThreadPoolExecutor workers =
+            (ThreadPoolExecutor)PrivateAccess.getInstanceValue(server, "workers");
+
+        then(workers.getCorePoolSize()).isEqualTo(1);
+        then(workers.getMaximumPoolSize()).isEqualTo(2);
+        then(workers.getQueue().remainingCapacity()).isEqualTo(3);
+    }
+
+    @Test
+    public void workers_are_bounded() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_THREADS_CORE, "1");
+        configuration.setProperty(CONFIG_HTTPS_THREADS_MAX, "2");
+        configuration.setProperty(CONFIG_HTTPS_THREADS_QUEUE, "0");
+        createServer(); server.start(); waitServerStartup();
+
+        ThreadPoolExecutor workers =
+            (ThreadPoolExecutor)PrivateAccess.getInstanceValue(server, "workers");
+
+        //
+        // keep-alive connections keep their worker busy
+        //
+        then(get(connect(WEBPORT)).getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_OK);
+        then(get(connect(WEBPORT)).getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_OK);
+        then(get(connect(WEBPORT)).getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        then(workers.getPoolSize()).isEqualTo(2);
+    }
+
+    @Test
+    public void service_unavailable_when_all_workers_are_busy() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_THREADS_CORE, "1");
+        configuration.setProperty(CONFIG_HTTPS_THREADS_MAX, "1");
+        configuration.setProperty(CONFIG_HTTPS_THREADS_QUEUE, "0");
+        createServer(); server.start(); waitServerStartup();
+
+        DefaultBHttpClientConnection busy = connect(WEBPORT);
+        then(get(busy).getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_OK);
+
+        HttpResponse response = get(connect(WEBPORT));
+        then(response.getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        then(response.getFirstHeader(HTTP.CONN_DIRECTIVE).getValue())
+            .isEqualToIgnoringCase(HTTP.CONN_CLOSE);
+
+        //
+        // the busy connection is still served
+        //
+        then(get(busy).getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_OK);
+    }
+
+    @Test
+    public void threads_are_added_before_queuing() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_THREADS_CORE, "1");
+        configuration.setProperty(CONFIG_HTTPS_THREADS_MAX, "3");
+        configuration.setProperty(CONFIG_HTTPS_THREADS_QUEUE, "5");
+        createServer(); server.start(); waitServerStartup();
+
+        ThreadPoolExecutor workers =
+            (ThreadPoolExecutor)PrivateAccess.getInstanceValue(server, "workers");
+
+        //
+        // keep-alive connections keep their worker busy, yet all of them are
+        // served instead of waiting in the queue
+        //
+        for (int i=0; i<3; ++i) {
+            then(get(connect(WEBPORT)).getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_OK);
+        }
+        then(workers.getPoolSize()).isEqualTo(3);
+        then(workers.getQueue()).isEmpty();
+
+        //
+        // only now connections are queued
+        //
+        connect(WEBPORT);
+        long timeout = System.currentTimeMillis() + 1000;
+        while (workers.getQueue().isEmpty() && (System.currentTimeMillis() < timeout)) {
+            Thread.sleep(10);
+        }
+        then(workers.getQueue()).hasSize(1);
+        then(workers.getPoolSize()).isEqualTo(3);
+    }
+
+    @Test
+    public void slow_rejected_clients_do_not_block_the_acceptor() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_THREADS_CORE, "1");
+        configuration.setProperty(CONFIG_HTTPS_THREADS_MAX, "1");
+        configuration.setProperty(CONFIG_HTTPS_THREADS_QUEUE, "0");
+        createServer(); server.start(); waitServerStartup();
+
+        then(get(connect(WEBPORT)).getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_OK);
+
+        //
+        // a rejected client that does not send its request...
+        //
+        connect(WEBPORT);
+
+        //
+        // ... does not delay the answer to the others
+        //
+        long start = System.currentTimeMillis();
+        then(get(connect(WEBPORT)).getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        then(System.currentTimeMillis() - start).isLessThan(HttpServer.Worker.REJECT_TIMEOUT);
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private DefaultBHttpClientConnection connect(final String port) throws Exception {
+        DefaultBHttpClientConnection conn = new DefaultBHttpClientConnection(8*1024);
+        conn.bind(new Socket("localhost", Integer.parseInt(port)));
+        connections.add(conn);
+
+        return conn;
+    }
+
+    private HttpResponse get(final DefaultBHttpClientConnection conn) throws Exception {
+        BasicHttpRequest request = new BasicHttpRequest("GET", "/index.html", HttpVersion.HTTP_1_1);
+        request.setHeader(HTTP.TARGET_HOST, "localhost");
+        conn.sendRequestHeader(request);
+        conn.flush();
+
+        HttpResponse response = conn.receiveResponseHeader();
+        conn.receiveResponseEntity(response);
+        EntityUtils.consume(response.getEntity());
+
+        return response;
+    }
+}
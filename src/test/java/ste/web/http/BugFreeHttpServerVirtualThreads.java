@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import org.apache.commons.configuration.ConfigurationException;
+import static org.assertj.core.api.Assertions.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.After;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Test;
+import static ste.web.http.Constants.*;
+import ste.xtest.reflect.PrivateAccess;
+
+/**
+ *
+ * @author ste
+ */
+public class BugFreeHttpServerVirtualThreads extends BaseBugFreeHttpServer {
+
+    private static final int CONNECTIONS = 500;
+
+    private final List<Socket> sockets = new ArrayList<>();
+
+    @After
+    @Override
+    public void after() throws Exception {
+        for (Socket s: sockets) {
+            s.close();
+        }
+        super.after();
+    }
+
+    @Test
+    public void platform_threads_by_default() throws Exception {
+        then(server.getThreads()).isEqualTo(HttpServer.Threads.PLATFORM);
+    }
+
+    @Test
+    public void threads_values() throws Exception {
+        for (String V: new String[] {"virtual", "VIRTUAL", " Virtual "}) {
+            configuration.setProperty(CONFIG_HTTPS_THREADS, V);
+            createServer();
+            then(server.getThreads()).isEqualTo(HttpServer.Threads.VIRTUAL);
+        }
+        for (String V: new String[] {"platform", "PLATFORM"}) {
+            configuration.setProperty(CONFIG_HTTPS_THREADS, V);
+            createServer();
+            then(server.getThreads()).isEqualTo(HttpServer.Threads.PLATFORM);
+        }
+        for (String V: new String[] {"", "green", "1"}) {
+            configuration.setProperty(CONFIG_HTTPS_THREADS, V);
+            try {
+                createServer();
+                fail("missing invalid value check for '" + V + "'");
+            } catch (ConfigurationException x) {
+                then(x).hasMessageContaining("the threads <" + V + "> are invalid")
+                       .hasMessageContaining(CONFIG_HTTPS_THREADS);
+            }
+        }
+    }
+
+    @Test
+    public void look_up_the_virtual_threads_executor() throws Exception {
+        then(HttpServer.newVirtualThreadExecutor(VirtualExecutors.class)).isSameAs(VirtualExecutors.EXECUTOR);
+
+        //
+        // as with java < 21
+        //
+        then(HttpServer.newVirtualThreadExecutor(PlatformExecutors.class)).isNull();
+    }
+
+    @Test
+    public void use_virtual_threads_if_supported() throws Exception {
+        configuration.setProperty(CONFIG_HTTPS_THREADS, "virtual");
+        createServer(); server.start(); waitServerStartup();
+
+        final ExecutorService workers =
+            (ExecutorService)PrivateAccess.getInstanceValue(server, "workers");
+        if (HttpServer.newVirtualThreadExecutor(Executors.class) == null) {
+            then(workers).isInstanceOf(ThreadPoolExecutor.class);
+        } else {
+            then(workers).isNotInstanceOf(ThreadPoolExecutor.class);
+        }
+        then(getIndex(connect())).startsWith("HTTP/1.1 200");
+    }
+
+    @Test
+    public void many_slow_connections_do_not_increase_threads() throws Exception {
+        assumeTrue(
+            "virtual threads require java 21+",
+            Integer.parseInt(System.getProperty("java.specification.version").replaceFirst("^1\\.", "")) >= 21
+        );
+
+        configuration.setProperty(CONFIG_HTTPS_THREADS, "virtual");
+        createServer(); server.start(); waitServerStartup();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        //
+        // let the server warm up (and the carrier threads start)
+        //
+        then(getIndex(connect())).startsWith("HTTP/1.1 200");
+        final int BASELINE = threads.getThreadCount();
+
+        //
+        // slow clients: they send only part of the request and keep the
+        // connection busy
+        //
+        for (int i=0; i<CONNECTIONS; ++i) {
+            Socket s = connect();
+            s.getOutputStream().write("GET /index.html HTTP/1.1\r\n".getBytes("UTF-8"));
+            s.getOutputStream().flush();
+        }
+        Thread.sleep(500); // let the server accept all of them
+
+        then(threads.getThreadCount())
+            .isLessThanOrEqualTo(BASELINE + Runtime.getRuntime().availableProcessors());
+
+        //
+        // all of them are still being served
+        //
+        for (int i=1; i<=CONNECTIONS; ++i) {
+            Socket s = sockets.get(i);
+            OutputStream out = s.getOutputStream();
+            out.write("Host: localhost\r\n\r\n".getBytes("UTF-8")); out.flush();
+            then(
+                new BufferedReader(new InputStreamReader(s.getInputStream(), "UTF-8")).readLine()
+            ).startsWith("HTTP/1.1 200");
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private Socket connect() throws Exception {
+        Socket s = new Socket("localhost", Integer.parseInt(WEBPORT));
+        sockets.add(s);
+
+        return s;
+    }
+
+    private String getIndex(final Socket s) throws Exception {
+        OutputStream out = s.getOutputStream();
+        out.write("GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes("UTF-8"));
+        out.flush();
+
+        return new BufferedReader(new InputStreamReader(s.getInputStream(), "UTF-8")).readLine();
+    }
+
+    // ------------------------------------------------------- VirtualExecutors
+
+    /**
+     * Provides newVirtualThreadPerTaskExecutor() as Executors does in java 21+
+     */
+    public static class VirtualExecutors {
+        static final ExecutorService EXECUTOR = Executors.newCachedThreadPool();
+
+        public static ExecutorService newVirtualThreadPerTaskExecutor() {
+            return EXECUTOR;
+        }
+    }
+
+    // ------------------------------------------------------ PlatformExecutors
+
+    /**
+     * Does not provide newVirtualThreadPerTaskExecutor(), as Executors before
+     * java 21
+     */
+    public static class PlatformExecutors {
+        public static ExecutorService newCachedThreadPool() {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -28,6 +28,8 @@ import org.apache.http.HttpInetConnection;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpVersion;
+import org.apache.http.impl.HttpConnectionMetricsImpl;
+import org.apache.http.impl.io.HttpTransportMetricsImpl;
 import org.apache.http.message.BasicHttpRequest;
 import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.protocol.HttpContext;
@@ -100,6 +102,9 @@ public class BugFreeHttpSessionServiceBase {
         public int localPort = -1, remotePort = -1;
         public int timeout = -1;
         public boolean closed = false;
+        public HttpConnectionMetricsImpl metrics = new HttpConnectionMetricsImpl(
+            new HttpTransportMetricsImpl(), new HttpTransportMetricsImpl()
+        );
         
 
         @Override
@@ -153,7 +158,7 @@ public class BugFreeHttpSessionServiceBase {
 
         @Override
         public HttpConnectionMetrics getMetrics() {
-            throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+            return metrics;
         }
     }
     
@@ -183,6 +183,61 @@ public class BugFreeHttpSessionServiceLog extends BugFreeHttpSessionServiceBase
         }
     }
     
+    @Test
+    public void log_json() throws Exception {
+        ListLogHandler h = configure();
+        
+        TestConnection connection = getConnection(10, 0, 0, 1);
+        connection.metrics.incrementRequestCount();
+        
+        HttpSessionContext context = new HttpSessionContext();
+        context.setAttribute(HttpCoreContext.HTTP_CONNECTION, connection);
+        
+        service.setAccessLogFormat(AccessLogEncoder.Format.JSON, true);
+        service.doService(TEST_REQUEST2, TEST_RESPONSE1, context);
+        
+        String sessionId = context.getSession().getId();
+        then(h.getRecords().get(0).getMessage())
+            .startsWith("{\"remote\":\"10.0.0.1\",\"session\":\"" + sessionId + "\",")
+            .contains(",\"method\":\"POST\",\"uri\":\"/something?param1=one&param2=two\",\"protocol\":\"HTTP/1.1\",")
+            .contains(",\"status\":" + TEST_RESPONSE1.getStatusLine().getStatusCode() + ",")
+            .contains(",\"in\":0,\"out\":0,\"nanos\":")
+            .endsWith(",\"tls\":true,\"reuse\":0}");
+        h.getRecords().clear();
+        
+        //
+        // second request on the same connection
+        //
+        connection.metrics.incrementRequestCount();
+        service.setAccessLogFormat(AccessLogEncoder.Format.JSON, false);
+        service.doService(TEST_REQUEST2, TEST_RESPONSE1, context);
+        then(h.getRecords().get(0).getMessage()).endsWith(",\"tls\":false,\"reuse\":1}");
+    }
+    
+    @Test
+    public void log_only_accepted_requests() throws Exception {
+        ListLogHandler h = configure();
+        
+        service.setAccessLogFilter(new AccessLogFilter(2, new String[] {"5xx"}, 0));
+        
+        final Integer[] TEST_STATUSES = {200, 200, 200, 500, 200};
+        for (Integer status: TEST_STATUSES) {
+            HttpSessionContext context = new HttpSessionContext();
+            context.setAttribute(HttpCoreContext.HTTP_CONNECTION, getConnection());
+            context.setAttribute("status", status);
+            
+            service.doService(TEST_REQUEST1, TEST_RESPONSE1, context);
+        }
+        
+        //
+        // every second 200 and the 500, which is always logged
+        //
+        then(h.getRecords()).hasSize(3);
+        then(h.getRecords().get(0).getMessage()).endsWith(" 200");
+        then(h.getRecords().get(1).getMessage()).endsWith(" 500");
+        then(h.getRecords().get(2).getMessage()).endsWith(" 200");
+    }
+    
     //
     // other functionalities
     //
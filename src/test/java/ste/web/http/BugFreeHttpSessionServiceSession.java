@@ -15,11 +15,23 @@
  */
 package ste.web.http;
 
+import java.io.IOException;
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.message.BasicHttpRequest;
 import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpProcessorBuilder;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.apache.http.protocol.UriHttpRequestHandlerMapper;
 import static org.assertj.core.api.BDDAssertions.then;
 import org.junit.Before;
 import org.junit.Test;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_LAZY;
 
 /**
  * TOTO: improve parsing of Cookie value to extract HTTPSID (e.g. NOHTTPSID="")
@@ -124,4 +136,54 @@ public class BugFreeHttpSessionServiceSession extends BugFreeHttpSessionServiceB
             .isEqualTo(String.format(SESSIONID_FORMAT, s2.getId()));
     }
     
+    @Test
+    public void lazy_session_only_when_used() throws Exception {
+        final HttpSession[] session = new HttpSession[1];
+        
+        UriHttpRequestHandlerMapper handlers = new UriHttpRequestHandlerMapper();
+        handlers.register("/static/*", new TestHandler());
+        handlers.register("/session/*", new HttpRequestHandler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response, HttpContext context) 
+            throws HttpException, IOException {
+                session[0] = ((HttpSessionContext)context).getSession();
+            }
+        });
+        
+        Configuration c = new PropertiesConfiguration();
+        c.addProperty(CONFIG_HTTPS_SESSION_LAZY, true);
+        service = new HttpSessionService(
+            HttpProcessorBuilder.create().build(), handlers, new ConfigurationSessionFactory(c)
+        );
+        
+        //
+        // no session, no cookie
+        //
+        BasicHttpResponse res = HttpUtils.getBasicResponse();
+        service.serve(new BasicHttpRequest("GET", "/static/index.html"), res, getConnection());
+        then(res.getHeaders("Set-Cookie")).isEmpty();
+        then(service.getSessionCache()).isEmpty();
+        
+        //
+        // a session is created when asked for
+        //
+        res = HttpUtils.getBasicResponse();
+        service.serve(new BasicHttpRequest("GET", "/session/counter"), res, getConnection());
+        then(session[0]).isNotNull();
+        then(res.getHeaders("Set-Cookie")).hasSize(1);
+        then(res.getHeaders("Set-Cookie")[0].getValue())
+            .isEqualTo(String.format(SESSIONID_FORMAT, session[0].getId()));
+        then(service.getSessionCache()).hasSize(1);
+        
+        //
+        // an existing session is still tracked and no new cookie is sent
+        //
+        BasicHttpRequest req = new BasicHttpRequest("GET", "/static/index.html");
+        req.addHeader("Cookie", String.format("HTTPSID=%s", session[0].getId()));
+        res = HttpUtils.getBasicResponse();
+        service.serve(req, res, getConnection());
+        then(res.getHeaders("Set-Cookie")).isEmpty();
+        then(service.getSessionCache()).hasSize(1);
+    }
+    
 }
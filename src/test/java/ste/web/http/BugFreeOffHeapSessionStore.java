@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import static org.assertj.core.api.Assertions.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+import static ste.web.http.OffHeapSessionStore.CHUNK_SIZE;
+
+/**
+ *
+ * @author ste
+ */
+public class BugFreeOffHeapSessionStore {
+
+    @Test
+    public void save_and_load() throws Exception {
+        OffHeapSessionStore store = new OffHeapSessionStore("HTTPSID");
+
+        StoredHttpSession s = new StoredHttpSession("HTTPSID");
+        s.setAttribute("one", "1"); s.setAttribute("two", 2L);
+        store.save(s);
+        then(s.isDirty()).isFalse();
+        then(store.size()).isEqualTo(1);
+
+        HttpSession s1 = store.load(s.getId());
+        then(s1).isNotSameAs(s).isInstanceOf(StoredHttpSession.class);
+        then(s1.getId()).isEqualTo(s.getId());
+        then(s1.getAttribute("one")).isEqualTo("1");
+        then(s1.getAttribute("two")).isEqualTo(2L);
+        then(((StoredHttpSession)s1).isDirty()).isFalse();
+        then(s1.getHeader().getName()).isEqualTo(s.getHeader().getName());
+        then(s1.getHeader().getValue()).isEqualTo(s.getHeader().getValue());
+
+        then(store.load("notexisting")).isNull();
+    }
+
+    @Test
+    public void update_and_delete() throws Exception {
+        OffHeapSessionStore store = new OffHeapSessionStore("HTTPSID");
+
+        StoredHttpSession s = new StoredHttpSession("HTTPSID");
+        store.save(s);
+
+        HttpSession s1 = store.load(s.getId());
+        s1.setAttribute("one", "1"); s1.removeAttribute("none");
+        store.save(s1);
+        then(store.load(s.getId()).getAttribute("one")).isEqualTo("1");
+
+        s1.removeAttribute("one");
+        store.save(s1);
+        then(store.load(s.getId()).getAttribute("one")).isNull();
+
+        s1.setAttribute("two", "2");
+        store.save(s1);
+        HttpSession deleted = store.delete(s.getId());
+        then(deleted.getId()).isEqualTo(s.getId());
+        then(deleted.getAttribute("two")).isEqualTo("2");
+        then(store.delete(s.getId())).isNull();
+        then(store.load(s.getId())).isNull();
+        then(store.size()).isZero();
+    }
+
+    @Test
+    public void memory_is_reused() throws Exception {
+        OffHeapSessionStore store = new OffHeapSessionStore("HTTPSID");
+
+        StoredHttpSession s = new StoredHttpSession("HTTPSID");
+        for (int i=0; i<100000; ++i) {
+            s.setAttribute("counter", i);
+            store.save(s);
+        }
+        then(store.load(s.getId()).getAttribute("counter")).isEqualTo(99999);
+        then(store.getCapacity()).isEqualTo(CHUNK_SIZE);
+
+        for (int i=0; i<1000; ++i) {
+            StoredHttpSession n = new StoredHttpSession("HTTPSID");
+            n.setAttribute("counter", i);
+            store.save(n); store.delete(n.getId());
+        }
+        then(store.getCapacity()).isEqualTo(CHUNK_SIZE);
+    }
+
+    @Test
+    public void sessions_bigger_than_a_chunk() throws Exception {
+        OffHeapSessionStore store = new OffHeapSessionStore("HTTPSID");
+
+        StoredHttpSession s = new StoredHttpSession("HTTPSID");
+        s.setAttribute("big", new byte[CHUNK_SIZE]);
+        store.save(s);
+
+        then((byte[])store.load(s.getId()).getAttribute("big")).hasSize(CHUNK_SIZE);
+    }
+
+    @Test
+    public void only_serializable_sessions() throws Exception {
+        OffHeapSessionStore store = new OffHeapSessionStore("HTTPSID");
+
+        HttpSession s = new HttpSession("HTTPSID");
+        try {
+            store.save(s);
+            fail("plain sessions can not be stored");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessageContaining(s.getId()).hasMessageContaining("can not be stored off heap");
+        }
+
+        StoredHttpSession s1 = new StoredHttpSession("HTTPSID");
+        s1.setAttribute("object", new Object());
+        try {
+            store.save(s1);
+            fail("not serializable attributes can not be stored");
+        } catch (IllegalStateException x) {
+            then(x).hasMessageContaining(s1.getId()).hasMessageContaining("serializable");
+        }
+        then(store.size()).isZero();
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import static org.assertj.core.api.Assertions.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static ste.web.http.Constants.CONFIG_HTTPS_ROOT;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_LIFETIME;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_PERSIST;
+import static ste.web.http.Constants.CONFIG_SSL_PASSWORD;
+import ste.xtest.reflect.PrivateAccess;
+
+/**
+ *
+ * @author ste
+ */
+public class BugFreePersistentSessionStore {
+
+    @Rule
+    public final TemporaryFolder TESTDIR = new TemporaryFolder();
+
+    @Test
+    public void sessions_survive_restart() throws Exception {
+        final File LOG = new File(TESTDIR.getRoot(), "sessions/web.log");
+
+        PersistentSessionStore store = new PersistentSessionStore(
+            new MemorySessionStore(), LOG, "HTTPSID", 60000
+        );
+        then(LOG).exists();
+
+        StoredHttpSession s1 = new StoredHttpSession("HTTPSID");
+        StoredHttpSession s2 = new StoredHttpSession("HTTPSID");
+        s1.setAttribute("one", "1"); s2.setAttribute("two", 2);
+        store.save(s1); store.save(s2);
+        then(s1.isDirty()).isFalse();
+        then(store.load(s1.getId())).isSameAs(s1);
+
+        s1.setAttribute("one", "uno"); store.save(s1);
+        store.delete(s2.getId());
+        store.close();
+
+        store = new PersistentSessionStore(
+            new OffHeapSessionStore("HTTPSID"), LOG, "HTTPSID", 60000
+        );
+        then(store.ids()).containsExactly(s1.getId());
+        then(store.load(s1.getId()).getAttribute("one")).isEqualTo("uno");
+        then(store.load(s2.getId())).isNull();
+        store.close();
+    }
+
+    @Test
+    public void changes_are_written_in_batches() throws Exception {
+        final File LOG = new File(TESTDIR.getRoot(), "web.log");
+
+        PersistentSessionStore store = new PersistentSessionStore(
+            new MemorySessionStore(), LOG, "HTTPSID", 60000
+        );
+
+        StoredHttpSession s = new StoredHttpSession("HTTPSID");
+        for (int i=0; i<1000; ++i) {
+            s.setAttribute("counter", i);
+            store.save(s);
+        }
+        then(LOG.length()).isZero();
+
+        store.flush();
+        final long L = LOG.length();
+        then(L).isGreaterThan(0);
+
+        store.flush();
+        then(LOG.length()).isEqualTo(L);  // the same session is written once
+        store.close();
+
+        store = new PersistentSessionStore(new MemorySessionStore(), LOG, "HTTPSID", 60000);
+        then(store.load(s.getId()).getAttribute("counter")).isEqualTo(999);
+        store.close();
+    }
+
+    @Test
+    public void changes_are_written_in_background() throws Exception {
+        final File LOG = new File(TESTDIR.getRoot(), "web.log");
+
+        PersistentSessionStore store = new PersistentSessionStore(
+            new MemorySessionStore(), LOG, "HTTPSID", 50
+        );
+        store.save(new StoredHttpSession("HTTPSID"));
+
+        for (int i=0; (i<100) && (LOG.length() == 0); ++i) {
+            Thread.sleep(50);
+        }
+        then(LOG.length()).isGreaterThan(0);
+        store.close();
+    }
+
+    @Test
+    public void log_is_compacted() throws Exception {
+        final File LOG = new File(TESTDIR.getRoot(), "web.log");
+
+        PersistentSessionStore store = new PersistentSessionStore(
+            new MemorySessionStore(), LOG, "HTTPSID", 60000
+        );
+
+        StoredHttpSession s = new StoredHttpSession("HTTPSID");
+        s.setAttribute("counter", -1); store.save(s); store.flush();
+        final long L = LOG.length();
+        then(store.compact()).isFalse();
+
+        for (int i=0; i<PersistentSessionStore.COMPACT_MIN; ++i) {
+            s.setAttribute("counter", i); store.save(s); store.flush();
+        }
+        then(LOG.length()).isGreaterThan(L * PersistentSessionStore.COMPACT_MIN);
+
+        then(store.compact()).isTrue();
+        then(LOG.length()).isEqualTo(L);
+        then(store.compact()).isFalse();
+
+        //
+        // changes after the compaction are still appended
+        //
+        StoredHttpSession s2 = new StoredHttpSession("HTTPSID");
+        store.save(s2); store.delete(s.getId()); store.close();
+
+        store = new PersistentSessionStore(new MemorySessionStore(), LOG, "HTTPSID", 60000);
+        then(store.ids()).containsExactly(s2.getId());
+        store.close();
+    }
+
+    @Test
+    public void log_is_compacted_in_background() throws Exception {
+        final File LOG = new File(TESTDIR.getRoot(), "web.log");
+
+        PersistentSessionStore store = new PersistentSessionStore(
+            new MemorySessionStore(), LOG, "HTTPSID", 50
+        );
+
+        StoredHttpSession s = new StoredHttpSession("HTTPSID");
+        for (int i=0; i<=PersistentSessionStore.COMPACT_MIN; ++i) {
+            s.setAttribute("counter", i); store.save(s); store.flush();
+        }
+        final long L = LOG.length();
+
+        for (int i=0; (i<100) && (LOG.length() >= L); ++i) {
+            Thread.sleep(50);
+        }
+        then(LOG.length()).isLessThan(L);
+        store.close();
+
+        store = new PersistentSessionStore(new MemorySessionStore(), LOG, "HTTPSID", 60000);
+        then(store.load(s.getId()).getAttribute("counter")).isEqualTo(PersistentSessionStore.COMPACT_MIN);
+        store.close();
+    }
+
+    @Test
+    public void requests_do_not_wait_for_the_log() throws Exception {
+        final File LOG = new File(TESTDIR.getRoot(), "web.log");
+
+        final PersistentSessionStore store = new PersistentSessionStore(
+            new MemorySessionStore(), LOG, "HTTPSID", 60000
+        );
+        store.save(new StoredHttpSession("HTTPSID"));  // the writer is running
+
+        //
+        // the writer is busy writing the log (e.g. compacting it)
+        //
+        final Object lock = PrivateAccess.getInstanceValue(store, "logLock");
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException x) {
+                        // done
+                    }
+                }
+            }
+        };
+        writer.start(); locked.await();
+
+        final long start = System.currentTimeMillis();
+        StoredHttpSession s = new StoredHttpSession("HTTPSID");
+        store.save(s); store.delete(s.getId());
+        then(System.currentTimeMillis() - start).isLessThan(500);
+
+        release.countDown(); writer.join();
+        store.close();
+    }
+
+    @Test
+    public void truncated_log() throws Exception {
+        final File LOG = new File(TESTDIR.getRoot(), "web.log");
+
+        PersistentSessionStore store = new PersistentSessionStore(
+            new MemorySessionStore(), LOG, "HTTPSID", 60000
+        );
+        StoredHttpSession s1 = new StoredHttpSession("HTTPSID");
+        StoredHttpSession s2 = new StoredHttpSession("HTTPSID");
+        store.save(s1); store.flush(); store.save(s2); store.close();
+
+        try (RandomAccessFile f = new RandomAccessFile(LOG, "rw")) {
+            f.setLength(f.length() - 10);
+        }
+
+        store = new PersistentSessionStore(new MemorySessionStore(), LOG, "HTTPSID", 60000);
+        then(store.ids()).containsExactly(s1.getId());
+        store.close();
+    }
+
+    @Test
+    public void corrupted_sessions_are_skipped() throws Exception {
+        final File LOG = new File(TESTDIR.getRoot(), "web.log");
+
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(LOG))) {
+            out.writeByte(1); out.writeUTF("bad"); out.writeInt(3); out.write(new byte[] {1, 2, 3});
+        }
+
+        PersistentSessionStore store = new PersistentSessionStore(
+            new MemorySessionStore(), LOG, "HTTPSID", 60000
+        );
+        then(store.size()).isZero();
+        store.close();
+        then(LOG).hasContent("");
+    }
+
+    @Test
+    public void only_stored_sessions() throws Exception {
+        PersistentSessionStore store = new PersistentSessionStore(
+            new MemorySessionStore(), new File(TESTDIR.getRoot(), "web.log"), "HTTPSID", 60000
+        );
+
+        HttpSession s = new HttpSession("HTTPSID");
+        try {
+            store.save(s);
+            fail("plain sessions can not be persisted");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessageContaining(s.getId()).hasMessageContaining("can not be persisted");
+        }
+        store.close();
+    }
+
+    @Test
+    public void session_cache_reloads_sessions() throws Exception {
+        final PropertiesConfiguration C = new PropertiesConfiguration();
+        C.setProperty(CONFIG_HTTPS_ROOT, TESTDIR.getRoot().getAbsolutePath());
+        C.setProperty(CONFIG_HTTPS_SESSION_PERSIST, "true");
+        final ConfigurationSessionFactory F = new ConfigurationSessionFactory(C);
+
+        SessionCache cache = new SessionCache(F, "ssl");
+        HttpSession s = cache.get("none");
+        s.setAttribute("user", "ste");
+        cache.release(s);
+        cache.close();
+
+        cache = new SessionCache(F, "ssl");
+        then(cache).containsKey(s.getId());
+        then(cache.get(s.getId()).getAttribute("user")).isEqualTo("ste");
+
+        cache.close();
+
+        cache = new SessionCache(F, "web");
+        then(cache).isEmpty();
+        cache.close();
+    }
+
+    @Test
+    public void access_times_survive_restart() throws Exception {
+        final File LOG = new File(TESTDIR.getRoot(), "web.log");
+
+        PersistentSessionStore store = new PersistentSessionStore(
+            new MemorySessionStore(), LOG, "HTTPSID", 60000
+        );
+        StoredHttpSession s1 = new StoredHttpSession("HTTPSID");
+        StoredHttpSession s2 = new StoredHttpSession("HTTPSID");
+        store.save(s1); store.save(s2);
+        store.touch(s1.getId(), 1000); store.touch(s1.getId(), 2000);
+        then(store.lastAccess(s1.getId())).isEqualTo(2000);
+        then(store.lastAccess(s2.getId())).isZero();
+        store.close();
+
+        //
+        // reloaded twice, so that the access times survive the compaction
+        // done at reload too
+        //
+        store = new PersistentSessionStore(new MemorySessionStore(), LOG, "HTTPSID", 60000);
+        store.close();
+        store = new PersistentSessionStore(new MemorySessionStore(), LOG, "HTTPSID", 60000);
+        then(store.lastAccess(s1.getId())).isEqualTo(2000);
+        then(store.lastAccess(s2.getId())).isZero();
+
+        store.delete(s1.getId());
+        then(store.lastAccess(s1.getId())).isZero();
+        store.close();
+    }
+
+    @Test
+    public void session_cache_expires_stale_sessions_on_reload() throws Exception {
+        final PropertiesConfiguration C = new PropertiesConfiguration();
+        C.setProperty(CONFIG_HTTPS_ROOT, TESTDIR.getRoot().getAbsolutePath());
+        C.setProperty(CONFIG_HTTPS_SESSION_PERSIST, "true");
+        C.setProperty(CONFIG_HTTPS_SESSION_LIFETIME, "1000");
+        final ConfigurationSessionFactory F = new ConfigurationSessionFactory(C);
+
+        SessionCache cache = new SessionCache(F, "ssl");
+        HttpSession stale = cache.get("none");
+        Thread.sleep(600);
+        HttpSession fresh = cache.get("none");
+        cache.close();
+        Thread.sleep(600);
+
+        //
+        // stale has not been used for more than its lifetime, also while the
+        // server was down
+        //
+        cache = new SessionCache(F, "ssl");
+        then(cache).containsKey(fresh.getId()).doesNotContainKey(stale.getId());
+        then(cache.getExpired()).isEqualTo(1);
+        cache.close();
+    }
+
+    @Test
+    public void replacing_handlers_closes_the_session_stores() throws Exception {
+        final File CONF = TESTDIR.newFolder("conf");
+        Files.copy(Paths.get("src/test/conf/keystore"), CONF.toPath().resolve("keystore"));
+
+        final PropertiesConfiguration C = new PropertiesConfiguration();
+        C.setProperty(CONFIG_HTTPS_ROOT, TESTDIR.getRoot().getAbsolutePath());
+        C.setProperty(CONFIG_SSL_PASSWORD, "20150630");
+        C.setProperty(CONFIG_HTTPS_SESSION_PERSIST, "true");
+        HttpServer server = new HttpServer(C);
+
+        SessionCache cache = server.getSSLService().getSessionCache();
+        HttpSession s = cache.get("none");
+        s.setAttribute("user", "ste");
+        cache.release(s);
+
+        //
+        // the replaced store writes its changes before the new one reloads
+        // the log
+        //
+        server.setHandlers(null);
+        then(cache).isEmpty();
+        then(server.getSSLService().getSessionCache()).isNotSameAs(cache);
+        then(server.getSSLService().getSessionCache().get(s.getId()).getAttribute("user")).isEqualTo("ste");
+
+        for (HttpSessionService service: server.getSessionServices().values()) {
+            service.getSessionCache().close();
+        }
+    }
+}
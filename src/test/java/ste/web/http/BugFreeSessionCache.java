@@ -17,15 +17,25 @@ package ste.web.http;
 
 import java.lang.reflect.Method;
 import java.time.Clock;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import static org.assertj.core.api.Assertions.fail;
 import static org.assertj.core.api.BDDAssertions.then;
 import static ste.xtest.reflect.PrivateAccess.*;
 import org.junit.Test;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_GRANULARITY;
 import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_ID_NAME;
 import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_LIFETIME;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_MAX;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_STORE;
+import static ste.web.http.Constants.CONFIG_HTTPS_SESSION_PURGETIME;
 import ste.xtest.reflect.PrivateAccess;
 import ste.xtest.time.FixedClock;
 
@@ -113,48 +123,288 @@ public class BugFreeSessionCache {
     }
     
     @Test
-    @SuppressWarnings("unchecked")
     public void purge_expired_sessions() throws Exception {
         final FixedClock CLOCK = new FixedClock();
         
         SessionCache c = createSessionCache(CLOCK, 75);
         
-        HashMap lastAccess = (HashMap)getInstanceValue(c, "lastAccess");
         PrivateAccess.setInstanceValue(c, "purgetime", 200);
         
         HttpSession s1 = c.get(null); s1.setAttribute("TEST1", "test1"); CLOCK.millis += 25;
         HttpSession s2 = c.get(null); s1.setAttribute("TEST2", "test2"); CLOCK.millis += 25;
         
         //
-        // Before a session expires, I get it; once expired I get a new session,
-        // but lastAccess still contains it; after purgetime() lastAccess shall 
-        // be empty
+        // Before a session expires, I get it; once expired I get a new session
+        // and the expired one is removed; sessions not accessed any more are
+        // removed after purgetime()
         //
-        then(c.get(s1.getId())).isNotNull();
-        then(lastAccess).hasSize(2);
+        then(c.get(s1.getId())).isSameAs(s1);
+        then(c).hasSize(2);
         CLOCK.millis += 55;
-        then(c.get(s1.getId())).isNotNull();
+        then(c.get(s1.getId())).isSameAs(s1);
         then(c.get(s2.getId()).getAttribute("TEST2")).isNull();
-        then(lastAccess).hasSize(3); // one session has expired
+        then(c).hasSize(2).containsKey(s1.getId()).doesNotContainKey(s2.getId());
         
         CLOCK.millis += 200; c.get(null); // triggering purge
         
-        then(lastAccess)
+        then(c)
             .hasSize(1)
             .doesNotContainKey(s1.getId())
             .doesNotContainKey(s2.getId());
     }
     
+    @Test
+    public void expired_session_is_expired_once() throws Exception {
+        final FixedClock CLOCK = new FixedClock();
+        
+        SessionCache c = createSessionCache(CLOCK, 50);
+        HttpSession s = c.get(null);
+        
+        CLOCK.millis += 75;
+        
+        HttpSession s1 = c.get(s.getId()), s2 = c.get(s.getId());
+        
+        then(s1).isNotSameAs(s);
+        then(s2).isNotSameAs(s);
+        then(c).hasSize(2).doesNotContainKey(s.getId());
+    }
+    
+    @Test
+    public void purge_expired_sessions_in_background() throws Exception {
+        final FixedClock CLOCK = new FixedClock();
+        
+        Configuration conf = new PropertiesConfiguration();
+        conf.addProperty(CONFIG_HTTPS_SESSION_LIFETIME, 75);
+        conf.addProperty(CONFIG_HTTPS_SESSION_PURGETIME, 25);
+        SessionCache c = new SessionCache(new ConfigurationSessionFactory(conf));
+        setInstanceValue(c, "clock", CLOCK);
+        then(c.getPurgetime()).isEqualTo(25);
+        
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            HttpSession s1 = c.get(null), s2 = c.get(null);
+            c.schedulePurge(scheduler);
+            
+            CLOCK.millis += 50; c.get(s2.getId());
+            CLOCK.millis += 50; Thread.sleep(250);
+            
+            //
+            // s1 has been purged without accessing the cache
+            //
+            then(c).hasSize(1).doesNotContainKey(s1.getId()).containsKey(s2.getId());
+            
+            //
+            // accessing the cache does not purge it any more
+            //
+            CLOCK.millis += 1000; 
+            PrivateAccess.setInstanceValue(c, "purgetime", 0);
+            scheduler.shutdownNow(); scheduler.awaitTermination(1, TimeUnit.SECONDS);
+            c.get(null);
+            then(c).hasSize(2).containsKey(s2.getId());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void evict_least_recently_used_session() throws Exception {
+        final FixedClock CLOCK = new FixedClock();
+        
+        Configuration conf = new PropertiesConfiguration();
+        conf.addProperty(CONFIG_HTTPS_SESSION_MAX, 2);
+        conf.addProperty(CONFIG_HTTPS_SESSION_GRANULARITY, 0);
+        SessionCache c = new SessionCache(new ConfigurationSessionFactory(conf));
+        setInstanceValue(c, "clock", CLOCK);
+        then(c.getMaxSessions()).isEqualTo(2);
+        
+        HttpSession s1 = c.get(null); CLOCK.millis += 10;
+        HttpSession s2 = c.get(null); CLOCK.millis += 10;
+        c.get(s1.getId()); CLOCK.millis += 10;
+        then(c.getEvictions()).isZero();
+        
+        HttpSession s3 = c.get(null);
+        then(c).hasSize(2).containsKeys(s1.getId(), s3.getId()).doesNotContainKey(s2.getId());
+        then(c.getEvictions()).isEqualTo(1);
+        try {
+            s2.setAttribute("test", null);
+            fail("evicted session should be expired");
+        } catch (IllegalStateException x) {
+            then(x.getMessage()).contains(s2.getId()).contains("expired");
+        }
+        
+        //
+        // an evicted session can not be used any more
+        //
+        then(c.get(s2.getId())).isNotSameAs(s2);
+        then(c).hasSize(2);
+        then(c.getEvictions()).isEqualTo(2);
+    }
+    
+    @Test
+    public void evict_sessions_from_anywhere_in_the_cache() throws Exception {
+        final FixedClock CLOCK = new FixedClock();
+        final int MAX = 64;
+        
+        Configuration conf = new PropertiesConfiguration();
+        conf.addProperty(CONFIG_HTTPS_SESSION_MAX, MAX);
+        conf.addProperty(CONFIG_HTTPS_SESSION_GRANULARITY, 0);
+        SessionCache c = new SessionCache(new ConfigurationSessionFactory(conf));
+        setInstanceValue(c, "clock", CLOCK);
+        
+        for (int i=0; i<MAX; ++i) {
+            c.get(null);
+        }
+        
+        //
+        // the hot session is in the first bins of the cache and the idle one 
+        // in the last ones; all sessions but the idle one are then used, the
+        // hot one last
+        //
+        List<String> ids = new ArrayList<>(((Map<String, ?>)getInstanceValue(c, "sessions")).keySet());
+        final String HOT = ids.get(0), IDLE = ids.get(MAX-1);
+        CLOCK.millis += 10;
+        for (String id: ids.subList(1, MAX-1)) {
+            c.get(id);
+        }
+        CLOCK.millis += 1; c.get(HOT);
+        
+        for (int i=0; i<MAX; ++i) {
+            CLOCK.millis += 1; c.get(null);
+            CLOCK.millis += 1; c.get(HOT);
+        }
+        then(c.getEvictions()).isEqualTo(MAX);
+        then(c).hasSize(MAX).containsKey(HOT).doesNotContainKey(IDLE);
+    }
+    
+    @Test
+    public void access_time_granularity() throws Exception {
+        final FixedClock CLOCK = new FixedClock();
+        
+        Configuration conf = new PropertiesConfiguration();
+        conf.addProperty(CONFIG_HTTPS_SESSION_LIFETIME, 100000);
+        conf.addProperty(CONFIG_HTTPS_SESSION_GRANULARITY, 500);
+        SessionCache c = new SessionCache(new ConfigurationSessionFactory(conf));
+        setInstanceValue(c, "clock", CLOCK);
+        then(c.getGranularity()).isEqualTo(500);
+        
+        HttpSession s = c.get(null);
+        Object entry = ((Map)getInstanceValue(c, "sessions")).get(s.getId());
+        
+        for (int i=0; i<10; ++i) {
+            CLOCK.millis += 49; c.get(s.getId());
+        }
+        then((long)getInstanceValue(entry, "lastAccess")).isZero();
+        
+        CLOCK.millis += 10; c.get(s.getId());
+        then((long)getInstanceValue(entry, "lastAccess")).isEqualTo(500);
+        
+        //
+        // the granularity is at most 1% of the lifetime
+        //
+        conf.setProperty(CONFIG_HTTPS_SESSION_LIFETIME, 10000);
+        then(new SessionCache(new ConfigurationSessionFactory(conf)).getGranularity()).isEqualTo(100);
+        conf.setProperty(CONFIG_HTTPS_SESSION_LIFETIME, 0);
+        then(new SessionCache(new ConfigurationSessionFactory(conf)).getGranularity()).isEqualTo(500);
+    }
+    
+    @Test
+    public void statistics() throws Exception {
+        final FixedClock CLOCK = new FixedClock();
+        
+        SessionCache c = createSessionCache(CLOCK, 50);
+        PrivateAccess.setInstanceValue(c, "purgetime", 10);
+        then(c.getCreated()).isZero();
+        then(c.getEstimatedMemory()).isZero();
+        
+        HttpSession s1 = c.get(null), s2 = c.get(null);
+        c.get(s1.getId());
+        then(c.getCreated()).isEqualTo(2);
+        
+        //
+        // plain sessions can not be measured
+        //
+        then(c.getEstimatedMemory()).isEqualTo(-1);
+        
+        CLOCK.millis += 75; c.get(s2.getId());
+        then(c.getExpired()).isEqualTo(2);
+        then(c.getCreated()).isEqualTo(3);
+        then(c.getPurges()).isEqualTo(1);
+        then(c.getLastPurgeMicros()).isGreaterThanOrEqualTo(0);
+    }
+    
+    @Test
+    public void cache_is_bounded() throws Exception {
+        Configuration conf = new PropertiesConfiguration();
+        conf.addProperty(CONFIG_HTTPS_SESSION_MAX, 100);
+        SessionCache c = new SessionCache(new ConfigurationSessionFactory(conf));
+        
+        for (int i=0; i<1000; ++i) {
+            c.get(null);
+        }
+        then(c).hasSize(100);
+        then(c.getEvictions()).isEqualTo(900);
+        
+        //
+        // 0 means no limit
+        //
+        conf.setProperty(CONFIG_HTTPS_SESSION_MAX, 0);
+        c = new SessionCache(new ConfigurationSessionFactory(conf));
+        for (int i=0; i<1000; ++i) {
+            c.get(null);
+        }
+        then(c).hasSize(1000);
+        then(c.getEvictions()).isZero();
+    }
+    
+    @Test
+    public void sessions_in_off_heap_store() throws Exception {
+        final FixedClock CLOCK = new FixedClock();
+        
+        Configuration conf = new PropertiesConfiguration();
+        conf.addProperty(CONFIG_HTTPS_SESSION_LIFETIME, 50);
+        conf.addProperty(CONFIG_HTTPS_SESSION_STORE, "offheap");
+        SessionCache c = new SessionCache(new ConfigurationSessionFactory(conf));
+        setInstanceValue(c, "clock", CLOCK);
+        
+        then(c.getEstimatedMemory()).isZero();
+        
+        HttpSession s = c.get(null); s.setAttribute("TEST", "test");
+        c.release(s);
+        then(c.getEstimatedMemory()).isGreaterThan(SessionCache.SESSION_OVERHEAD);
+        
+        //
+        // the session is loaded from the store for each request
+        //
+        HttpSession s1 = c.get(s.getId());
+        then(s1).isNotSameAs(s);
+        then(s1.getId()).isEqualTo(s.getId());
+        then(s1.getAttribute("TEST")).isEqualTo("test");
+        
+        //
+        // changes are saved when the session is released
+        //
+        s1.setAttribute("TEST", "test1");
+        then(c.get(s.getId()).getAttribute("TEST")).isEqualTo("test");
+        c.release(s1);
+        then(c.get(s.getId()).getAttribute("TEST")).isEqualTo("test1");
+        
+        //
+        // expiration
+        //
+        CLOCK.millis += 75;
+        then(c.get(s.getId()).getId()).isNotEqualTo(s.getId());
+        then(c).hasSize(1).doesNotContainKey(s.getId());
+    }
+    
     @Test
     public void no_expiration() throws Exception {
         SessionCache c = new SessionCache(getSessionFactory((long)0));
         HttpSession s = c.get(null);
         
-        Method m = SessionCache.class.getDeclaredMethod("expireSession", String.class);
-        m.setAccessible(true); m.invoke(c, s.getId());
+        then(c.isExpired(0)).isFalse();
         then(c).hasSize(1);
         
-        m = SessionCache.class.getDeclaredMethod("purge");
+        Method m = SessionCache.class.getDeclaredMethod("purge");
         m.setAccessible(true); m.invoke(c);
         then(c).hasSize(1);
     }
@@ -93,7 +93,7 @@ public class BugFreeSessionCacheThreading {
         }
         
         @Override
-        protected boolean isExpired(Long ts) {
+        protected boolean isExpired(long ts) {
             if (LATCH != null) {
                 try { LATCH.await(); } catch (InterruptedException x) {};
             }
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.TrustManagerFactory;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import static ste.web.http.Constants.CONFIG_HTTPS_AUTH;
+import static ste.web.http.Constants.CONFIG_HTTPS_ROOT;
+import static ste.web.http.Constants.CONFIG_SSL_PASSWORD;
+import ste.web.security.CertificateBuilder;
+import ste.xtest.reflect.PrivateAccess;
+
+/**
+ * Measures the latency of full TLS handshakes (no session resumption) with
+ * the server certificate in src/test/conf/keystore, comparing the jvm
+ * defaults, some legacy protocol/cipher combinations and the defaults of
+ * HttpServer (see Constants.DEFAULT_SSL_PROTOCOLS and DEFAULT_SSL_CIPHERS);
+ * then, with the defaults of HttpServer, compares RSA and EC server
+ * certificates.
+ * Client and server engines talk in memory, so that the numbers do not
+ * include any network latency; a combination not supported or not enabled
+ * by the jvm is reported as n/a.
+ *
+ * It is not run as part of the test suite; run it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ste.web.http.HandshakeBenchmark
+ * </pre>
+ */
+public class HandshakeBenchmark {
+
+    private static final long DURATION = 2000; // ms
+    private static final String HOME = "src/test";
+    private static final String SSL_PASSWORD = "20150630";
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    public static void main(String... args) throws Exception {
+        PropertiesConfiguration configuration = new PropertiesConfiguration();
+        configuration.setProperty(CONFIG_HTTPS_ROOT, HOME);
+        configuration.setProperty(CONFIG_SSL_PASSWORD, SSL_PASSWORD);
+        configuration.setProperty(CONFIG_HTTPS_AUTH, "none");
+
+        final HttpServer server = new HttpServer(configuration);
+        final SSLContext serverContext = (SSLContext)PrivateAccess.getInstanceValue(server, "sslContext");
+        final SSLContext clientContext = clientContext();
+
+        final String[] names = {
+            "jvm defaults", "TLSv1.2 RSA/CBC", "TLSv1.2 DHE/GCM", "TLSv1.2 ECDHE/GCM", "HttpServer defaults"
+        };
+        final String[][][] combinations = {
+            null,
+            { {"TLSv1.2"}, {"TLS_RSA_WITH_AES_128_CBC_SHA"} },
+            { {"TLSv1.2"}, {"TLS_DHE_RSA_WITH_AES_128_GCM_SHA256"} },
+            { {"TLSv1.2"}, {"TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256"} },
+            { server.getSSLProtocols(), server.getSSLCipherSuites() }
+        };
+
+        System.out.println(String.format("%-20s %12s %12s  %s", "configuration", "handshakes/s", "us/handshake", "negotiated"));
+        for (int i=0; i<names.length; ++i) {
+            try {
+                run(serverContext, clientContext, combinations[i], DURATION/4); // warm up
+                long[] result = new long[1];
+                String negotiated = run(serverContext, clientContext, combinations[i], DURATION, result);
+                System.out.println(String.format(
+                    "%-20s %12d %12d  %s", names[i], result[0] * 1000 / DURATION, DURATION * 1000 / Math.max(1, result[0]), negotiated
+                ));
+            } catch (Exception x) {
+                System.out.println(String.format("%-20s %12s %12s  %s", names[i], "n/a", "n/a", x.getMessage()));
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-20s %12s %12s  %s", "certificate", "handshakes/s", "us/handshake", "negotiated"));
+        final Object[][] keys = {
+            { CertificateBuilder.RSA, 2048 }, { CertificateBuilder.RSA, 3072 }, { CertificateBuilder.EC, 256 }
+        };
+        for (Object[] key: keys) {
+            final String name = key[0] + " " + key[1];
+            final CertificateBuilder builder = new CertificateBuilder("cn=localhost");
+            final X509Certificate certificate = builder.generateKeyPair((String)key[0], (Integer)key[1]).build();
+
+            final File home = Files.createTempDirectory("https").toFile();
+            new File(home, "conf").mkdir();
+            final KeyStore keystore = KeyStore.getInstance("jks");
+            keystore.load(null, null);
+            keystore.setKeyEntry(
+                HttpServer.CERT_ALIAS, builder.getKeyPair().getPrivate(),
+                SSL_PASSWORD.toCharArray(), new Certificate[] { certificate }
+            );
+            try (OutputStream os = new FileOutputStream(new File(home, "conf/keystore"))) {
+                keystore.store(os, SSL_PASSWORD.toCharArray());
+            }
+            final KeyStore castore = KeyStore.getInstance("jks");
+            castore.load(null, null);
+            castore.setCertificateEntry(HttpServer.CERT_ALIAS, certificate);
+
+            configuration.setProperty(CONFIG_HTTPS_ROOT, home.getAbsolutePath());
+            final HttpServer s = new HttpServer(configuration);
+            final SSLContext context = (SSLContext)PrivateAccess.getInstanceValue(s, "sslContext");
+            final String[][] combination = { s.getSSLProtocols(), s.getSSLCipherSuites() };
+
+            run(context, clientContext(castore), combination, DURATION/4); // warm up
+            long[] result = new long[1];
+            String negotiated = run(context, clientContext(castore), combination, DURATION, result);
+            System.out.println(String.format(
+                "%-20s %12d %12d  %s", name, result[0] * 1000 / DURATION, DURATION * 1000 / Math.max(1, result[0]), negotiated
+            ));
+        }
+    }
+
+    private static String run(SSLContext serverContext, SSLContext clientContext, String[][] combination, long duration)
+    throws Exception {
+        return run(serverContext, clientContext, combination, duration, new long[1]);
+    }
+
+    /**
+     * Does full handshakes for duration milliseconds
+     *
+     * @return the negotiated protocol and cipher suite
+     */
+    private static String run(
+        SSLContext serverContext, SSLContext clientContext, String[][] combination, long duration, long[] count
+    ) throws Exception {
+        String negotiated = null;
+        final long end = System.currentTimeMillis() + duration;
+        while (System.currentTimeMillis() < end) {
+            SSLEngine server = serverContext.createSSLEngine();
+            server.setUseClientMode(false);
+            if (combination != null) {
+                SSLParameters parameters = server.getSSLParameters();
+                parameters.setProtocols(combination[0]);
+                parameters.setCipherSuites(combination[1]);
+                parameters.setUseCipherSuitesOrder(true);
+                server.setSSLParameters(parameters);
+            }
+
+            //
+            // no peer host and port, so that the client never resumes a session
+            //
+            SSLEngine client = clientContext.createSSLEngine();
+            client.setUseClientMode(true);
+
+            handshake(client, server);
+            ++count[0];
+            negotiated = server.getSession().getProtocol() + " " + server.getSession().getCipherSuite();
+        }
+
+        return negotiated;
+    }
+
+    private static void handshake(final SSLEngine client, final SSLEngine server) throws SSLException {
+        final int size = Math.max(client.getSession().getPacketBufferSize(), server.getSession().getPacketBufferSize());
+        final ByteBuffer c2s = ByteBuffer.allocate(4*size), s2c = ByteBuffer.allocate(4*size);
+        final ByteBuffer app = ByteBuffer.allocate(4*size);
+
+        client.beginHandshake(); server.beginHandshake();
+        for (int i=0; (i<100) && (handshaking(client) || handshaking(server)); ++i) {
+            step(client, s2c, c2s, app);
+            step(server, c2s, s2c, app);
+        }
+        if (handshaking(client) || handshaking(server)) {
+            throw new SSLException("handshake not completed");
+        }
+    }
+
+    private static boolean handshaking(final SSLEngine engine) {
+        return engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+    }
+
+    /**
+     * Moves the handshake of the given engine forward until it needs data
+     * from the peer
+     */
+    private static void step(SSLEngine engine, ByteBuffer in, ByteBuffer out, ByteBuffer app)
+    throws SSLException {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    engine.wrap(EMPTY, out);
+                    break;
+                case NEED_UNWRAP:
+                    in.flip();
+                    SSLEngineResult result = engine.unwrap(in, app);
+                    in.compact(); app.clear();
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        return;
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("handshake failed");
+                    }
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    private static SSLContext clientContext() throws Exception {
+        KeyStore castore = KeyStore.getInstance("jks");
+        try (InputStream is = new FileInputStream(HOME + "/conf/castore")) {
+            castore.load(is, SSL_PASSWORD.toCharArray());
+        }
+
+        return clientContext(castore);
+    }
+
+    private static SSLContext clientContext(final KeyStore castore) throws Exception {
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(castore);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, tmf.getTrustManagers(), null);
+
+        return context;
+    }
+}
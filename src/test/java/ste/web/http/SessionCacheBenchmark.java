@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.web.http;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+/**
+ * Measures the throughput of SessionCache.get() with an increasing number of
+ * threads accessing a set of existing sessions, as request threads do. With
+ * no contention the throughput scales with the number of cores.
+ *
+ * It is not run as part of the test suite; run it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ste.web.http.SessionCacheBenchmark
+ * </pre>
+ */
+public class SessionCacheBenchmark {
+
+    private static final int SESSIONS = 10000;
+    private static final long DURATION = 2000; // ms
+
+    public static void main(String... args) throws Exception {
+        SessionCache cache = new SessionCache(
+            new ConfigurationSessionFactory(new PropertiesConfiguration())
+        );
+
+        final String[] ids = new String[SESSIONS];
+        for (int i=0; i<SESSIONS; ++i) {
+            ids[i] = cache.get(null).getId();
+        }
+
+        run(cache, ids, 1); // warm up
+
+        final int CORES = Runtime.getRuntime().availableProcessors();
+        System.out.println(String.format("%8s %15s", "threads", "ops/s"));
+        for (int threads=1; threads<=CORES*2; threads*=2) {
+            System.out.println(String.format("%8d %15d", threads, run(cache, ids, threads)));
+        }
+    }
+
+    private static long run(final SessionCache cache, final String[] ids, final int threads)
+    throws InterruptedException {
+        final LongAdder ops = new LongAdder();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long end[] = new long[1];
+
+        Thread[] workers = new Thread[threads];
+        for (int i=0; i<threads; ++i) {
+            workers[i] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try { start.await(); } catch (InterruptedException x) { return; }
+                long n = 0;
+                while (System.currentTimeMillis() < end[0]) {
+                    cache.get(ids[random.nextInt(ids.length)]); ++n;
+                }
+                ops.add(n);
+            });
+            workers[i].start();
+        }
+
+        end[0] = System.currentTimeMillis() + DURATION;
+        start.countDown();
+        for (Thread t: workers) {
+            t.join();
+        }
+
+        return ops.sum() * 1000 / DURATION;
+    }
+}
@@ -19,6 +19,8 @@ import java.security.KeyPair;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
 import java.util.Calendar;
 import java.util.Date;
 import static org.assertj.core.api.Assertions.fail;
@@ -80,6 +82,42 @@ public class BugFreeCertificateBuilder {
         //
         builder.generateKeyPair(); 
         then(builder.getKeyPair()).isNotSameAs(keys);
+        
+        //
+        // by default 2048 bits RSA
+        //
+        then(keys.getPublic().getAlgorithm()).isEqualTo("RSA");
+        then(((RSAPublicKey)keys.getPublic()).getModulus().bitLength()).isEqualTo(2048);
+    }
+    
+    @Test
+    public void generate_key_pair_with_algorithm_and_size() {
+        CertificateBuilder builder = new CertificateBuilder(DN1);
+        
+        then(builder.generateKeyPair(CertificateBuilder.RSA, 3072)).isSameAs(builder);
+        then(((RSAPublicKey)builder.getKeyPair().getPublic()).getModulus().bitLength()).isEqualTo(3072);
+        
+        for (int SIZE: new int[] {256, 384}) {
+            builder.generateKeyPair(CertificateBuilder.EC, SIZE);
+            then(builder.getKeyPair().getPublic().getAlgorithm()).isEqualTo("EC");
+            then(((ECPublicKey)builder.getKeyPair().getPublic()).getParams().getCurve().getField().getFieldSize())
+                .isEqualTo(SIZE);
+        }
+    }
+    
+    @Test
+    public void generate_key_pair_ko() {
+        final Object[][] TEST_VALUES = {
+            {"RSA", 1024}, {"EC", 128}, {"DSA", 2048}, {"none", 256}
+        };
+        for (Object[] V: TEST_VALUES) {
+            try {
+                new CertificateBuilder(DN1).generateKeyPair((String)V[0], (Integer)V[1]);
+                fail("missing check for " + V[0] + " " + V[1]);
+            } catch (IllegalArgumentException x) {
+                then(x).hasMessageContaining("invalid key " + V[0] + " " + V[1]);
+            }
+        }
     }
     
     @Test 
@@ -96,4 +134,17 @@ public class BugFreeCertificateBuilder {
         
         certificate.checkValidity();
     }
+    
+    @Test 
+    public void generate_ec_certificate() throws Exception {
+        CertificateBuilder builder = new CertificateBuilder(DN1);
+        X509Certificate certificate = builder.generateKeyPair(CertificateBuilder.EC, 256).build();
+        then(certificate.getPublicKey().getAlgorithm()).isEqualTo("EC");
+        then(certificate.getSigAlgName()).isEqualTo("SHA256withECDSA");
+        
+        certificate.verify(builder.getKeyPair().getPublic());
+        
+        certificate = builder.generateKeyPair(CertificateBuilder.EC, 384).build();
+        then(certificate.getSigAlgName()).isEqualTo("SHA384withECDSA");
+    }
 }
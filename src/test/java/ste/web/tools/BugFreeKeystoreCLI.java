@@ -23,6 +23,7 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPublicKey;
 import static org.assertj.core.api.BDDAssertions.then;
 import org.junit.Before;
 import org.junit.Rule;
@@ -94,7 +95,9 @@ public class BugFreeKeystoreCLI extends BugFreeCLI {
     //
     // creates a new keysore with new keypairs with the following characteristics:
     // - una certificate with alias ste.https
-    // - keypair generator alghoritm: RSA 1024 bits
+    // - keypair generator alghoritm: RSA 2048 bits (or --keysize)
+    // - an EC P-256 certificate with alias ste.https.ec (--keytype both, the
+    //   default); with --keytype ec the EC certificate is the one in ste.https
     // - validity: 2 years
     //
     @Test
@@ -178,9 +181,46 @@ public class BugFreeKeystoreCLI extends BugFreeCLI {
         checkKeystore(keystoreFile, null);
     }
 
+    @Test
+    public void init_with_key_type_and_size() throws Exception {
+        File keystoreFile = new File(TESTDIR.getRoot(), "keystore");
+        
+        KeystoreCLI.main(new String[] {"init"});
+        KeyStore ks = checkKeystore(keystoreFile, null);
+        then(ks.getCertificate(HttpServer.CERT_ALIAS).getPublicKey().getAlgorithm()).isEqualTo("RSA");
+        then(ks.getCertificate(HttpServer.CERT_ALIAS_EC).getPublicKey().getAlgorithm()).isEqualTo("EC");
+        keystoreFile.delete();
+        
+        KeystoreCLI.main(new String[] {"init", "--keytype", "rsa", "--keysize", "3072"});
+        ks = checkKeystore(keystoreFile, null);
+        then(((RSAPublicKey)ks.getCertificate(HttpServer.CERT_ALIAS).getPublicKey()).getModulus().bitLength())
+            .isEqualTo(3072);
+        then(ks.containsAlias(HttpServer.CERT_ALIAS_EC)).isFalse();
+        keystoreFile.delete();
+        
+        KeystoreCLI.main(new String[] {"init", "--keytype", "ec"});
+        ks = checkKeystore(keystoreFile, null);
+        then(ks.getCertificate(HttpServer.CERT_ALIAS).getPublicKey().getAlgorithm()).isEqualTo("EC");
+        then(ks.containsAlias(HttpServer.CERT_ALIAS_EC)).isFalse();
+    }
+    
+    @Test
+    public void init_with_invalid_key_type_or_size() throws Exception {
+        File keystoreFile = new File(TESTDIR.getRoot(), "keystore");
+        
+        KeystoreCLI.main(new String[] {"init", "--keytype", "dsa"});
+        then(STDOUT.getLog()).contains("ups! invalid key type dsa").contains("usage:");
+        then(keystoreFile).doesNotExist();
+        
+        STDOUT.clearLog();
+        KeystoreCLI.main(new String[] {"init", "--keysize", "1024"});
+        then(STDOUT.getLog()).contains("ups! invalid key rsa 1024").contains("usage:");
+        then(keystoreFile).doesNotExist();
+    }
+
     // --------------------------------------------------------- private methods
     
-    private void checkKeystore(File keystoreFile, String password) 
+    private KeyStore checkKeystore(File keystoreFile, String password) 
         throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
         then(keystoreFile).exists();
         KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
@@ -189,5 +229,7 @@ public class BugFreeKeystoreCLI extends BugFreeCLI {
         then(ks.containsAlias(HttpServer.CERT_ALIAS)).isTrue();
         X509Certificate cert = (X509Certificate)ks.getCertificate(HttpServer.CERT_ALIAS);
         then(cert.getIssuerDN().getName()).isEqualToIgnoringCase("cn=localhost");
+        
+        return ks;
     }
 }